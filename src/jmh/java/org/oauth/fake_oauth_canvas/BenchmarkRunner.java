@@ -0,0 +1,38 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs every benchmark once per thread count in -Djmh.threads (comma-separated) and writes all
+ * results to a single JSON file (-Djmh.result). Other arguments are passed to JMH unchanged,
+ * e.g. "-prof gc" or a benchmark name regex.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String resultFile = System.getProperty("jmh.result", "jmh-result.json");
+
+        List<RunResult> results = new ArrayList<>();
+        for (String threads : System.getProperty("jmh.threads", "1").split(",")) {
+            results.addAll(new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .build()).run());
+        }
+
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, resultFile).writeOut(results);
+        System.out.println("Benchmark results written to " + resultFile);
+    }
+}
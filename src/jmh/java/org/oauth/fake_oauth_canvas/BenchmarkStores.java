@@ -0,0 +1,53 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.Map;
+
+/**
+ * Builds TokenStores outside Spring with the default configuration, apart from the given lifetimes.
+ */
+final class BenchmarkStores {
+
+    static final String INSTRUCTOR_ACCESS_TOKEN = "benchmark-instructor-token";
+    static final String STUDENT_ACCESS_TOKEN = "benchmark-student-token";
+    static final String STUDENT_REFRESH_TOKEN = "refresh-token-student-fghij";
+    static final HmacSigner SIGNER = new HmacSigner("benchmark-signing-key");
+    /** Controllers record their timers here, so the benchmarks include the instrumentation cost */
+    static final OAuthMetrics METRICS = new OAuthMetrics(new SimpleMeterRegistry());
+    /** No registry file, so every client is accepted, as by default */
+    static final ClientRegistry CLIENTS = new ClientRegistry(new SimpleMeterRegistry(), "", 0);
+
+    private BenchmarkStores() {
+    }
+
+    /**
+     * @param codeTtlSeconds keep short for benchmarks that issue codes, so the store reaches a steady size
+     * @param tokenTtlSeconds likewise for benchmarks that mint tokens
+     */
+    static TokenStore create(TokenMode mode, int codeTtlSeconds, int tokenTtlSeconds) {
+        return create(mode, codeTtlSeconds, tokenTtlSeconds, null);
+    }
+
+    /**
+     * @param persistence durable backend, or null for the plain in-memory store
+     */
+    static TokenStore create(TokenMode mode, int codeTtlSeconds, int tokenTtlSeconds, TokenPersistence persistence) {
+        DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+        if (persistence != null) {
+            beans.registerSingleton("tokenPersistence", persistence);
+        }
+        StandardEnvironment env = new StandardEnvironment();
+        env.getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "OAUTH_INSTRUCTOR_ACCESS_TOKEN", INSTRUCTOR_ACCESS_TOKEN,
+                "OAUTH_STUDENT_ACCESS_TOKEN", STUDENT_ACCESS_TOKEN)));
+        return new TokenStore(env, SIGNER, beans.getBeanProvider(TokenPersistence.class),
+                codeTtlSeconds, 100, false,
+                mode, tokenTtlSeconds, tokenTtlSeconds, false, 100_000, 2, 30,
+                "refresh-token-instructor-67890", 101, "Kashyap Kale", "kashyapk@vt.edu",
+                STUDENT_REFRESH_TOKEN, 202, "Sarthak Raut", "sarthakr@vt.edu");
+    }
+}
@@ -0,0 +1,103 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking an authorization request's client_id and redirect_uri against a registry of
+ * {@code clientCount} clients, each with two prefixes on its own host and, with {@code exactUris},
+ * two exact redirect URIs: an exact match, a prefix match, and a URI on the client's host that
+ * matches neither.
+ * {@link #load} is the cost of parsing and compiling the whole registry on a reload.
+ *
+ * Each operation builds its client_id and redirect_uri afresh, as parsing a request would, so they
+ * are in the CPU cache and their hash codes are not: with {@code clientCount} large only the
+ * registry is cold. {@link #request} is that cost alone, to subtract from the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class ClientRegistryBenchmark {
+
+    @Param({"100", "50000"})
+    private int clientCount;
+
+    @Param({"true", "false"})
+    private boolean exactUris;
+
+    private JSONObject config;
+    private Map<String, ClientRegistry.Client> clients;
+
+    @Setup
+    public void create() {
+        JSONArray entries = new JSONArray();
+        for (int i = 0; i < clientCount; i++) {
+            String host = "https://team-" + i + ".apps.example.edu";
+            JSONArray redirectUris = new JSONArray()
+                    .put(host + "/oauth/*")
+                    .put(host + "/preview/pr-" + i + "/*");
+            if (exactUris) {
+                redirectUris.put(host + "/login/oauth2/code/canvas")
+                        .put("http://localhost:" + (3000 + i % 1000) + "/callback");
+            }
+            entries.put(new JSONObject()
+                    .put("client_id", "client-" + i)
+                    .put("client_secret", "secret-" + i)
+                    .put("redirect_uris", redirectUris));
+        }
+        config = new JSONObject().put("clients", entries);
+        clients = ClientRegistry.parse(config);
+    }
+
+    private static String clientId(int i) {
+        return "client-" + i;
+    }
+
+    private static String host(int i) {
+        return "https://team-" + i + ".apps.example.edu";
+    }
+
+    @Benchmark
+    public int request() {
+        int i = ThreadLocalRandom.current().nextInt(clientCount);
+        return clientId(i).length() + (host(i) + "/preview/pr-" + i + "/login/oauth2/code/canvas?tenant=" + i).length();
+    }
+
+    @Benchmark
+    public boolean exactMatch() {
+        int i = ThreadLocalRandom.current().nextInt(clientCount);
+        // Without exact URIs, this is rejected after the prefix walk
+        return clients.get(clientId(i)).allowsRedirect(host(i) + "/login/oauth2/code/canvas");
+    }
+
+    @Benchmark
+    public boolean prefixMatch() {
+        int i = ThreadLocalRandom.current().nextInt(clientCount);
+        return clients.get(clientId(i)).allowsRedirect(host(i) + "/preview/pr-" + i + "/login/oauth2/code/canvas?tenant=" + i);
+    }
+
+    @Benchmark
+    public boolean noMatch() {
+        int i = ThreadLocalRandom.current().nextInt(clientCount);
+        return clients.get(clientId(i)).allowsRedirect(host(i) + "/preview/pr-" + (i + 1) + "/login/oauth2/code/canvas");
+    }
+
+    @Benchmark
+    public Map<String, ClientRegistry.Client> load() {
+        return ClientRegistry.parse(config);
+    }
+}
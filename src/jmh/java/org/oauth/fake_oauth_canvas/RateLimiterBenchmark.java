@@ -0,0 +1,49 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one {@link Gcra} acquire, the per-request work of the rate limit. With one key every
+ * thread CASes the same bucket, the worst case for contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    @Param({"1", "10000"})
+    private int keyCount;
+
+    // Limits no benchmark can reach (allowed path) or one it always exceeds (throttled path)
+    @Param({"1e12", "1"})
+    private double ratePerSecond;
+
+    private Gcra gcra;
+    private String[] keys;
+
+    @Setup
+    public void create() {
+        gcra = new Gcra(ratePerSecond, 100);
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "client-" + i;
+        }
+    }
+
+    @Benchmark
+    public long acquire() {
+        return gcra.acquire(keys[ThreadLocalRandom.current().nextInt(keys.length)], System.nanoTime());
+    }
+}
@@ -0,0 +1,97 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AuthController.token and getUserInfo called directly, including body construction but not the servlet stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ResponseBenchmark {
+
+    @Param({"1000", "1000000"})
+    private int storeSize;
+
+    @Param({"STATIC", "OPAQUE", "SIGNED"})
+    private TokenMode tokenMode;
+
+    private TokenStore store;
+    private AuthController controller;
+    private String[] accessTokens;
+
+    @Setup
+    public void fill() {
+        store = BenchmarkStores.create(tokenMode, 3600, 3600);
+        controller = new AuthController(store, BenchmarkStores.SIGNER, BenchmarkStores.METRICS, BenchmarkStores.CLIENTS, false, 600, 1000);
+        accessTokens = new String[storeSize];
+        for (int i = 0; i < storeSize; i++) {
+            accessTokens[i] = store.redeemCode(store.generateCode(TokenStore.STUDENT_ROLE, i + 1)).tokens().accessToken();
+        }
+    }
+
+    @TearDown
+    public void shutdown() {
+        store.shutdown();
+    }
+
+    /**
+     * Store for the token grants: codes live for one second and tokens for ten, so what they mint
+     * does not pile up over the run.
+     */
+    @State(Scope.Benchmark)
+    public static class IssuingStore {
+
+        private TokenStore store;
+        private AuthController controller;
+
+        @Setup
+        public void create(ResponseBenchmark benchmark) {
+            store = BenchmarkStores.create(benchmark.tokenMode, 1, 10);
+            controller = new AuthController(store, BenchmarkStores.SIGNER, BenchmarkStores.METRICS, BenchmarkStores.CLIENTS, false, 600, 1000);
+        }
+
+        @TearDown
+        public void shutdown() {
+            store.shutdown();
+        }
+    }
+
+    /**
+     * Issue plus redemption of one code, as the authorization_code grant always follows select-role.
+     */
+    @Benchmark
+    public ResponseEntity<byte[]> tokenAuthorizationCode(IssuingStore issuing) {
+        String code = issuing.store.generateCode(TokenStore.STUDENT_ROLE, ThreadLocalRandom.current().nextInt(1, 100_000));
+        return issuing.controller.token("authorization_code", "benchmark-client", null, null, code, null, null, null, null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> tokenRefreshStatic(IssuingStore issuing) {
+        return issuing.controller.token("refresh_token", "benchmark-client", null, null, null,
+                BenchmarkStores.STUDENT_REFRESH_TOKEN, null, null, null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> getUserInfo() {
+        // Minted tokens only exist in the per-user modes; static mode resolves the configured token
+        String token = tokenMode == TokenMode.STATIC
+                ? BenchmarkStores.STUDENT_ACCESS_TOKEN
+                : accessTokens[ThreadLocalRandom.current().nextInt(storeSize)];
+        return controller.getUserInfo(token);
+    }
+}
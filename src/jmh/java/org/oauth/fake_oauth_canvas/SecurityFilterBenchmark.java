@@ -0,0 +1,115 @@
+package org.oauth.fake_oauth_canvas;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.http.MappingMatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletMapping;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of Spring Security's filter chain alone (the springSecurityFilterChain bean,
+ * ending in a no-op), for /api/v1/users/self and the token endpoint, with the minimal API chain
+ * (apiChain=true) and with everything going through the full login chain (apiChain=false), with and
+ * without Micrometer observations of the security filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class SecurityFilterBenchmark {
+
+    private static final FilterChain HANDLER = (request, response) -> { };
+    private static final MockHttpServletMapping DISPATCHER = new MockHttpServletMapping("", "", "dispatcherServlet", MappingMatch.DEFAULT);
+
+    @Param({"true", "false"})
+    private boolean apiChain;
+
+    // Micrometer observations around every security filter (management.observations.enable.spring.security)
+    @Param({"false", "true"})
+    private boolean securityObservations;
+
+    private ConfigurableApplicationContext context;
+    private Filter securityFilterChain;
+    // The embedded server's context, which the login chain's MVC request matchers look servlets up in
+    private ServletContext servletContext;
+
+    @Setup
+    public void start() {
+        context = new SpringApplicationBuilder(FakeOauthCanvasApplication.class)
+                .profiles("production")
+                .properties(
+                        "server.port=0",
+                        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=" + BenchmarkStores.INSTRUCTOR_ACCESS_TOKEN,
+                        "OAUTH_STUDENT_ACCESS_TOKEN=" + BenchmarkStores.STUDENT_ACCESS_TOKEN,
+                        "spring.datasource.url=jdbc:h2:mem:security-benchmark")
+                // Arguments, unlike builder properties, take precedence over application.properties
+                .run("--oauth.security.api-chain.enabled=" + apiChain,
+                        "--management.observations.enable.spring.security=" + securityObservations);
+        securityFilterChain = context.getBean("springSecurityFilterChain", Filter.class);
+        servletContext = ((WebApplicationContext) context).getServletContext();
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse usersSelf() throws Exception {
+        MockHttpServletRequest request = request("GET", "/api/v1/users/self");
+        request.setParameter("access_token", BenchmarkStores.STUDENT_ACCESS_TOKEN);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        securityFilterChain.doFilter(request, response, HANDLER);
+        return response;
+    }
+
+    /**
+     * Building the mock request and response without any filter, to subtract from the others.
+     */
+    @Benchmark
+    public MockHttpServletResponse usersSelfWithoutSecurity() throws Exception {
+        MockHttpServletRequest request = request("GET", "/api/v1/users/self");
+        request.setParameter("access_token", BenchmarkStores.STUDENT_ACCESS_TOKEN);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HANDLER.doFilter(request, response);
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse token() throws Exception {
+        MockHttpServletRequest request = request("POST", "/login/oauth2/token");
+        request.setParameter("grant_type", "refresh_token");
+        request.setParameter("refresh_token", BenchmarkStores.STUDENT_REFRESH_TOKEN);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        securityFilterChain.doFilter(request, response, HANDLER);
+        return response;
+    }
+
+    /**
+     * A request as Tomcat hands it to the filters with the DispatcherServlet mapped to "/": the
+     * servlet path is the whole path, which the API chain's path patterns match on.
+     */
+    private MockHttpServletRequest request(String method, String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest(servletContext, method, path);
+        request.setServletPath(path);
+        request.setHttpServletMapping(DISPATCHER);
+        return request;
+    }
+}
@@ -0,0 +1,116 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Lookups against a store holding {@code storeSize} live codes and {@code storeSize} token pairs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TokenStoreBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int storeSize;
+
+    @Param({"STATIC", "OPAQUE", "SIGNED"})
+    private TokenMode tokenMode;
+
+    private TokenStore store;
+    private String[] codes;
+    private String[] accessTokens;
+
+    @Setup
+    public void fill() {
+        store = BenchmarkStores.create(tokenMode, 3600, 3600);
+        codes = new String[storeSize];
+        accessTokens = new String[storeSize];
+        for (int i = 0; i < storeSize; i++) {
+            codes[i] = store.generateCode(TokenStore.STUDENT_ROLE, i + 1);
+            accessTokens[i] = store.redeemCode(store.generateCode(TokenStore.STUDENT_ROLE, i + 1)).tokens().accessToken();
+        }
+    }
+
+    @TearDown
+    public void shutdown() {
+        store.shutdown();
+    }
+
+    @Benchmark
+    public String getRoleForCode() {
+        return store.getRoleForCode(codes[ThreadLocalRandom.current().nextInt(storeSize)]);
+    }
+
+    @Benchmark
+    public String getRoleForAccessToken() {
+        return store.getRoleForAccessToken(accessTokens[ThreadLocalRandom.current().nextInt(storeSize)]);
+    }
+
+    @Benchmark
+    public JSONObject getUserDetails() {
+        return store.getUserDetails(TokenStore.STUDENT_ROLE);
+    }
+
+    /**
+     * Issues codes into a separate store whose codes live for one second, so its size stays
+     * proportional to the issue rate instead of growing for the whole run. With "journal" every
+     * code is also appended to a {@link JournalTokenPersistence} in a temporary directory.
+     */
+    @State(Scope.Benchmark)
+    public static class IssuingStore {
+
+        @Param({"memory", "journal"})
+        private String persistence;
+
+        private TokenStore store;
+        private JournalTokenPersistence journal;
+        private Path journalDir;
+
+        @Setup
+        public void create() throws IOException {
+            if ("journal".equals(persistence)) {
+                journalDir = Files.createTempDirectory("token-journal");
+                journal = new JournalTokenPersistence(journalDir.toString(), 64, false, 100, 60);
+            }
+            store = BenchmarkStores.create(TokenMode.STATIC, 1, 3600, journal);
+        }
+
+        @TearDown
+        public void shutdown() throws IOException, InterruptedException {
+            store.shutdown();
+            if (journal != null) {
+                journal.shutdown();
+                try (Stream<Path> files = Files.list(journalDir)) {
+                    for (Path file : files.toList()) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(journalDir);
+            }
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+    public String generateCode(IssuingStore issuing) {
+        return issuing.store.generateCode(TokenStore.STUDENT_ROLE);
+    }
+}
@@ -0,0 +1,84 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keep-alive connections that each make one request and then sit idle for the whole run, the way a
+ * large fleet of test clients holds pooled connections open between logins.
+ */
+final class IdleConnections implements AutoCloseable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+
+    private final List<SocketChannel> channels = new ArrayList<>();
+    private final ByteBuffer discard = ByteBuffer.allocate(8192);
+
+    /**
+     * Opens up to {@code count} connections, stopping at the first one the server does not accept in time.
+     */
+    static IdleConnections open(String baseUrl, int count) throws IOException {
+        URI uri = URI.create(baseUrl);
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 80);
+        ByteBuffer request = ByteBuffer.wrap(("GET /actuator/health HTTP/1.1\r\nHost: " + uri.getHost()
+                + "\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        IdleConnections connections = new IdleConnections();
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.socket().connect(address, CONNECT_TIMEOUT_MILLIS);
+                channel.write(request.duplicate());
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                channel.close();
+                System.out.println("Stopped opening idle connections after " + i + ": " + e.getMessage());
+                break;
+            }
+            connections.channels.add(channel);
+        }
+        return connections;
+    }
+
+    int opened() {
+        return channels.size();
+    }
+
+    /**
+     * @return the connections the server has not closed; reading drains the response to their one request
+     */
+    int stillOpen() {
+        int open = 0;
+        for (SocketChannel channel : channels) {
+            try {
+                int read;
+                do {
+                    discard.clear();
+                    read = channel.read(discard);
+                } while (read > 0);
+                if (read == 0) {
+                    open++;
+                }
+            } catch (IOException e) {
+                // reset by the server: closed
+            }
+        }
+        return open;
+    }
+
+    @Override
+    public void close() {
+        for (SocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
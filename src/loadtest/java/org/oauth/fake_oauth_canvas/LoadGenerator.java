@@ -0,0 +1,204 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives complete logins against an embedded instance (random port) or -Dload.target.
+ *
+ * Arrivals follow an open model: flows are scheduled at a fixed rate regardless of how fast the
+ * server answers, and up to load.concurrency of them run at once. A flow that has to wait for a
+ * free worker is timed from its scheduled start, so a stalled server shows up in the percentiles
+ * instead of silently lowering the offered load (coordinated omission).
+ *
+ * Settings are system properties: load.rate (logins/s), load.concurrency, load.warmup and
+ * load.duration (seconds), load.users (distinct simulated user ids), load.target, load.tokens-mode and
+ * load.server (servlet or reactive; embedded instance only), load.idle-connections (keep-alive
+ * connections held open, idle, for the whole run), load.profile (logging profile of the embedded
+ * instance; "default" for the per-step INFO banners), load.prefill-codes (unredeemed codes issued
+ * into the embedded store before the run) and load.report (JSON output file).
+ */
+public final class LoadGenerator {
+
+    private static final Arrival STOP = new Arrival(0, null);
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = Double.parseDouble(System.getProperty("load.rate", "200"));
+        int concurrency = Integer.getInteger("load.concurrency", 64);
+        int warmupSeconds = Integer.getInteger("load.warmup", 10);
+        int durationSeconds = Integer.getInteger("load.duration", 30);
+        int users = Integer.getInteger("load.users", 10_000);
+        String target = System.getProperty("load.target", "");
+        String server = System.getProperty("load.server", "servlet");
+        int idleConnections = Integer.getInteger("load.idle-connections", 0);
+        String profile = System.getProperty("load.profile", "production");
+        int prefillCodes = Integer.getInteger("load.prefill-codes", 0);
+        String report = System.getProperty("load.report", "loadtest-result.json");
+
+        ConfigurableApplicationContext app = target.isBlank()
+                ? startEmbedded(System.getProperty("load.tokens-mode", "opaque"), "reactive".equals(server), profile)
+                : null;
+        if (app != null && prefillCodes > 0) {
+            prefill(app.getBean(TokenStore.class), prefillCodes);
+            System.out.printf("Prefilled the store with %d unredeemed codes%n", prefillCodes);
+        }
+        String baseUrl = app != null
+                ? "http://localhost:" + ((WebServerApplicationContext) app).getWebServer().getPort()
+                : target.replaceAll("/+$", "");
+        IdleConnections idle = null;
+        try {
+            if (idleConnections > 0) {
+                idle = IdleConnections.open(baseUrl, idleConnections);
+                System.out.printf("Holding %d idle keep-alive connections%n", idle.opened());
+            }
+            System.out.printf("Driving %s at %.0f logins/s, concurrency %d, %ds warmup + %ds measured%n",
+                    baseUrl, rate, concurrency, warmupSeconds, durationSeconds);
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .executor(Executors.newFixedThreadPool(4, daemon("load-http")))
+                    .build();
+            LoginFlow flow = new LoginFlow(client, baseUrl, users);
+
+            LoadStats measured = run(flow, rate, concurrency, warmupSeconds, durationSeconds);
+
+            System.out.println();
+            System.out.print(measured.toTable(durationSeconds));
+            JSONObject result = measured.toJson(durationSeconds);
+            if (idle != null) {
+                int stillOpen = idle.stillOpen();
+                System.out.printf("Idle connections still open at the end: %d of %d%n", stillOpen, idle.opened());
+                result.put("idle_connections", new JSONObject()
+                        .put("requested", idleConnections)
+                        .put("opened", idle.opened())
+                        .put("still_open", stillOpen));
+            }
+            result.put("server", app != null ? server : "external")
+                    .put("profile", app != null ? profile : "external")
+                    .put("prefilled_codes", app != null ? prefillCodes : 0)
+                    .put("target_rate", rate)
+                    .put("achieved_rate", measured.completedFlows() / (double) durationSeconds)
+                    .put("concurrency", concurrency)
+                    .put("duration_seconds", durationSeconds);
+            Files.writeString(Path.of(report), result.toString(2));
+            System.out.println("Load test results written to " + report);
+        } finally {
+            if (idle != null) {
+                idle.close();
+            }
+            if (app != null) {
+                app.close();
+            }
+        }
+    }
+
+    /**
+     * @return the statistics for the measured phase; warmup flows record into a discarded instance
+     */
+    private static LoadStats run(LoginFlow flow, double rate, int concurrency, int warmupSeconds, int durationSeconds)
+            throws InterruptedException {
+        BlockingQueue<Arrival> arrivals = new LinkedBlockingQueue<>();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, daemon("load-user"));
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                try {
+                    for (Arrival arrival = arrivals.take(); arrival != STOP; arrival = arrivals.take()) {
+                        flow.run(arrival.intendedStartNanos, arrival.stats);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        LoadStats warmup = new LoadStats();
+        LoadStats measured = new LoadStats();
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long intended = start; intended < end; intended += intervalNanos) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            arrivals.add(new Arrival(intended, intended < measureFrom ? warmup : measured));
+        }
+
+        int backlog = arrivals.size();
+        for (int i = 0; i < concurrency; i++) {
+            arrivals.add(STOP);
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+            System.out.println("Workers did not drain the backlog within 60s; abandoning it");
+            workers.shutdownNow();
+        }
+        if (backlog > 0) {
+            System.out.println("Logins still queued when arrivals stopped: " + backlog
+                    + " (the server could not sustain the offered rate)");
+        }
+        return measured;
+    }
+
+    private static ConfigurableApplicationContext startEmbedded(String tokensMode, boolean reactive, String profile) {
+        SpringApplication application = new SpringApplication(FakeOauthCanvasApplication.class);
+        return application.run(
+                "--server.port=0",
+                "--spring.profiles.active=" + (reactive ? profile + ",reactive" : profile),
+                "--spring.datasource.url=jdbc:h2:mem:loadtest",
+                "--spring.devtools.restart.enabled=false",
+                "--OAUTH_INSTRUCTOR_ACCESS_TOKEN=loadtest-instructor-token",
+                "--OAUTH_STUDENT_ACCESS_TOKEN=loadtest-student-token",
+                "--oauth.tokens.mode=" + tokensMode);
+    }
+
+    /**
+     * Issues codes that are never redeemed and so stay live for the whole run (the code TTL is 600s),
+     * so the store is measured at a realistic size rather than empty.
+     */
+    private static void prefill(TokenStore tokenStore, int count) {
+        int batch = 10_000;
+        String[] roles = new String[batch];
+        int[] userIds = new int[batch];
+        Arrays.fill(roles, TokenStore.STUDENT_ROLE);
+        for (int issued = 0; issued < count; issued += batch) {
+            int size = Math.min(batch, count - issued);
+            for (int i = 0; i < size; i++) {
+                userIds[i] = 1_000_000 + issued + i;
+            }
+            tokenStore.provisionCodes(roles, userIds, size);
+        }
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record Arrival(long intendedStartNanos, LoadStats stats) {
+    }
+}
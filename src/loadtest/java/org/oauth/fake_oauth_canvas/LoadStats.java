@@ -0,0 +1,104 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-step latency histograms (microseconds, 3 significant digits) and error counts for one phase of a run.
+ */
+final class LoadStats {
+
+    enum Step {
+        AUTHORIZE("auth"),
+        SELECT_ROLE("select-role"),
+        TOKEN("token"),
+        USERS_SELF("users/self"),
+        /** The whole login, from its intended start */
+        FLOW("flow");
+
+        private final String label;
+
+        Step(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<Step, Histogram> latencies = new EnumMap<>(Step.class);
+    private final Map<Step, LongAdder> errors = new EnumMap<>(Step.class);
+    private final LongAdder ioFailures = new LongAdder();
+
+    LoadStats() {
+        for (Step step : Step.values()) {
+            latencies.put(step, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+            errors.put(step, new LongAdder());
+        }
+    }
+
+    /**
+     * Records a step that started at {@code startNanos} and has just finished.
+     *
+     * @return {@code ok}, so the flow can stop at the first failed step
+     */
+    boolean record(Step step, long startNanos, boolean ok) {
+        if (ok) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+            latencies.get(step).recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+        } else {
+            errors.get(step).increment();
+        }
+        return ok;
+    }
+
+    void recordFailure() {
+        ioFailures.increment();
+    }
+
+    long completedFlows() {
+        return latencies.get(Step.FLOW).getTotalCount();
+    }
+
+    String toTable(double seconds) {
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT, "%-12s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "step", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Step step : Step.values()) {
+            Histogram histogram = latencies.get(step);
+            table.append(String.format(Locale.ROOT, "%-12s %9d %7d %9.1f", step.label, histogram.getTotalCount(),
+                    errors.get(step).sum(), histogram.getTotalCount() / seconds));
+            for (double percentile : PERCENTILES) {
+                table.append(String.format(Locale.ROOT, " %9.2f", histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            table.append(String.format(Locale.ROOT, " %9.2f%n", histogram.getMaxValue() / 1000.0));
+        }
+        return table.append("I/O failures: ").append(ioFailures.sum()).append('\n').toString();
+    }
+
+    JSONObject toJson(double seconds) {
+        JSONObject steps = new JSONObject();
+        for (Step step : Step.values()) {
+            Histogram histogram = latencies.get(step);
+            JSONObject percentiles = new JSONObject();
+            for (double percentile : PERCENTILES) {
+                String label = percentile % 1 == 0 ? String.valueOf((int) percentile) : String.valueOf(percentile);
+                percentiles.put("p" + label, histogram.getValueAtPercentile(percentile));
+            }
+            steps.put(step.label, new JSONObject()
+                    .put("count", histogram.getTotalCount())
+                    .put("errors", errors.get(step).sum())
+                    .put("throughput_per_second", histogram.getTotalCount() / seconds)
+                    .put("latency_us", percentiles
+                            .put("mean", histogram.getMean())
+                            .put("max", histogram.getMaxValue())));
+        }
+        return new JSONObject().put("steps", steps).put("io_failures", ioFailures.sum());
+    }
+}
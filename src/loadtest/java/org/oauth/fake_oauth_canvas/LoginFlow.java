@@ -0,0 +1,117 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One simulated login: /login/oauth2/auth, select-role, token, users/self, exactly as a browser
+ * and a backend would drive them. Works with both the session and the stateless authorize mode.
+ */
+final class LoginFlow {
+
+    private static final String CLIENT_ID = "load-test";
+    private static final String REDIRECT_URI = "http://localhost:3000/callback";
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final int users;
+
+    LoginFlow(HttpClient client, String baseUrl, int users) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.users = users;
+    }
+
+    /**
+     * @param intendedStartNanos when the flow was scheduled to start; the first step and the whole
+     *                           flow are timed from here, so time spent queued behind a slow server counts
+     */
+    void run(long intendedStartNanos, LoadStats stats) {
+        String state = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        int userId = 1 + ThreadLocalRandom.current().nextInt(users);
+        try {
+            HttpResponse<String> authorize = send(HttpRequest.newBuilder(URI.create(baseUrl + "/login/oauth2/auth?client_id="
+                    + CLIENT_ID + "&response_type=code&redirect_uri=" + encode(REDIRECT_URI) + "&state=" + state)).GET());
+            if (!stats.record(LoadStats.Step.AUTHORIZE, intendedStartNanos, authorize.statusCode() == 302)) {
+                return;
+            }
+            String ctx = queryParameter(authorize.headers().firstValue("Location").orElse(""), "ctx");
+            String sessionCookie = authorize.headers().allValues("Set-Cookie").stream()
+                    .filter(cookie -> cookie.startsWith("JSESSIONID="))
+                    .map(cookie -> cookie.substring(0, cookie.indexOf(';') > 0 ? cookie.indexOf(';') : cookie.length()))
+                    .findFirst().orElse(null);
+
+            long start = System.nanoTime();
+            HttpRequest.Builder selectRole = form(baseUrl + "/login/oauth2/select-role",
+                    "role=student&user_id=" + userId + (ctx != null ? "&ctx=" + ctx : ""));
+            if (sessionCookie != null) {
+                selectRole.header("Cookie", sessionCookie);
+            }
+            HttpResponse<String> selected = send(selectRole);
+            String code = queryParameter(selected.headers().firstValue("Location").orElse(""), "code");
+            if (!stats.record(LoadStats.Step.SELECT_ROLE, start, selected.statusCode() == 302 && code != null)) {
+                return;
+            }
+
+            start = System.nanoTime();
+            HttpResponse<String> token = send(form(baseUrl + "/login/oauth2/token",
+                    "grant_type=authorization_code&client_id=" + CLIENT_ID + "&code=" + code
+                            + "&redirect_uri=" + encode(REDIRECT_URI)));
+            if (!stats.record(LoadStats.Step.TOKEN, start, token.statusCode() == 200)) {
+                return;
+            }
+            String accessToken = new JSONObject(token.body()).getString("access_token");
+
+            start = System.nanoTime();
+            HttpResponse<String> self = send(HttpRequest.newBuilder(
+                    URI.create(baseUrl + "/api/v1/users/self?access_token=" + encode(accessToken))).GET());
+            if (!stats.record(LoadStats.Step.USERS_SELF, start, self.statusCode() == 200)) {
+                return;
+            }
+            stats.record(LoadStats.Step.FLOW, intendedStartNanos, true);
+        } catch (IOException e) {
+            stats.recordFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest.Builder form(String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Raw (still URL-encoded) value of a query parameter in a redirect location, or null.
+     */
+    private static String queryParameter(String location, String name) {
+        int query = location.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String pair : location.substring(query + 1).split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotContribution;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Spring AOT (the faststart Maven profile) evaluates bean conditions once, at build time, so an
+ * AOT build keeps the beans picked by the properties it was built with, whatever is set later.
+ * This records the properties that pick beans into the build and, when the AOT build runs
+ * (-Dspring.aot.enabled=true), refuses to start if one of them now differs, rather than silently
+ * ignoring e.g. OAUTH_STORE_PERSISTENCE=jdbc.
+ *
+ * Registered in META-INF/spring/aot.factories (build time) and META-INF/spring.factories (startup).
+ */
+public class AotBuildSettings implements BeanFactoryInitializationAotProcessor,
+        ApplicationListener<ApplicationEnvironmentPreparedEvent> {
+
+    static final String RESOURCE = "META-INF/fake-oauth-canvas/aot-build.properties";
+
+    // Properties read by @ConditionalOnProperty and Boot conditions in this service
+    static final List<String> PROPERTIES = List.of(
+            "spring.main.web-application-type",
+            "oauth.store.persistence",
+            "oauth.authorized-clients.persistence",
+            "oauth.logging.request-events.enabled",
+            "oauth.security.api-chain.enabled",
+            "oauth.rate-limit.enabled",
+            "oauth.faults.enabled",
+            "oauth.provisioning.enabled",
+            "spring.sql.init.mode",
+            "spring.h2.console.enabled");
+
+    @Override
+    public BeanFactoryInitializationAotContribution processAheadOfTime(ConfigurableListableBeanFactory beanFactory) {
+        Properties settings = read(beanFactory.getBean(Environment.class));
+        StringWriter content = new StringWriter();
+        try {
+            settings.store(content, "Bean-selecting properties of this AOT build (AotBuildSettings)");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return (generationContext, code) -> generationContext.getGeneratedFiles().addResourceFile(RESOURCE, content.toString());
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEnvironmentPreparedEvent event) {
+        if (!AotDetector.useGeneratedArtifacts()) {
+            return;
+        }
+        ClassPathResource resource = new ClassPathResource(RESOURCE);
+        if (!resource.exists()) {
+            return;
+        }
+        Properties built;
+        try {
+            built = PropertiesLoaderUtils.loadProperties(resource);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Properties now = read(event.getEnvironment());
+        List<String> changed = new ArrayList<>();
+        for (String name : PROPERTIES) {
+            String before = built.getProperty(name, "");
+            String after = now.getProperty(name, "");
+            if (!before.equals(after)) {
+                changed.add(name + "='" + after + "' (built with '" + before + "')");
+            }
+        }
+        if (!changed.isEmpty()) {
+            throw new IllegalStateException("This AOT build cannot honour " + String.join(", ", changed)
+                    + ". Rebuild it with these values in spring-boot.aot.jvmArguments, or start without -Dspring.aot.enabled=true");
+        }
+    }
+
+    private static Properties read(Environment environment) {
+        Properties settings = new Properties();
+        for (String name : PROPERTIES) {
+            settings.setProperty(name, environment.getProperty(name, ""));
+        }
+        return settings;
+    }
+}
@@ -1,32 +1,69 @@
 package org.oauth.fake_oauth_canvas;
 
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.json.JSONObject;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URI;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class AuthController {
 
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
 
-    private final TokenStore tokenStore;
+    static final byte[] INVALID_CODE = "Invalid code".getBytes(StandardCharsets.UTF_8);
+    static final byte[] INVALID_REFRESH_TOKEN = "Invalid refresh token".getBytes(StandardCharsets.UTF_8);
+    static final byte[] INVALID_ACCESS_TOKEN = "Invalid access token".getBytes(StandardCharsets.UTF_8);
+    static final byte[] INVALID_CLIENT = "Invalid client".getBytes(StandardCharsets.UTF_8);
+    static final byte[] INVALID_INTROSPECTION_REQUEST =
+            "Expected 1 or more token parameters, up to oauth.introspect.max-tokens".getBytes(StandardCharsets.UTF_8);
 
-    public AuthController(TokenStore tokenStore) {
+    private final TokenStore tokenStore;
+    private final HmacSigner signer;
+    private final OAuthMetrics metrics;
+    private final ClientRegistry clients;
+    private final boolean statelessAuthorize;
+    private final long authorizeContextTtlSeconds;
+    private final int maxIntrospectTokens;
+
+    public AuthController(
+            TokenStore tokenStore,
+            HmacSigner signer,
+            OAuthMetrics metrics,
+            ClientRegistry clients,
+            @Value("${oauth.authorize.stateless:false}") boolean statelessAuthorize,
+            @Value("${oauth.authorize.context-ttl-seconds:600}") long authorizeContextTtlSeconds,
+            @Value("${oauth.introspect.max-tokens:1000}") int maxIntrospectTokens) {
         this.tokenStore = tokenStore;
+        this.signer = signer;
+        this.metrics = metrics;
+        this.clients = clients;
+        this.statelessAuthorize = statelessAuthorize;
+        this.authorizeContextTtlSeconds = authorizeContextTtlSeconds;
+        this.maxIntrospectTokens = maxIntrospectTokens;
         logger.info("======================================");
-        logger.info("AuthController initialized");
+        logger.info("AuthController initialized (stateless authorize: {})", statelessAuthorize);
         logger.info("======================================");
     }
 
@@ -41,11 +78,11 @@ public class AuthController {
             @RequestParam(value = "force_login", required = false) String forceLogin,
             @RequestParam(value = "unique_id", required = false) String uniqueId,
             @RequestParam(value = "prompt", required = false) String prompt,
-            HttpSession session) {
+            HttpServletRequest request) {
+        Timer.Sample sample = metrics.start();
 
         logger.info("======================================");
         logger.info("[AUTHORIZE] GET /login/oauth2/auth");
-        logger.info("[AUTHORIZE] Session ID: {}", session.getId());
         logger.info("[AUTHORIZE] client_id: {}", clientId);
         logger.info("[AUTHORIZE] response_type: {}", responseType);
         logger.info("[AUTHORIZE] redirect_uri: {}", redirectUri);
@@ -55,45 +92,96 @@ public class AuthController {
 
         if (!"code".equals(responseType)) {
             logger.error("[AUTHORIZE] Invalid response_type: {}. Expected 'code'", responseType);
+            metrics.record(sample, OAuthMetrics.AUTHORIZE, "unsupported_response_type");
             return ResponseEntity.badRequest().build();
         }
 
-        session.setAttribute("client_id", clientId);
-        session.setAttribute("redirect_uri", redirectUri);
-        session.setAttribute("state", state);
-        session.setAttribute("scope", scope);
+        // Never redirect to a URI the client has not registered
+        String rejection = clients.checkAuthorization(clientId, redirectUri);
+        if (rejection != null) {
+            logger.error("[AUTHORIZE] Rejected client_id {} with redirect_uri {}: {}", clientId, redirectUri, rejection);
+            metrics.record(sample, OAuthMetrics.AUTHORIZE, rejection);
+            return ResponseEntity.badRequest().build();
+        }
 
-        logger.info("[AUTHORIZE] Stored in session - client_id: {}, redirect_uri: {}, state: {}",
-            clientId, redirectUri, state);
+        String selectRoleLocation = "/login/oauth2/select-role";
+        if (statelessAuthorize) {
+            // Carry the pending request in a signed parameter; no session is created
+            long expiresAt = System.currentTimeMillis() / 1000 + authorizeContextTtlSeconds;
+            String context = new AuthorizationContext(clientId, redirectUri, state, scope, expiresAt).encode(signer);
+            selectRoleLocation += "?ctx=" + context;
+            logger.info("[AUTHORIZE] Stateless - context carried in ctx parameter");
+        } else {
+            HttpSession session = request.getSession();
+            logger.info("[AUTHORIZE] Session ID: {}", session.getId());
+            session.setAttribute("client_id", clientId);
+            session.setAttribute("redirect_uri", redirectUri);
+            session.setAttribute("state", state);
+            session.setAttribute("scope", scope);
+
+            logger.info("[AUTHORIZE] Stored in session - client_id: {}, redirect_uri: {}, state: {}",
+                clientId, redirectUri, state);
+        }
         logger.info("[AUTHORIZE] Redirecting to /login/oauth2/select-role");
 
         HttpHeaders headers = new HttpHeaders();
-        headers.setLocation(URI.create("/login/oauth2/select-role"));
+        headers.setLocation(URI.create(selectRoleLocation));
+        metrics.record(sample, OAuthMetrics.AUTHORIZE, OAuthMetrics.SUCCESS);
         return new ResponseEntity<>(headers, HttpStatus.FOUND);
     }
 
     @PostMapping("/login/oauth2/select-role")
-    public ResponseEntity<Void> selectRole(@RequestParam("role") String role, HttpSession session) {
+    public ResponseEntity<Void> selectRole(
+            @RequestParam("role") String role,
+            @RequestParam(value = "user_id", required = false) Integer userId,
+            @RequestParam(value = "ctx", required = false) String ctx,
+            HttpServletRequest request) {
+        Timer.Sample sample = metrics.start();
         logger.info("======================================");
         logger.info("[SELECT-ROLE] POST /login/oauth2/select-role");
-        logger.info("[SELECT-ROLE] Session ID: {}", session.getId());
         logger.info("[SELECT-ROLE] Selected role: {}", role);
 
-        String redirectUri = (String) session.getAttribute("redirect_uri");
-        String state = (String) session.getAttribute("state");
-        String clientId = (String) session.getAttribute("client_id");
+        String redirectUri = null;
+        String state = null;
+        String clientId = null;
+        if (statelessAuthorize) {
+            AuthorizationContext context = AuthorizationContext.decode(signer, ctx, System.currentTimeMillis() / 1000);
+            if (context != null) {
+                redirectUri = context.redirectUri();
+                state = context.state();
+                clientId = context.clientId();
+            }
+            logger.info("[SELECT-ROLE] Retrieved from ctx - valid: {}", context != null);
+        } else {
+            HttpSession session = request.getSession(false);
+            if (session != null) {
+                logger.info("[SELECT-ROLE] Session ID: {}", session.getId());
+                redirectUri = (String) session.getAttribute("redirect_uri");
+                state = (String) session.getAttribute("state");
+                clientId = (String) session.getAttribute("client_id");
+            }
+        }
 
-        logger.info("[SELECT-ROLE] Retrieved from session - redirect_uri: {}", redirectUri);
-        logger.info("[SELECT-ROLE] Retrieved from session - state: {}", state);
-        logger.info("[SELECT-ROLE] Retrieved from session - client_id: {}", clientId);
+        logger.info("[SELECT-ROLE] Retrieved - redirect_uri: {}", redirectUri);
+        logger.info("[SELECT-ROLE] Retrieved - state: {}", state);
+        logger.info("[SELECT-ROLE] Retrieved - client_id: {}", clientId);
 
         if (redirectUri == null) {
-            logger.error("[SELECT-ROLE] ERROR: redirect_uri is NULL in session!");
+            logger.error("[SELECT-ROLE] ERROR: redirect_uri is NULL - no pending authorization (session lost or ctx missing, forged or expired)");
             logger.error("[SELECT-ROLE] Session attributes: client_id={}, state={}", clientId, state);
+            metrics.record(sample, OAuthMetrics.SELECT_ROLE, "no_pending_authorization");
             return ResponseEntity.badRequest().build();
         }
 
-        String code = tokenStore.generateCode(role);
+        // Without a registry any client may redeem the code, as clients are not authenticated
+        String code = clients.isEnabled()
+            ? tokenStore.generateCode(role, userId, clientId, redirectUri)
+            : tokenStore.generateCode(role, userId);
+        if (code == null) {
+            logger.error("[SELECT-ROLE] ERROR: Unknown role: {}", role);
+            metrics.record(sample, OAuthMetrics.SELECT_ROLE, "unknown_role");
+            return ResponseEntity.badRequest().build();
+        }
         logger.info("[SELECT-ROLE] Generated authorization code: {}", code);
         logger.info("[SELECT-ROLE] Code mapped to role: {}", role);
 
@@ -103,11 +191,12 @@ public class AuthController {
 
         HttpHeaders headers = new HttpHeaders();
         headers.setLocation(URI.create(location));
+        metrics.record(sample, OAuthMetrics.SELECT_ROLE, OAuthMetrics.SUCCESS);
         return new ResponseEntity<>(headers, HttpStatus.FOUND);
     }
 
     @PostMapping("/login/oauth2/token")
-    public ResponseEntity<String> token(
+    public ResponseEntity<byte[]> token(
         @RequestParam("grant_type") String grantType,
         @RequestParam(value = "client_id", required = false) String clientId,
         @RequestParam(value = "client_secret", required = false) String clientSecret,
@@ -116,7 +205,9 @@ public class AuthController {
         @RequestParam(value = "refresh_token", required = false) String refreshToken,
         @RequestParam(value = "client_assertion_type", required = false) String clientAssertionType,
         @RequestParam(value = "client_assertion", required = false) String clientAssertion,
-        @RequestParam(value = "scope", required = false) String scope) {
+        @RequestParam(value = "scope", required = false) String scope,
+        @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        Timer.Sample sample = metrics.start();
 
         logger.info("======================================");
         logger.info("[TOKEN] POST /login/oauth2/token");
@@ -128,83 +219,99 @@ public class AuthController {
         logger.info("[TOKEN] refresh_token: {}", refreshToken != null ? "[REDACTED]" : "null");
         logger.info("======================================");
 
+        try {
+            clientId = clients.authenticate(authorization, clientId, clientSecret);
+        } catch (IllegalArgumentException e) {
+            logger.error("[TOKEN] ERROR: Client authentication failed - {}", e.getMessage());
+            metrics.record(sample, OAuthMetrics.TOKEN, OAuthMetrics.grant(grantType), "invalid_client");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).contentType(MediaType.TEXT_PLAIN).body(INVALID_CLIENT);
+        }
+
         if ("authorization_code".equals(grantType)) {
             logger.info("[TOKEN] Processing authorization_code grant");
             logger.info("[TOKEN] Looking up code in TokenStore: {}", code);
 
-            String role = tokenStore.getRoleForCode(code);
-            logger.info("[TOKEN] TokenStore returned role: {}", role);
+            CodeRedemption redemption = tokenStore.redeemCode(code, clientId, redirectUri);
+            logger.info("[TOKEN] TokenStore redemption status: {}", redemption.status());
 
-            if (role == null) {
+            if (!redemption.isRedeemed()) {
                 logger.error("======================================");
-                logger.error("[TOKEN] ERROR: Invalid code - not found in TokenStore!");
+                logger.error("[TOKEN] ERROR: Code rejected - {}", redemption.status());
                 logger.error("[TOKEN] Code attempted: {}", code);
-                logger.error("[TOKEN] Current codes in store: {}", tokenStore.getAllCodes());
+                logger.error("[TOKEN] Live codes in store: {}", tokenStore.getLiveCodeCount());
                 logger.error("======================================");
-                return ResponseEntity.badRequest().body("Invalid code");
+                metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.outcome(redemption.status()));
+                return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(INVALID_CODE);
             }
 
+            String role = redemption.role();
             logger.info("[TOKEN] Code is valid! Role: {}", role);
 
-            JSONObject response = new JSONObject();
-            String accessToken = tokenStore.getAccessToken(role);
-            response.put("access_token", accessToken);
-            response.put("token_type", "Bearer");
-            response.put("user", tokenStore.getUserDetails(role));
-            response.put("refresh_token", tokenStore.getRefreshToken(role));
-            response.put("expires_in", 3600);
-            response.put("canvas_region", "us-east-1");
+            String accessToken = redemption.tokens().accessToken();
+            byte[] response = tokenStore.getResponseTemplates().codeGrant(redemption.tokens(), redemption.principal());
 
             logger.info("[TOKEN] SUCCESS! Returning tokens for role: {}", role);
             logger.info("[TOKEN] Access token (first 20 chars): {}...",
                 accessToken != null && accessToken.length() > 20 ? accessToken.substring(0, 20) : accessToken);
             logger.info("======================================");
 
-            return ResponseEntity.ok(response.toString());
+            metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.outcome(redemption.status()));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(response);
 
         } else if ("refresh_token".equals(grantType)) {
             logger.info("[TOKEN] Processing refresh_token grant");
-            String role = TokenStore.INSTRUCTOR_ROLE;
-            JSONObject response = new JSONObject();
-            response.put("access_token", tokenStore.getAccessToken(role));
-            response.put("token_type", "Bearer");
-            response.put("user", tokenStore.getUserDetails(role));
-            response.put("expires_in", 3600);
-            logger.info("[TOKEN] SUCCESS! Returning refreshed tokens");
-            return ResponseEntity.ok(response.toString());
+            TokenRefresh refresh = tokenStore.refresh(refreshToken);
+            if (!refresh.isRefreshed()) {
+                logger.error("[TOKEN] ERROR: Refresh token rejected - {}", refresh.status());
+                metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.outcome(refresh.status()));
+                return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(INVALID_REFRESH_TOKEN);
+            }
+            byte[] response = tokenStore.getResponseTemplates()
+                .refreshGrant(refresh.accessToken(), refresh.refreshToken(), refresh.principal());
+            logger.info("[TOKEN] SUCCESS! Returning refreshed tokens for role: {}", refresh.principal().role());
+            metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.outcome(refresh.status()));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(response);
 
         } else if ("client_credentials".equals(grantType)) {
             logger.info("[TOKEN] Processing client_credentials grant");
             JSONObject response = new JSONObject();
-            response.put("access_token", UUID.randomUUID().toString());
+            response.put("access_token", tokenStore.issueClientToken(clientId));
             response.put("token_type", "Bearer");
-            response.put("expires_in", 3600);
+            response.put("expires_in", tokenStore.getAccessTokenTtlSeconds());
             response.put("scope", scope);
-            return ResponseEntity.ok(response.toString());
+            metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.SUCCESS);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(response.toString().getBytes(StandardCharsets.UTF_8));
         }
 
         logger.error("[TOKEN] ERROR: Unsupported grant_type: {}", grantType);
+        metrics.record(sample, OAuthMetrics.TOKEN, OAuthMetrics.UNSUPPORTED_GRANT, "unsupported_grant_type");
         return ResponseEntity.badRequest().build();
     }
 
     @DeleteMapping("/login/oauth2/token")
     public ResponseEntity<String> logout(
             @RequestParam(value = "expire_sessions", required = false) String expireSessions) {
+        Timer.Sample sample = metrics.start();
         logger.info("[LOGOUT] DELETE /login/oauth2/token, expire_sessions={}", expireSessions);
         if ("1".equals(expireSessions)) {
             JSONObject response = new JSONObject();
             response.put("forward_url", "https://idp.school.edu/opaque_url");
+            metrics.record(sample, OAuthMetrics.LOGOUT, OAuthMetrics.SUCCESS);
             return ResponseEntity.ok(response.toString());
         }
+        metrics.record(sample, OAuthMetrics.LOGOUT, OAuthMetrics.SUCCESS);
         return ResponseEntity.ok().build();
     }
 
     @GetMapping("/login/session_token")
     public ResponseEntity<String> sessionToken(
             @RequestParam(value = "return_to", required = false) String returnTo) {
+        Timer.Sample sample = metrics.start();
         logger.info("[SESSION-TOKEN] GET /login/session_token, return_to={}", returnTo);
         JSONObject response = new JSONObject();
         response.put("session_url", "https://canvas.instructure.com/opaque_url");
+        metrics.record(sample, OAuthMetrics.SESSION_TOKEN, OAuthMetrics.SUCCESS);
         return ResponseEntity.ok(response.toString());
     }
 
@@ -213,37 +320,62 @@ public class AuthController {
      * This endpoint is called by the VT-AI-Teaching-Assistant-Backend to validate OAuth tokens
      */
     @GetMapping("/api/v1/users/self")
-    public ResponseEntity<String> getUserInfo(@RequestParam(value = "access_token", required = false) String accessToken) {
+    public ResponseEntity<byte[]> getUserInfo(@RequestParam(value = "access_token", required = false) String accessToken) {
+        Timer.Sample sample = metrics.start();
         logger.info("======================================");
         logger.info("[USER-INFO] GET /api/v1/users/self");
         logger.info("[USER-INFO] access_token: {}", accessToken != null ? accessToken.substring(0, Math.min(20, accessToken.length())) + "..." : "null");
 
         // Check if token is valid by looking it up in our token store
-        String role = tokenStore.getRoleForAccessToken(accessToken);
+        Principal principal = tokenStore.getPrincipalForAccessToken(accessToken);
+        String role = principal != null ? principal.role() : null;
         logger.info("[USER-INFO] Token lookup returned role: {}", role);
 
-        if (role == null) {
+        if (principal == null) {
             logger.error("[USER-INFO] ERROR: Invalid access token - not found in TokenStore");
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid access token");
-        }
-
-        JSONObject userDetails = tokenStore.getUserDetails(role);
-        if (userDetails == null) {
-            logger.error("[USER-INFO] ERROR: No user details found for role: {}", role);
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid access token");
+            metrics.record(sample, OAuthMetrics.USERS_SELF, "invalid_token");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).contentType(MediaType.TEXT_PLAIN).body(INVALID_ACCESS_TOKEN);
         }
 
-        // Add email based on role (matching the existing system)
-        if (TokenStore.INSTRUCTOR_ROLE.equals(role)) {
-            userDetails.put("email", "kashyapk@vt.edu");
-            userDetails.put("login_id", "kashyapk@vt.edu");
-        } else if (TokenStore.STUDENT_ROLE.equals(role)) {
-            userDetails.put("email", "sarthakr@vt.edu");
-            userDetails.put("login_id", "sarthakr@vt.edu");
-        }
+        // Pre-serialized per user; nothing shared is mutated
+        byte[] userDetails = tokenStore.getResponseTemplates().userInfo(principal);
 
         logger.info("[USER-INFO] SUCCESS! Returning user details for role: {}", role);
+        metrics.record(sample, OAuthMetrics.USERS_SELF, OAuthMetrics.SUCCESS);
         logger.info("======================================");
-        return ResponseEntity.ok(userDetails.toString());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(userDetails);
+    }
+
+    /**
+     * RFC 7662 introspection for a batch of access tokens, given as repeated "token" form parameters.
+     * All tokens are resolved against the TokenStore in one pass, then one response object per token
+     * is streamed back as NDJSON, in request order. Refresh tokens are reported inactive.
+     */
+    @PostMapping("/login/oauth2/introspect")
+    public void introspect(
+            @RequestParam(value = "token", required = false) List<String> tokens,
+            @RequestParam(value = "token_type_hint", required = false) String tokenTypeHint,
+            HttpServletResponse response) throws IOException {
+        Timer.Sample sample = metrics.start();
+        int count = tokens != null ? tokens.size() : 0;
+        logger.info("[INTROSPECT] POST /login/oauth2/introspect, tokens: {}, token_type_hint: {}", count, tokenTypeHint);
+
+        if (count == 0 || count > maxIntrospectTokens) {
+            logger.error("[INTROSPECT] ERROR: {} tokens given, expected 1 to {}", count, maxIntrospectTokens);
+            metrics.record(sample, OAuthMetrics.INTROSPECT, "invalid_request");
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getOutputStream().write(INVALID_INTROSPECTION_REQUEST);
+            return;
+        }
+
+        Principal[] principals = tokenStore.introspect(tokens);
+        ResponseTemplates templates = tokenStore.getResponseTemplates();
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        ServletOutputStream out = response.getOutputStream();
+        for (Principal principal : principals) {
+            out.write(templates.introspectionLine(principal));
+        }
+        metrics.record(sample, OAuthMetrics.INTROSPECT, OAuthMetrics.SUCCESS);
     }
 }
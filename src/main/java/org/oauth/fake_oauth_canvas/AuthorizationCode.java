@@ -0,0 +1,106 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An issued authorization code, the user it was issued to and, when clients are registered, the
+ * client and redirect_uri it was issued for.
+ * The expiry is a {@link System#nanoTime()} deadline so it is immune to wall-clock changes.
+ *
+ * A code stays in the store after it is redeemed (until its TTL elapses) so that a second
+ * redemption can be recognised as a replay rather than an unknown code. Redemption is a
+ * single compare-and-set on {@link #redeemedWith}, which makes it exactly-once without locking.
+ */
+public final class AuthorizationCode {
+
+    private static final AtomicReferenceFieldUpdater<AuthorizationCode, IssuedTokens> REDEEMED_WITH =
+            AtomicReferenceFieldUpdater.newUpdater(AuthorizationCode.class, IssuedTokens.class, "redeemedWith");
+    private static final AtomicIntegerFieldUpdater<AuthorizationCode> REVOKED =
+            AtomicIntegerFieldUpdater.newUpdater(AuthorizationCode.class, "revoked");
+
+    private final String code;
+    private final Principal principal;
+    private final String clientId;
+    private final String redirectUri;
+    private final long expiresAtNanos;
+    private volatile IssuedTokens redeemedWith;
+    private volatile int revoked;
+
+    /**
+     * @param clientId client the code may only be redeemed by, or null if any client may redeem it
+     * @param redirectUri redirect_uri the redemption must repeat; only checked with a clientId
+     */
+    public AuthorizationCode(String code, Principal principal, String clientId, String redirectUri, long expiresAtNanos) {
+        this.code = code;
+        this.principal = principal;
+        this.clientId = clientId;
+        this.redirectUri = redirectUri;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public String code() {
+        return code;
+    }
+
+    public Principal principal() {
+        return principal;
+    }
+
+    public String role() {
+        return principal.role();
+    }
+
+    public String clientId() {
+        return clientId;
+    }
+
+    public String redirectUri() {
+        return redirectUri;
+    }
+
+    /**
+     * RFC 6749 section 4.1.3: the redeeming client must be the one the code was issued to, with the
+     * same redirect_uri.
+     */
+    public boolean isBoundTo(String clientId, String redirectUri) {
+        return this.clientId == null || this.clientId.equals(clientId) && this.redirectUri.equals(redirectUri);
+    }
+
+    public long expiresAtNanos() {
+        return expiresAtNanos;
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return nowNanos - expiresAtNanos >= 0;
+    }
+
+    public boolean isRedeemed() {
+        return redeemedWith != null;
+    }
+
+    /**
+     * Tokens handed out when this code was redeemed, or null if it has not been redeemed.
+     */
+    public IssuedTokens redeemedWith() {
+        return redeemedWith;
+    }
+
+    /**
+     * Atomically marks the code as redeemed.
+     *
+     * @return true for exactly one caller; every later caller is a replay
+     */
+    boolean markRedeemed(IssuedTokens tokens) {
+        return REDEEMED_WITH.compareAndSet(this, null, tokens);
+    }
+
+    /**
+     * Atomically marks the tokens this code was redeemed with as revoked after a replay.
+     *
+     * @return true for exactly one caller, which does the revoking; later replays have nothing left to revoke
+     */
+    boolean markRevoked() {
+        return REVOKED.compareAndSet(this, 0, 1);
+    }
+}
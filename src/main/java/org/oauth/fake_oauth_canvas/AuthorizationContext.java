@@ -0,0 +1,75 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+
+/**
+ * Pending authorization request carried between /login/oauth2/auth and /login/oauth2/select-role.
+ *
+ * In stateless mode this travels as a signed, expiring "ctx" parameter instead of servlet session
+ * attributes, so the two requests may land on different replicas and no session is ever created.
+ * The value is not encrypted; it only holds what the client already put in the authorize URL.
+ * It is signed for {@link HmacSigner.Purpose#AUTHORIZATION_CONTEXT}, so although anyone can get
+ * one from the authorize endpoint it is never accepted as an access token.
+ */
+public record AuthorizationContext(String clientId, String redirectUri, String state, String scope, long expiresAt) {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    public String encode(HmacSigner signer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeNullable(out, clientId);
+            writeNullable(out, redirectUri);
+            writeNullable(out, state);
+            writeNullable(out, scope);
+            out.writeLong(expiresAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        return ENCODER.encodeToString(payload) + '.' + ENCODER.encodeToString(signer.sign(HmacSigner.Purpose.AUTHORIZATION_CONTEXT, payload, 0, payload.length));
+    }
+
+    /**
+     * @param now epoch seconds
+     * @return the context, or null if the value is malformed, was not signed with our key as a context or has expired
+     */
+    public static AuthorizationContext decode(HmacSigner signer, String encoded, long now) {
+        int separator = encoded != null ? encoded.indexOf('.') : -1;
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            byte[] payload = DECODER.decode(encoded.substring(0, separator));
+            byte[] signature = DECODER.decode(encoded.substring(separator + 1));
+            if (!signer.verify(HmacSigner.Purpose.AUTHORIZATION_CONTEXT, payload, 0, payload.length, signature)) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            AuthorizationContext context = new AuthorizationContext(
+                    readNullable(in), readNullable(in), readNullable(in), readNullable(in), in.readLong());
+            // Exactly the fields written by encode, nothing trailing
+            return in.available() == 0 && context.expiresAt() > now ? context : null;
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
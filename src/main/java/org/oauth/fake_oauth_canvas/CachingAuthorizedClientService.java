@@ -0,0 +1,125 @@
+package org.oauth.fake_oauth_canvas;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.JdbcOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the OAuth client side's authorized clients (the tokens {@link WebClientConfig}'s WebClient
+ * sends) in the oauth2_authorized_client table, behind a bounded in-memory cache
+ * (oauth.authorized-clients.persistence=jdbc).
+ *
+ * Outbound calls look their authorized client up on every request, so reads are served from the
+ * cache and only a miss queries the database; concurrent misses for the same client share one
+ * query. Saves, including the ones that follow a token refresh, are written to the database first
+ * and then replace the cached entry (write-through), and removals invalidate it. An entry is
+ * dropped after oauth.authorized-clients.cache.ttl-seconds, or when its access token expires if
+ * it has no refresh token to renew it with. Boot builds the OAuth2AuthorizedClientRepository over
+ * this service in place of its in-memory one.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "oauth.authorized-clients.persistence", havingValue = "jdbc")
+public class CachingAuthorizedClientService implements OAuth2AuthorizedClientService, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingAuthorizedClientService.class);
+
+    private record Key(String clientRegistrationId, String principalName) {
+    }
+
+    private final OAuth2AuthorizedClientService delegate;
+    private final long ttlNanos;
+    private final Cache<Key, OAuth2AuthorizedClient> cache;
+
+    public CachingAuthorizedClientService(
+            JdbcTemplate jdbc,
+            ClientRegistrationRepository clientRegistrationRepository,
+            @Value("${oauth.authorized-clients.cache.max-size:10000}") long maxSize,
+            @Value("${oauth.authorized-clients.cache.ttl-seconds:300}") long ttlSeconds,
+            // The table is in the same schema.sql as the token store's
+            @Value("${oauth.store.jdbc.initialize-schema:true}") boolean initializeSchema) {
+        if (initializeSchema) {
+            new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(jdbc.getDataSource());
+        }
+        this.delegate = new JdbcOAuth2AuthorizedClientService(jdbc, clientRegistrationRepository);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfter(new Expiry<Key, OAuth2AuthorizedClient>() {
+                @Override
+                public long expireAfterCreate(Key key, OAuth2AuthorizedClient client, long currentTime) {
+                    return lifetimeNanos(client);
+                }
+
+                @Override
+                public long expireAfterUpdate(Key key, OAuth2AuthorizedClient client, long currentTime, long currentDuration) {
+                    return lifetimeNanos(client);
+                }
+
+                @Override
+                public long expireAfterRead(Key key, OAuth2AuthorizedClient client, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+
+        logger.info("[CachingAuthorizedClientService] Persisting authorized clients to the datasource, caching at most {} for {}s",
+            maxSize, ttlSeconds);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends OAuth2AuthorizedClient> T loadAuthorizedClient(String clientRegistrationId, String principalName) {
+        return (T) cache.get(new Key(clientRegistrationId, principalName),
+            key -> delegate.loadAuthorizedClient(key.clientRegistrationId(), key.principalName()));
+    }
+
+    @Override
+    public void saveAuthorizedClient(OAuth2AuthorizedClient authorizedClient, Authentication principal) {
+        delegate.saveAuthorizedClient(authorizedClient, principal);
+        cache.put(new Key(authorizedClient.getClientRegistration().getRegistrationId(), principal.getName()),
+            authorizedClient);
+    }
+
+    @Override
+    public void removeAuthorizedClient(String clientRegistrationId, String principalName) {
+        delegate.removeAuthorizedClient(clientRegistrationId, principalName);
+        cache.invalidate(new Key(clientRegistrationId, principalName));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // cache.gets{result=hit|miss}, cache.size, cache.evictions, ... tagged cache=oauth.authorized-clients
+        CaffeineCacheMetrics.monitor(registry, cache, "oauth.authorized-clients");
+    }
+
+    private long lifetimeNanos(OAuth2AuthorizedClient client) {
+        Instant expiresAt = client.getAccessToken().getExpiresAt();
+        if (client.getRefreshToken() != null || expiresAt == null) {
+            return ttlNanos;
+        }
+        long remainingMillis = Math.max(0, expiresAt.toEpochMilli() - System.currentTimeMillis());
+        return Math.min(ttlNanos, TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+    }
+}
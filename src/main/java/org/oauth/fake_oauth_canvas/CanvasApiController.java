@@ -0,0 +1,166 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Synthetic Canvas course API ({@link SyntheticCanvas}): courses, a course's enrollments and its
+ * assignments, paginated with page/per_page and a Link header like Canvas.
+ *
+ * Each page is generated while it is written: items go out in chunks through the response writer,
+ * whose buffer is flushed to the socket as it fills, so neither the dataset nor a whole page is
+ * ever held in memory. Any valid access token may read everything.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CanvasApiController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CanvasApiController.class);
+
+    private final TokenStore tokenStore;
+    private final SyntheticCanvas canvas;
+    private final OAuthMetrics metrics;
+
+    public CanvasApiController(TokenStore tokenStore, SyntheticCanvas canvas, OAuthMetrics metrics) {
+        this.tokenStore = tokenStore;
+        this.canvas = canvas;
+        this.metrics = metrics;
+    }
+
+    @GetMapping("/api/v1/courses")
+    public void courses(
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestParam(value = "page", required = false) String page,
+            @RequestParam(value = "per_page", required = false) String perPage,
+            HttpServletResponse response) throws IOException {
+        list(OAuthMetrics.COURSES, canvas.courses(), accessToken, authorization, page, perPage, response);
+    }
+
+    @GetMapping("/api/v1/courses/{courseId}")
+    public void course(
+            @PathVariable("courseId") String courseId,
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            HttpServletResponse response) throws IOException {
+        Timer.Sample sample = metrics.start();
+        if (!authorized(OAuthMetrics.COURSE, sample, accessToken, authorization, response)) {
+            return;
+        }
+        String course = canvas.course(id(courseId));
+        if (course == null) {
+            notFound(OAuthMetrics.COURSE, sample, response);
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(course);
+        metrics.record(sample, OAuthMetrics.COURSE, OAuthMetrics.SUCCESS);
+    }
+
+    @GetMapping("/api/v1/courses/{courseId}/enrollments")
+    public void enrollments(
+            @PathVariable("courseId") String courseId,
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestParam(value = "page", required = false) String page,
+            @RequestParam(value = "per_page", required = false) String perPage,
+            HttpServletResponse response) throws IOException {
+        list(OAuthMetrics.ENROLLMENTS, canvas.enrollments(id(courseId)), accessToken, authorization, page, perPage, response);
+    }
+
+    @GetMapping("/api/v1/courses/{courseId}/assignments")
+    public void assignments(
+            @PathVariable("courseId") String courseId,
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestParam(value = "page", required = false) String page,
+            @RequestParam(value = "per_page", required = false) String perPage,
+            HttpServletResponse response) throws IOException {
+        list(OAuthMetrics.ASSIGNMENTS, canvas.assignments(id(courseId)), accessToken, authorization, page, perPage, response);
+    }
+
+    /**
+     * Canvas reads the token from an "Authorization: Bearer" header or the access_token parameter.
+     */
+    static String accessToken(String accessToken, String authorization) {
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).trim();
+        }
+        return accessToken;
+    }
+
+    /**
+     * A numeric course id, or 0 (no such course) for anything else, e.g. Canvas's "sis_course_id:" form.
+     */
+    static long id(String courseId) {
+        try {
+            return Long.parseLong(courseId);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void list(String endpoint, SyntheticCanvas.Listing listing, String accessToken, String authorization,
+                      String page, String perPage, HttpServletResponse response) throws IOException {
+        Timer.Sample sample = metrics.start();
+        if (!authorized(endpoint, sample, accessToken, authorization, response)) {
+            return;
+        }
+        if (listing == null) {
+            notFound(endpoint, sample, response);
+            return;
+        }
+        SyntheticCanvas.Page selected = canvas.page(listing, page, perPage);
+        logger.info("[CANVAS-API] {} page {} ({} per page) of {}", endpoint, selected.number(), selected.perPage(), listing.size());
+
+        response.setHeader(HttpHeaders.LINK, selected.linkHeader(ServletUriComponentsBuilder.fromCurrentRequest()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        PrintWriter writer = response.getWriter();
+        StringBuilder chunk = new StringBuilder(SyntheticCanvas.CHUNK_CHARS + 512);
+        long next = selected.from();
+        while (!selected.isComplete(next)) {
+            chunk.setLength(0);
+            next = selected.writeChunk(chunk, next);
+            writer.append(chunk);
+        }
+        metrics.record(sample, endpoint, OAuthMetrics.SUCCESS);
+    }
+
+    private boolean authorized(String endpoint, Timer.Sample sample, String accessToken, String authorization,
+                               HttpServletResponse response) throws IOException {
+        if (tokenStore.getPrincipalForAccessToken(accessToken(accessToken, authorization)) != null) {
+            return true;
+        }
+        logger.error("[CANVAS-API] ERROR: Invalid access token - not found in TokenStore");
+        metrics.record(sample, endpoint, "invalid_token");
+        response.setStatus(HttpStatus.UNAUTHORIZED.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getOutputStream().write(AuthController.INVALID_ACCESS_TOKEN);
+        return false;
+    }
+
+    private void notFound(String endpoint, Timer.Sample sample, HttpServletResponse response) throws IOException {
+        metrics.record(sample, endpoint, "not_found");
+        response.setStatus(HttpStatus.NOT_FOUND.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getOutputStream().write(SyntheticCanvas.NOT_FOUND_BODY);
+    }
+}
@@ -0,0 +1,288 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The OAuth clients allowed to use the authorize and token endpoints, loaded from the JSON file in
+ * oauth.clients.file:
+ *
+ * <pre>
+ * {"clients": [{"client_id": "team-a", "client_secret": "...",
+ *               "redirect_uris": ["https://a.example.com/callback", "https://a.example.com/oauth/*"]}]}
+ * </pre>
+ *
+ * Without a file every client_id, secret and redirect_uri is accepted, as before.
+ *
+ * The file is parsed and compiled ({@link RedirectUris}) into an immutable map that is swapped in
+ * with one volatile write, so requests never wait for a load and always see a whole registry.
+ * A background thread polls the file's modification time and size every
+ * oauth.clients.reload-interval-millis and reloads it when either changes; a file that fails to
+ * parse is logged and the previous registry stays in place. Only the first load may fail startup.
+ */
+@Component
+public class ClientRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClientRegistry.class);
+
+    static final String UNKNOWN_CLIENT = "unknown_client";
+    static final String INVALID_REDIRECT_URI = "invalid_redirect_uri";
+
+    /**
+     * One registered client.
+     */
+    public static final class Client {
+
+        private final String clientId;
+        private final byte[] secret;
+        private final RedirectUris redirectUris;
+
+        Client(String clientId, String secret, RedirectUris redirectUris) {
+            this.clientId = clientId;
+            this.secret = secret.getBytes(StandardCharsets.UTF_8);
+            this.redirectUris = redirectUris;
+        }
+
+        public String clientId() {
+            return clientId;
+        }
+
+        public boolean allowsRedirect(String redirectUri) {
+            return redirectUris.allows(redirectUri);
+        }
+
+        public boolean authenticates(String clientSecret) {
+            return clientSecret != null && MessageDigest.isEqual(secret, clientSecret.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private final Path file;
+    private final MeterRegistry registry;
+    private final ScheduledExecutorService reloader;
+    private volatile Map<String, Client> clients = Map.of();
+    private Object loadedVersion;
+
+    public ClientRegistry(
+            MeterRegistry registry,
+            // Empty accepts any client
+            @Value("${oauth.clients.file:}") String file,
+            // 0 never reloads
+            @Value("${oauth.clients.reload-interval-millis:1000}") long reloadIntervalMillis) {
+        this.registry = registry;
+        this.file = file.isEmpty() ? null : Path.of(file);
+        if (this.file == null) {
+            this.reloader = null;
+            logger.info("[ClientRegistry] No oauth.clients.file - accepting any client_id and redirect_uri");
+            return;
+        }
+        try {
+            reload();
+        } catch (IOException | IllegalArgumentException | JSONException e) {
+            throw new IllegalStateException("Cannot load the client registry from " + this.file, e);
+        }
+        Gauge.builder("oauth.clients", () -> clients.size())
+                .description("Clients in the loaded client registry")
+                .register(registry);
+        if (reloadIntervalMillis <= 0) {
+            this.reloader = null;
+            return;
+        }
+        this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "client-registry-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(this::poll, reloadIntervalMillis, reloadIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * False when no registry file is configured, in which case no client is checked.
+     */
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * The registered client, or null if there is none with this id.
+     */
+    public Client find(String clientId) {
+        return clientId != null ? clients.get(clientId) : null;
+    }
+
+    /**
+     * Checks an authorization request before anything is redirected to its redirect_uri.
+     *
+     * @return null if it may proceed, otherwise the oauth.requests outcome to reject it with
+     */
+    public String checkAuthorization(String clientId, String redirectUri) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Client client = find(clientId);
+        if (client == null) {
+            return UNKNOWN_CLIENT;
+        }
+        return client.allowsRedirect(redirectUri) ? null : INVALID_REDIRECT_URI;
+    }
+
+    /**
+     * Authenticates a token request by the HTTP Basic Authorization header (client_secret_basic) or,
+     * without one, by the client_id and client_secret parameters (client_secret_post).
+     *
+     * @return the authenticated client_id; with no registry, the client_id the request names (may be null)
+     * @throws IllegalArgumentException if the registry is enabled and the credentials are missing or wrong
+     */
+    public String authenticate(String authorization, String clientId, String clientSecret) {
+        if (authorization != null && authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            String[] credentials = basicCredentials(authorization);
+            if (credentials != null) {
+                clientId = credentials[0];
+                clientSecret = credentials[1];
+            } else if (isEnabled()) {
+                throw new IllegalArgumentException("Malformed Basic credentials");
+            }
+        }
+        if (!isEnabled()) {
+            return clientId;
+        }
+        Client client = find(clientId);
+        if (client == null || !client.authenticates(clientSecret)) {
+            throw new IllegalArgumentException("Unknown client or wrong secret: " + clientId);
+        }
+        return client.clientId();
+    }
+
+    /**
+     * Like {@link #authenticate}, but without throwing, for callers that only need to know who is asking.
+     *
+     * @return the authenticated client_id, or null if there is no registry or the credentials are missing or wrong
+     */
+    public String authenticatedClientId(String authorization, String clientId, String clientSecret) {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (authorization != null && authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            String[] credentials = basicCredentials(authorization);
+            if (credentials == null) {
+                return null;
+            }
+            clientId = credentials[0];
+            clientSecret = credentials[1];
+        }
+        Client client = find(clientId);
+        return client != null && client.authenticates(clientSecret) ? client.clientId() : null;
+    }
+
+    /**
+     * Reloads the file now, regardless of its modification time.
+     *
+     * @throws IOException if it cannot be read
+     * @throws IllegalArgumentException or JSONException if it is invalid; the loaded registry is kept
+     */
+    synchronized void reload() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long started = System.nanoTime();
+        Map<String, Client> loaded = parse(new JSONObject(Files.readString(file)));
+        clients = loaded;
+        loadedVersion = version(attributes);
+        logger.info("[ClientRegistry] Loaded {} clients from {} in {}ms",
+                loaded.size(), file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    static Map<String, Client> parse(JSONObject config) {
+        JSONArray entries = config.getJSONArray("clients");
+        Map<String, Client> parsed = new HashMap<>(entries.length() * 2);
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            String clientId = entry.getString("client_id");
+            JSONArray uris = entry.getJSONArray("redirect_uris");
+            List<String> redirectUris = new ArrayList<>(uris.length());
+            for (int j = 0; j < uris.length(); j++) {
+                redirectUris.add(uris.getString(j));
+            }
+            if (clientId.isEmpty() || parsed.containsKey(clientId)) {
+                throw new IllegalArgumentException("client_id must be non-empty and unique: " + clientId);
+            }
+            parsed.put(clientId, new Client(clientId, entry.getString("client_secret"), RedirectUris.compile(redirectUris)));
+        }
+        return Map.copyOf(parsed);
+    }
+
+    private synchronized void poll() {
+        Object version = null;
+        try {
+            version = version(Files.readAttributes(file, BasicFileAttributes.class));
+            if (version.equals(loadedVersion)) {
+                return;
+            }
+            reload();
+            reloadCounter("success").increment();
+        } catch (IOException | RuntimeException e) {
+            logger.error("[ClientRegistry] Cannot reload {} - keeping the {} clients loaded before: {}",
+                    file, clients.size(), e.toString());
+            reloadCounter("failure").increment();
+            // Retried once the file changes again; the version read before the attempt, so a change
+            // made while it was failing is not mistaken for the file that failed
+            loadedVersion = version;
+        }
+    }
+
+    private Counter reloadCounter(String result) {
+        return Counter.builder("oauth.clients.reloads")
+                .description("Reloads of the client registry file after it changed")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static Object version(BasicFileAttributes attributes) {
+        return List.of(attributes.lastModifiedTime(), attributes.size(), String.valueOf(attributes.fileKey()));
+    }
+
+    private static String[] basicCredentials(String authorization) {
+        try {
+            String credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+            int colon = credentials.indexOf(':');
+            if (colon <= 0) {
+                return null;
+            }
+            // RFC 6749 2.3.1: both parts are form-urlencoded before encoding
+            return new String[]{
+                    URLDecoder.decode(credentials.substring(0, colon), StandardCharsets.UTF_8),
+                    URLDecoder.decode(credentials.substring(colon + 1), StandardCharsets.UTF_8)};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
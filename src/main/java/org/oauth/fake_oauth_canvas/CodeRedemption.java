@@ -0,0 +1,29 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * Outcome of {@link TokenStore#redeemCode(String, String, String)}.
+ * Principal and tokens are only set when the status is {@link Status#REDEEMED}.
+ */
+public record CodeRedemption(Status status, Principal principal, IssuedTokens tokens) {
+
+    public enum Status {
+        REDEEMED,
+        REPLAYED,
+        EXPIRED,
+        UNKNOWN,
+        /** Issued to another client or redirect_uri */
+        WRONG_CLIENT
+    }
+
+    static CodeRedemption rejected(Status status) {
+        return new CodeRedemption(status, null, null);
+    }
+
+    public boolean isRedeemed() {
+        return status == Status.REDEEMED;
+    }
+
+    public String role() {
+        return principal != null ? principal.role() : null;
+    }
+}
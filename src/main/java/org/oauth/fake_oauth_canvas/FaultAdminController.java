@@ -0,0 +1,123 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Runtime control of {@link FaultInjector}, in both server modes:
+ * <pre>
+ * GET    /admin/faults              current profiles, keyed by endpoint
+ * PUT    /admin/faults              replace all profiles
+ * PUT    /admin/faults/{endpoint}   set one endpoint's profile
+ * DELETE /admin/faults/{endpoint}   stop faulting one endpoint
+ * DELETE /admin/faults              stop faulting everything
+ * </pre>
+ * When oauth.faults.admin-token is set, requests must carry it in the X-Admin-Token header.
+ */
+@RestController
+@RequestMapping(value = "/admin/faults", produces = MediaType.APPLICATION_JSON_VALUE)
+@ConditionalOnProperty(name = "oauth.faults.enabled", havingValue = "true")
+public class FaultAdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaultAdminController.class);
+
+    private final FaultInjector injector;
+    private final byte[] adminToken;
+
+    public FaultAdminController(FaultInjector injector, @Value("${oauth.faults.admin-token:}") String adminToken) {
+        this.injector = injector;
+        this.adminToken = adminToken.isEmpty() ? null : adminToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @GetMapping
+    public ResponseEntity<String> list(@RequestHeader(value = "X-Admin-Token", required = false) String token) {
+        if (!authorized(token)) {
+            return error(HttpStatus.UNAUTHORIZED, "Invalid admin token");
+        }
+        return ResponseEntity.ok(injector.toJson().toString());
+    }
+
+    @PutMapping
+    public ResponseEntity<String> replaceAll(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                             @RequestBody String body) {
+        if (!authorized(token)) {
+            return error(HttpStatus.UNAUTHORIZED, "Invalid admin token");
+        }
+        try {
+            injector.replaceAll(new JSONObject(body));
+        } catch (JSONException | IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        logger.warn("[FaultAdminController] Fault profiles replaced: {}", injector.toJson());
+        return ResponseEntity.ok(injector.toJson().toString());
+    }
+
+    @PutMapping("/{endpoint}")
+    public ResponseEntity<String> put(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                      @PathVariable String endpoint, @RequestBody String body) {
+        if (!authorized(token)) {
+            return error(HttpStatus.UNAUTHORIZED, "Invalid admin token");
+        }
+        try {
+            injector.put(endpoint, FaultProfile.parse(new JSONObject(body)));
+        } catch (JSONException | IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        logger.warn("[FaultAdminController] Fault profile for {} set: {}", endpoint, body);
+        return ResponseEntity.ok(injector.toJson().toString());
+    }
+
+    @DeleteMapping("/{endpoint}")
+    public ResponseEntity<String> remove(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                         @PathVariable String endpoint) {
+        if (!authorized(token)) {
+            return error(HttpStatus.UNAUTHORIZED, "Invalid admin token");
+        }
+        try {
+            injector.remove(endpoint);
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        logger.warn("[FaultAdminController] Fault profile for {} removed", endpoint);
+        return ResponseEntity.ok(injector.toJson().toString());
+    }
+
+    @DeleteMapping
+    public ResponseEntity<String> clear(@RequestHeader(value = "X-Admin-Token", required = false) String token) {
+        if (!authorized(token)) {
+            return error(HttpStatus.UNAUTHORIZED, "Invalid admin token");
+        }
+        injector.replaceAll(new JSONObject());
+        logger.warn("[FaultAdminController] All fault profiles removed");
+        return ResponseEntity.ok(injector.toJson().toString());
+    }
+
+    private boolean authorized(String token) {
+        return adminToken == null
+                || (token != null && MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static ResponseEntity<String> error(HttpStatus status, String message) {
+        JSONObject error = new JSONObject().put("message", message);
+        return ResponseEntity.status(status).body(new JSONObject().put("errors", new JSONArray().put(error)).toString());
+    }
+}
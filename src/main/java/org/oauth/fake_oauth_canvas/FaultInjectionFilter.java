@@ -0,0 +1,98 @@
+package org.oauth.fake_oauth_canvas;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies {@link FaultInjector} faults in servlet mode. A delayed request is put into async mode
+ * and its Tomcat thread returned to the pool; a single scheduler thread later dispatches it back
+ * to the handler (or writes the injected error), so thousands of slowed requests cost no threads.
+ *
+ * Runs after RequestEventFilter so logged durations include the injected delay, after the rate
+ * limit and before Spring Security. The async re-dispatch skips this filter.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+@ConditionalOnProperty(name = "oauth.faults.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class FaultInjectionFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaultInjectionFilter.class);
+
+    // Slack on top of the delay before the container gives up on the async request itself
+    private static final long ASYNC_TIMEOUT_MARGIN_MILLIS = 5_000;
+
+    private final FaultInjector injector;
+    private final ScheduledExecutorService scheduler;
+
+    public FaultInjectionFilter(FaultInjector injector) {
+        this.injector = injector;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fault-injection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        FaultInjector.Fault fault = injector.next(FaultInjector.endpointFor(request.getMethod(), request.getRequestURI()));
+        if (fault == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (fault.delayNanos() == 0) {
+            writeError(response, fault.status());
+            return;
+        }
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(fault.delayMillis() + ASYNC_TIMEOUT_MARGIN_MILLIS);
+        scheduler.schedule(() -> resume(async, fault.status()), fault.delayNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private static void resume(AsyncContext async, int status) {
+        if (status == 0) {
+            async.dispatch();
+            return;
+        }
+        try {
+            writeError((HttpServletResponse) async.getResponse(), status);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("[FaultInjectionFilter] Could not write injected error: {}", e.toString());
+        } finally {
+            async.complete();
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, int status) throws IOException {
+        response.setStatus(status);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(FaultInjector.ERROR_BODY.length);
+        response.getOutputStream().write(FaultInjector.ERROR_BODY);
+    }
+}
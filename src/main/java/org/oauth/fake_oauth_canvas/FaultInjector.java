@@ -0,0 +1,148 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-endpoint latency, error and timeout injection, so clients can be tested against a slow or
+ * flaky Canvas. Endpoints are named as in the oauth.requests metric (token, users_self, ...).
+ *
+ * The profiles are an immutable map swapped atomically by /admin/faults; the request path only
+ * reads it. Applying a {@link Fault} is up to the servlet or reactive filter, neither of which
+ * holds a thread while the delay runs.
+ */
+@Component
+@ConditionalOnProperty(name = "oauth.faults.enabled", havingValue = "true")
+public class FaultInjector {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaultInjector.class);
+
+    public static final Set<String> ENDPOINTS = Set.of(OAuthMetrics.AUTHORIZE, OAuthMetrics.SELECT_ROLE,
+            OAuthMetrics.TOKEN, OAuthMetrics.LOGOUT, OAuthMetrics.SESSION_TOKEN, OAuthMetrics.USERS_SELF,
+            OAuthMetrics.INTROSPECT);
+
+    static final byte[] ERROR_BODY = "{\"errors\":[{\"message\":\"Injected fault\"}]}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * What to do with one request: wait {@code delayNanos}, then answer {@code status} or, if it is 0,
+     * pass the request on to the handler.
+     */
+    public record Fault(long delayNanos, int status) {
+
+        public long delayMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(delayNanos);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private volatile Map<String, FaultProfile> profiles = Map.of();
+
+    public FaultInjector(MeterRegistry registry, @Value("${oauth.faults.config:}") String initialConfig) {
+        this.registry = registry;
+        replaceAll(initialConfig.isBlank() ? new JSONObject() : new JSONObject(initialConfig));
+        logger.warn("[FaultInjector] Fault injection is enabled - profiles: {}", toJson());
+    }
+
+    /**
+     * The fault endpoint a request targets, or null for paths that are never faulted (admin, actuator, pages).
+     */
+    public static String endpointFor(String method, String path) {
+        return switch (path) {
+            case "/login/oauth2/auth" -> "GET".equals(method) ? OAuthMetrics.AUTHORIZE : null;
+            case "/login/oauth2/select-role" -> "POST".equals(method) ? OAuthMetrics.SELECT_ROLE : null;
+            case "/login/oauth2/token" -> "POST".equals(method) ? OAuthMetrics.TOKEN
+                    : "DELETE".equals(method) ? OAuthMetrics.LOGOUT : null;
+            case "/login/session_token" -> "GET".equals(method) ? OAuthMetrics.SESSION_TOKEN : null;
+            case "/api/v1/users/self" -> "GET".equals(method) ? OAuthMetrics.USERS_SELF : null;
+            case "/login/oauth2/introspect" -> "POST".equals(method) ? OAuthMetrics.INTROSPECT : null;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return the fault for the next request to {@code endpoint}, or null to serve it untouched
+     */
+    public Fault next(String endpoint) {
+        FaultProfile profile = endpoint != null ? profiles.get(endpoint) : null;
+        if (profile == null) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (profile.timeoutRate() > 0 && random.nextDouble() < profile.timeoutRate()) {
+            count(endpoint, "timeout");
+            return new Fault(TimeUnit.MILLISECONDS.toNanos(profile.timeoutMillis()), 504);
+        }
+        long delay = profile.latency() != null ? Math.max(0, profile.latency().sampleNanos(random)) : 0;
+        int status = profile.errorRate() > 0 && random.nextDouble() < profile.errorRate() ? profile.errorStatus() : 0;
+        if (delay > 0) {
+            count(endpoint, "latency");
+        }
+        if (status != 0) {
+            count(endpoint, "error");
+        }
+        return delay > 0 || status != 0 ? new Fault(delay, status) : null;
+    }
+
+    /**
+     * Replaces every profile with those in {@code config}, keyed by endpoint.
+     *
+     * @throws IllegalArgumentException for an unknown endpoint or an invalid profile; nothing is changed then
+     */
+    public synchronized void replaceAll(JSONObject config) {
+        Map<String, FaultProfile> parsed = new TreeMap<>();
+        for (String endpoint : config.keySet()) {
+            parsed.put(checkEndpoint(endpoint), FaultProfile.parse(config.getJSONObject(endpoint)));
+        }
+        profiles = Map.copyOf(parsed);
+    }
+
+    public synchronized void put(String endpoint, FaultProfile profile) {
+        Map<String, FaultProfile> updated = new TreeMap<>(profiles);
+        updated.put(checkEndpoint(endpoint), profile);
+        profiles = Map.copyOf(updated);
+    }
+
+    public synchronized void remove(String endpoint) {
+        Map<String, FaultProfile> updated = new TreeMap<>(profiles);
+        updated.remove(checkEndpoint(endpoint));
+        profiles = Map.copyOf(updated);
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        profiles.forEach((endpoint, profile) -> json.put(endpoint, profile.toJson()));
+        return json;
+    }
+
+    private static String checkEndpoint(String endpoint) {
+        if (!ENDPOINTS.contains(endpoint)) {
+            throw new IllegalArgumentException("Unknown endpoint: " + endpoint + " (expected one of "
+                    + new TreeSet<>(ENDPOINTS) + ")");
+        }
+        return endpoint;
+    }
+
+    private void count(String endpoint, String fault) {
+        counters.computeIfAbsent(endpoint + ' ' + fault, key -> Counter.builder("oauth.faults.injected")
+                .description("Requests delayed, failed or timed out by fault injection")
+                .tag("endpoint", endpoint)
+                .tag("fault", fault)
+                .register(registry)).increment();
+    }
+}
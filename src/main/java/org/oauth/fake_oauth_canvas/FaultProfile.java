@@ -0,0 +1,51 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+
+/**
+ * Faults injected into one endpoint:
+ * <pre>
+ * {"latency": {...}, "error_rate": 0.05, "error_status": 503, "timeout_rate": 0.01, "timeout_ms": 30000}
+ * </pre>
+ * Every field is optional. A request times out with probability timeout_rate: it hangs for
+ * timeout_ms and then gets a 504, so clients with a shorter timeout see no answer at all. Otherwise
+ * it is delayed by a sample of the latency distribution and then fails with error_status with
+ * probability error_rate, or reaches the handler.
+ *
+ * @param latency null for no added latency
+ */
+public record FaultProfile(LatencyDistribution latency, double errorRate, int errorStatus,
+                           double timeoutRate, long timeoutMillis) {
+
+    public static FaultProfile parse(JSONObject json) {
+        JSONObject latency = json.optJSONObject("latency");
+        FaultProfile profile = new FaultProfile(
+                latency != null ? LatencyDistribution.parse(latency) : null,
+                json.optDouble("error_rate", 0),
+                json.optInt("error_status", 503),
+                json.optDouble("timeout_rate", 0),
+                json.optLong("timeout_ms", 30_000));
+        if (!(profile.errorRate >= 0 && profile.errorRate <= 1 && profile.timeoutRate >= 0 && profile.timeoutRate <= 1)) {
+            throw new IllegalArgumentException("error_rate and timeout_rate must be between 0 and 1");
+        }
+        if (profile.errorStatus < 400 || profile.errorStatus > 599) {
+            throw new IllegalArgumentException("error_status must be a 4xx or 5xx status");
+        }
+        if (profile.timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeout_ms must not be negative");
+        }
+        return profile;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject()
+                .put("error_rate", errorRate)
+                .put("error_status", errorStatus)
+                .put("timeout_rate", timeoutRate)
+                .put("timeout_ms", timeoutMillis);
+        if (latency != null) {
+            json.put("latency", latency.toJson());
+        }
+        return json;
+    }
+}
@@ -0,0 +1,94 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets keyed by string, using the generic cell rate algorithm: instead of a token count
+ * and a refill timestamp, each key holds a single "theoretical arrival time" (TAT). A request is
+ * allowed if pushing the TAT one emission interval further keeps it within the burst allowance
+ * of now. This is exactly a bucket of {@code burst} tokens refilled at {@code ratePerSecond},
+ * but one AtomicLong per key suffices, so acquiring is a map read and a CAS - no locks.
+ */
+final class Gcra {
+
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+    private final Map<String, AtomicLong> arrivals = new ConcurrentHashMap<>();
+
+    Gcra(double ratePerSecond, int burst) {
+        if (!(ratePerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate limits need a positive rate and a burst of at least 1");
+        }
+        this.emissionIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = emissionIntervalNanos * burst;
+    }
+
+    /**
+     * Takes one token from {@code key}'s bucket.
+     *
+     * @return 0 if the request is allowed, otherwise how long until a token is available, in nanos
+     */
+    long acquire(String key, long nowNanos) {
+        AtomicLong arrival = arrivals.get(key);
+        if (arrival == null) {
+            arrival = arrivals.computeIfAbsent(key, k -> new AtomicLong(nowNanos));
+        }
+        while (true) {
+            long tat = arrival.get();
+            // A bucket that has been idle long enough is full; start from now
+            long next = (tat - nowNanos > 0 ? tat : nowNanos) + emissionIntervalNanos;
+            long excess = next - nowNanos - burstNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (arrival.compareAndSet(tat, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #acquire}, but leaves the bucket as it is.
+     *
+     * @return 0 if a token is available, otherwise how long until one is, in nanos
+     */
+    long check(String key, long nowNanos) {
+        AtomicLong arrival = arrivals.get(key);
+        if (arrival == null) {
+            return 0;
+        }
+        long tat = arrival.get();
+        long next = (tat - nowNanos > 0 ? tat : nowNanos) + emissionIntervalNanos;
+        return Math.max(0, next - nowNanos - burstNanos);
+    }
+
+    /**
+     * Puts back a token taken by {@link #acquire} for a request that was rejected after all.
+     */
+    void release(String key) {
+        AtomicLong arrival = arrivals.get(key);
+        if (arrival != null) {
+            // A TAT pushed into the past just reads as a full bucket
+            arrival.addAndGet(-emissionIntervalNanos);
+        }
+    }
+
+    /**
+     * Forgets keys whose bucket has refilled completely, so the map only holds recently active
+     * clients. A request racing with the removal may get one token extra.
+     *
+     * @return the number of keys removed
+     */
+    int sweep(long nowNanos) {
+        int before = arrivals.size();
+        arrivals.values().removeIf(arrival -> arrival.get() - nowNanos <= 0);
+        return Math.max(0, before - arrivals.size());
+    }
+
+    int size() {
+        return arrivals.size();
+    }
+}
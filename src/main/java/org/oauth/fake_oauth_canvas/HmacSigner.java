@@ -0,0 +1,90 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * HMAC-SHA256 signing for self-contained values (signed access tokens, authorize contexts).
+ *
+ * Every signature covers a {@link Purpose} byte ahead of the data, so a value signed for one use
+ * never verifies as another even where the two happen to share a layout - an authorize ctx, which
+ * anyone can obtain, must not pass as an access token.
+ *
+ * Every replica that must accept another replica's signatures needs the same oauth.signing-key.
+ * Without one a random key is generated at startup, which is fine for a single instance.
+ * Mac instances are not thread-safe, so each thread keeps its own.
+ */
+@Component
+public class HmacSigner {
+
+    private static final Logger logger = LoggerFactory.getLogger(HmacSigner.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    // Truncated tag length (RFC 2104 section 5 allows truncation to at least half the hash output)
+    public static final int SIGNATURE_LENGTH = 16;
+
+    /**
+     * What a signature is for; its tag is MAC'd ahead of the data and never changes once assigned.
+     */
+    public enum Purpose {
+        ACCESS_TOKEN(1),
+        AUTHORIZATION_CONTEXT(2);
+
+        private final byte tag;
+
+        Purpose(int tag) {
+            this.tag = (byte) tag;
+        }
+    }
+
+    private final ThreadLocal<Mac> macs;
+
+    public HmacSigner(@Value("${oauth.signing-key:}") String signingKey) {
+        byte[] key;
+        if (signingKey.isEmpty()) {
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            logger.warn("[HmacSigner] oauth.signing-key is not set - using a random key, signatures will not be accepted by other instances or after a restart");
+        } else {
+            key = signingKey.getBytes(StandardCharsets.UTF_8);
+        }
+        SecretKeySpec keySpec = new SecretKeySpec(key, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(keySpec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 is not available", e);
+            }
+        });
+    }
+
+    /**
+     * @return the truncated signature of {@code data[offset, offset + length)} for this purpose
+     */
+    public byte[] sign(Purpose purpose, byte[] data, int offset, int length) {
+        Mac mac = macs.get();
+        mac.update(purpose.tag);
+        mac.update(data, offset, length);
+        return Arrays.copyOf(mac.doFinal(), SIGNATURE_LENGTH);
+    }
+
+    /**
+     * Constant-time check of a signature produced by {@link #sign} for the same purpose.
+     */
+    public boolean verify(Purpose purpose, byte[] data, int offset, int length, byte[] signature) {
+        return MessageDigest.isEqual(sign(purpose, data, offset, length), signature);
+    }
+}
@@ -0,0 +1,7 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * Access/refresh token pair handed out for a grant.
+ */
+public record IssuedTokens(String accessToken, String refreshToken) {
+}
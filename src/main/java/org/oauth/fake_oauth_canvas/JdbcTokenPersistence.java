@@ -0,0 +1,363 @@
+package org.oauth.fake_oauth_canvas;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persists TokenStore state to the configured datasource (oauth.store.persistence=jdbc).
+ *
+ * All writes go through one queue drained by a single "token-store-writer" thread, which writes
+ * whatever has accumulated as JDBC batches: under load many logins share one round trip (group
+ * commit), and an idle store writes immediately. By default nobody waits (write-behind): enough to
+ * survive a restart, but other instances may briefly miss new entries. With
+ * oauth.store.jdbc.wait-for-writes=true {@link #awaitWrites()} waits for the batch to commit, so
+ * issuing a code or minting tokens completes only once every instance sharing the database can see it.
+ *
+ * A batch that fails with a transient error is retried once. Rows that still cannot be written
+ * are counted ({@link #failedWrites()}) and fail the {@link #awaitWrites()} of the caller that made them.
+ *
+ * Redemption claims a code with a conditional UPDATE that only one instance can win; it first
+ * waits for the code's insert if that is still queued. Rotated refresh tokens are claimed the
+ * same way with a DELETE, and revocations wait for theirs. Reads only happen when TokenStore's own
+ * cache misses. Expired rows are purged periodically.
+ */
+@Component
+@ConditionalOnProperty(name = "oauth.store.persistence", havingValue = "jdbc")
+public class JdbcTokenPersistence implements TokenPersistence {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcTokenPersistence.class);
+
+    // Batches are written in this order, so a token revoked right after it was minted is not resurrected
+    private static final String INSERT_CODE =
+            "INSERT INTO oauth_code (code, user_id, role, client_id, redirect_uri, expires_at, redeemed) VALUES (?, ?, ?, ?, ?, ?, FALSE)";
+    private static final String INSERT_TOKEN =
+            "INSERT INTO oauth_token (kind, token_hi, token_lo, principal, expires_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String DELETE_TOKEN = "DELETE FROM oauth_token WHERE kind = ? AND token_hi = ? AND token_lo = ?";
+    private static final String[] STATEMENTS = {INSERT_CODE, INSERT_TOKEN, DELETE_TOKEN};
+
+    /** Keys per findTokens query */
+    private static final int FIND_TOKENS_CHUNK = 100;
+
+    private final JdbcTemplate jdbc;
+    private final int batchSize;
+    private final boolean waitForWrites;
+    private final int purgeIntervalSeconds;
+
+    private final BlockingQueue<Write> queue;
+    // Codes whose insert has not been executed yet
+    private final Set<String> unflushedCodes = ConcurrentHashMap.newKeySet();
+    private final LongAdder failedWrites = new LongAdder();
+    private final AtomicLong lastSubmitted = new AtomicLong();
+    // Sequence number of the latest write that was dropped; only the writer thread updates it
+    private volatile long lastFailed;
+    // Sequence number of the first write this thread made since it last awaited its writes
+    private final ThreadLocal<long[]> firstUnawaited = ThreadLocal.withInitial(() -> new long[]{Long.MAX_VALUE});
+    private final Thread writer;
+    private volatile boolean running = true;
+    private int lastPurge;
+
+    public JdbcTokenPersistence(
+            JdbcTemplate jdbc,
+            @Value("${oauth.store.jdbc.batch-size:500}") int batchSize,
+            @Value("${oauth.store.jdbc.wait-for-writes:false}") boolean waitForWrites,
+            @Value("${oauth.store.jdbc.max-pending-writes:100000}") int maxPendingWrites,
+            @Value("${oauth.store.jdbc.purge-interval-seconds:60}") int purgeIntervalSeconds,
+            @Value("${oauth.store.jdbc.initialize-schema:true}") boolean initializeSchema) {
+        this.jdbc = jdbc;
+        this.batchSize = batchSize;
+        this.waitForWrites = waitForWrites;
+        this.purgeIntervalSeconds = purgeIntervalSeconds;
+        // Bounded, so callers are slowed down rather than the queue growing when the database falls behind
+        this.queue = new LinkedBlockingQueue<>(maxPendingWrites);
+
+        if (initializeSchema) {
+            // schema.sql only uses CREATE TABLE / ADD COLUMN IF NOT EXISTS, so this is safe on every start
+            new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(jdbc.getDataSource());
+        }
+
+        this.writer = new Thread(this::writeLoop, "token-store-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        logger.info("[JdbcTokenPersistence] Persisting codes and tokens (batch size {}, {})",
+            batchSize, waitForWrites ? "group commit" : "write-behind");
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        List<Write> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        write(remaining);
+        logger.info("[JdbcTokenPersistence] Flushed {} pending writes on shutdown", remaining.size());
+    }
+
+    @Override
+    public void codeIssued(String code, Principal principal, String clientId, String redirectUri, int expiresAt) {
+        unflushedCodes.add(code);
+        enqueue(INSERT_CODE, new Object[]{code, principal.id(), principal.role(), clientId, redirectUri, expiresAt});
+    }
+
+    @Override
+    public boolean claimCode(String code) {
+        if (unflushedCodes.contains(code)) {
+            barrier();
+        }
+        if (jdbc.update("UPDATE oauth_code SET redeemed = TRUE WHERE code = ? AND redeemed = FALSE", code) == 1) {
+            return true;
+        }
+        // No row at all means its insert failed, so no other instance can have seen the code
+        Integer rows = jdbc.queryForObject("SELECT COUNT(*) FROM oauth_code WHERE code = ?", Integer.class, code);
+        return rows == null || rows == 0;
+    }
+
+    @Override
+    public PersistedCode findCode(String code) {
+        List<PersistedCode> found = jdbc.query(
+            "SELECT code, user_id, role, client_id, redirect_uri, expires_at, redeemed FROM oauth_code WHERE code = ?",
+            (rs, row) -> new PersistedCode(rs.getString(1), rs.getInt(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                rs.getInt(6), rs.getBoolean(7)),
+            code);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    @Override
+    public void tokenMinted(TokenKind kind, long hi, long lo, long principal, int expiresAt) {
+        enqueue(INSERT_TOKEN, new Object[]{kind.code(), hi, lo, principal, expiresAt});
+    }
+
+    /**
+     * Waits for the DELETE even in write-behind mode, so no instance reads the token back in after
+     * the revoking request has returned. Revocations are rare (code replays), so this costs nothing
+     * on the hot path.
+     */
+    @Override
+    public void tokenRevoked(TokenKind kind, long hi, long lo) {
+        enqueue(DELETE_TOKEN, new Object[]{kind.code(), hi, lo});
+        barrier();
+    }
+
+    @Override
+    public boolean claimToken(TokenKind kind, long hi, long lo) {
+        if (!waitForWrites) {
+            // The token's insert may still be queued
+            barrier();
+        }
+        return jdbc.update(DELETE_TOKEN, kind.code(), hi, lo) == 1;
+    }
+
+    @Override
+    public PersistedToken findToken(TokenKind kind, long hi, long lo, int now) {
+        List<PersistedToken> found = jdbc.query(
+            "SELECT principal, expires_at FROM oauth_token WHERE kind = ? AND token_hi = ? AND token_lo = ? AND expires_at > ?",
+            (rs, row) -> new PersistedToken(rs.getLong(1), rs.getInt(2)),
+            kind.code(), hi, lo, now);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * One query per {@value #FIND_TOKENS_CHUNK} keys, selecting on the high half of the key and
+     * matching the low half here.
+     */
+    @Override
+    public PersistedToken[] findTokens(TokenKind kind, long[] his, long[] los, int count, int now) {
+        PersistedToken[] found = new PersistedToken[count];
+        for (int from = 0; from < count; from += FIND_TOKENS_CHUNK) {
+            int start = from;
+            int end = Math.min(count, from + FIND_TOKENS_CHUNK);
+            Object[] args = new Object[2 + end - start];
+            args[0] = kind.code();
+            args[1] = now;
+            for (int i = start; i < end; i++) {
+                args[2 + i - start] = his[i];
+            }
+            jdbc.query("SELECT token_hi, token_lo, principal, expires_at FROM oauth_token WHERE kind = ? AND expires_at > ?"
+                    + " AND token_hi IN (" + "?,".repeat(end - start - 1) + "?)", rs -> {
+                long hi = rs.getLong(1);
+                long lo = rs.getLong(2);
+                for (int i = start; i < end; i++) {
+                    if (his[i] == hi && los[i] == lo) {
+                        found[i] = new PersistedToken(rs.getLong(3), rs.getInt(4));
+                    }
+                }
+            }, args);
+        }
+        return found;
+    }
+
+    @Override
+    public void awaitWrites() {
+        if (!waitForWrites) {
+            return;
+        }
+        long[] first = firstUnawaited.get();
+        long since = first[0];
+        first[0] = Long.MAX_VALUE;
+        barrier();
+        if (lastFailed >= since) {
+            // Possibly another caller's write, but never a missed one of ours
+            throw new IllegalStateException("The token store could not persist this change");
+        }
+    }
+
+    @Override
+    public long pendingWrites() {
+        return queue.size();
+    }
+
+    @Override
+    public long failedWrites() {
+        return failedWrites.sum();
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    private void enqueue(String sql, Object[] args) {
+        long seq = lastSubmitted.incrementAndGet();
+        if (waitForWrites) {
+            long[] first = firstUnawaited.get();
+            first[0] = Math.min(first[0], seq);
+        }
+        submit(new Write(sql, args, seq));
+    }
+
+    private boolean submit(Write write) {
+        try {
+            queue.put(write);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits until everything queued so far has been written; the queue is FIFO, so a marker completing suffices.
+     */
+    private void barrier() {
+        Write marker = new Write(null, null, 0);
+        if (submit(marker)) {
+            marker.done.join();
+        }
+    }
+
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Write first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    // Everything that queued up while the previous batch was being written goes together
+                    queue.drainTo(batch, batchSize - 1);
+                    write(batch);
+                    batch.clear();
+                }
+                purgeExpired();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // Never let an exception stop the writer
+                logger.error("[JdbcTokenPersistence] Writer failed", e);
+            }
+        }
+    }
+
+    private void write(List<Write> batch) {
+        for (String sql : STATEMENTS) {
+            List<Object[]> rows = new ArrayList<>();
+            long maxSeq = 0;
+            for (Write write : batch) {
+                if (sql.equals(write.sql)) {
+                    rows.add(write.args);
+                    maxSeq = Math.max(maxSeq, write.seq);
+                }
+            }
+            if (rows.isEmpty()) {
+                continue;
+            }
+            if (!batchUpdate(sql, rows)) {
+                // The in-memory store still has these entries, but other instances never will
+                failedWrites.add(rows.size());
+                lastFailed = Math.max(lastFailed, maxSeq);
+            }
+            if (sql == INSERT_CODE) {
+                rows.forEach(row -> unflushedCodes.remove((String) row[0]));
+            }
+        }
+        batch.forEach(write -> write.done.complete(null));
+    }
+
+    /**
+     * @return false if the rows were dropped after a failed retry, or a failure that a retry cannot fix
+     */
+    private boolean batchUpdate(String sql, List<Object[]> rows) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                jdbc.batchUpdate(sql, rows);
+                return true;
+            } catch (DataAccessException e) {
+                boolean retry = attempt == 1
+                    && (e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException);
+                if (!retry) {
+                    logger.error("[JdbcTokenPersistence] Failed to write {} rows: {}", rows.size(), e.getMessage());
+                    return false;
+                }
+                logger.warn("[JdbcTokenPersistence] Retrying {} rows: {}", rows.size(), e.getMessage());
+            }
+        }
+    }
+
+    private void purgeExpired() {
+        int now = TokenStore.nowSeconds();
+        if (now - lastPurge < purgeIntervalSeconds) {
+            return;
+        }
+        lastPurge = now;
+        int codes = jdbc.update("DELETE FROM oauth_code WHERE expires_at <= ?", now);
+        int tokens = jdbc.update("DELETE FROM oauth_token WHERE expires_at <= ?", now);
+        logger.debug("[JdbcTokenPersistence] Purged {} expired codes and {} expired tokens", codes, tokens);
+    }
+
+    /**
+     * One queued statement; a null sql is a marker that only signals when everything before it is written.
+     */
+    private static final class Write {
+
+        final String sql;
+        final Object[] args;
+        final long seq;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Write(String sql, Object[] args, long seq) {
+            this.sql = sql;
+            this.args = args;
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,791 @@
+package org.oauth.fake_oauth_canvas;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Journals TokenStore state to local files (oauth.store.persistence=journal), so a single instance
+ * restarts warm without a database.
+ *
+ * Every change is appended as a small binary record to a memory-mapped, preallocated segment file:
+ * an append is a copy into the page cache under a short lock, with no system call. Each record's
+ * type byte is written last, so a record torn by a crash reads as the end of the journal. A
+ * "token-store-journal" thread forces new records to disk every flush interval. By default nobody
+ * waits for it; with oauth.store.journal.sync=true {@link #awaitWrites()} waits until the caller's
+ * records are on disk, and everyone waiting shares the next force (group commit).
+ *
+ * Periodically (and on shutdown) the live codes and tokens are written to a snapshot and the
+ * segments it covers are deleted, so the journal stays proportional to the live state. On startup
+ * {@link #attach} replays the latest snapshot and the segments after it straight into TokenStore's
+ * maps and indexes; nothing is ever read from the files afterwards.
+ */
+@Component
+@ConditionalOnProperty(name = "oauth.store.persistence", havingValue = "journal")
+public class JournalTokenPersistence implements TokenPersistence {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalTokenPersistence.class);
+
+    // Record types; 0 is the zero fill after the last record
+    private static final byte CODE_ISSUED = 1;
+    private static final byte CODE_REDEEMED = 2;
+    private static final byte TOKEN_MINTED = 3;
+    private static final byte TOKEN_REVOKED = 4;
+    // Live tokens of one kind, at the start of a snapshot so the index can be sized before loading
+    private static final byte TOKEN_COUNT = 5;
+    // CODE_ISSUED followed by the client_id and redirect_uri the code is bound to
+    private static final byte CODE_ISSUED_FOR_CLIENT = 6;
+
+    private static final int TOKEN_MINTED_BYTES = 1 + 1 + 8 + 8 + 8 + 4;
+    private static final int TOKEN_REVOKED_BYTES = 1 + 1 + 8 + 8;
+    private static final int TOKEN_COUNT_BYTES = 1 + 1 + 8;
+    private static final int MAX_CODE_BYTES = 0xffff;
+
+    private static final TokenKind[] KINDS = TokenKind.values();
+
+    private static final Pattern SEGMENT_FILE = Pattern.compile("journal-(\\d{16})\\.log");
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile("snapshot-(\\d{16})\\.snap");
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean sync;
+    private final long flushIntervalMillis;
+    private final int snapshotIntervalSeconds;
+
+    // Files found on startup, replayed by attach()
+    private final Path recoverySnapshot;
+    private final List<Path> recoverySegments;
+
+    // Append state, guarded by this
+    private MappedByteBuffer segment;
+    private long segmentSeq;
+    private int position;
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+    private volatile long appendedRecords;
+
+    // Flush state, guarded by flushSignal
+    private final Object flushSignal = new Object();
+    private boolean flushRequested;
+    private volatile long forcedRecords;
+    private MappedByteBuffer forcedSegment;
+    private int forcedPosition;
+
+    private final Thread flusher;
+    private final ScheduledExecutorService snapshotter;
+    private volatile boolean running = true;
+    private volatile StoreState state;
+
+    // Snapshot state, guarded by snapshotLock
+    private final Object snapshotLock = new Object();
+    private long snapshotRecords;
+
+    public JournalTokenPersistence(
+            @Value("${oauth.store.journal.dir:./journal}") String dir,
+            @Value("${oauth.store.journal.segment-size-mb:64}") int segmentSizeMb,
+            @Value("${oauth.store.journal.sync:false}") boolean sync,
+            @Value("${oauth.store.journal.flush-interval-millis:100}") long flushIntervalMillis,
+            @Value("${oauth.store.journal.snapshot-interval-seconds:60}") int snapshotIntervalSeconds) {
+        if (segmentSizeMb < 1 || segmentSizeMb > 1024) {
+            throw new IllegalArgumentException("oauth.store.journal.segment-size-mb must be between 1 and 1024");
+        }
+        this.dir = Paths.get(dir).toAbsolutePath();
+        this.segmentBytes = segmentSizeMb << 20;
+        this.sync = sync;
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+
+        try {
+            Files.createDirectories(this.dir);
+            TreeMap<Long, Path> snapshots = list(SNAPSHOT_FILE);
+            TreeMap<Long, Path> segments = list(SEGMENT_FILE);
+            long covered = snapshots.isEmpty() ? -1 : snapshots.lastKey();
+            this.recoverySnapshot = snapshots.isEmpty() ? null : snapshots.lastEntry().getValue();
+            this.recoverySegments = new ArrayList<>(segments.tailMap(covered, false).values());
+            long lastSeq = Math.max(covered, segments.isEmpty() ? -1 : segments.lastKey());
+            this.segmentSeq = lastSeq + 1;
+            this.segment = mapSegment(segmentSeq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the token journal in " + this.dir, e);
+        }
+
+        this.flusher = new Thread(this::flushLoop, "token-store-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-store-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        logger.info("[JournalTokenPersistence] Journaling codes and tokens to {} ({}MB segments, {}, snapshot every {}s)",
+            this.dir, segmentSizeMb, sync ? "synchronous group commit" : "flushed every " + this.flushIntervalMillis + "ms",
+            snapshotIntervalSeconds);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        snapshotter.shutdownNow();
+        snapshotter.awaitTermination(5, TimeUnit.SECONDS);
+        snapshotQuietly();
+        running = false;
+        synchronized (flushSignal) {
+            flushSignal.notifyAll();
+        }
+        flusher.join(TimeUnit.SECONDS.toMillis(5));
+        flush();
+    }
+
+    @Override
+    public void attach(StoreState state) {
+        long started = System.nanoTime();
+        Replay replay = new Replay(state, TokenStore.nowSeconds());
+        try {
+            if (recoverySnapshot != null) {
+                replay.file(recoverySnapshot);
+            }
+            for (Path file : recoverySegments) {
+                replay.file(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay the token journal in " + dir, e);
+        }
+        replay.finish();
+        this.state = state;
+        if (snapshotIntervalSeconds > 0) {
+            snapshotter.scheduleWithFixedDelay(this::snapshotQuietly,
+                snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+        logger.info("[JournalTokenPersistence] Recovered {} codes and {} tokens from {} and {} journal segments in {}ms",
+            replay.codes, replay.tokens, recoverySnapshot != null ? recoverySnapshot.getFileName() : "no snapshot",
+            recoverySegments.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    @Override
+    public void codeIssued(String code, Principal principal, String clientId, String redirectUri, int expiresAt) {
+        byte[] bytes = codeBytes(code);
+        byte role = roleCode(principal.role());
+        byte[] client = bindingBytes(clientId);
+        byte[] uri = bindingBytes(redirectUri);
+        synchronized (this) {
+            position = putCodeIssued(reserve(codeIssuedBytes(bytes, client, uri)), position, bytes, principal.id(), role,
+                expiresAt, client, uri);
+            appendedRecords++;
+        }
+    }
+
+    @Override
+    public boolean claimCode(String code) {
+        // Only this instance uses the journal, so TokenStore's own compare-and-set already decided
+        byte[] bytes = codeBytes(code);
+        synchronized (this) {
+            position = putCodeRedeemed(reserve(3 + bytes.length), position, bytes);
+            appendedRecords++;
+        }
+        return true;
+    }
+
+    @Override
+    public void tokenMinted(TokenKind kind, long hi, long lo, long principal, int expiresAt) {
+        synchronized (this) {
+            position = putTokenMinted(reserve(TOKEN_MINTED_BYTES), position, kind, hi, lo, principal, expiresAt);
+            appendedRecords++;
+        }
+    }
+
+    @Override
+    public void tokenRevoked(TokenKind kind, long hi, long lo) {
+        synchronized (this) {
+            position = putTokenRevoked(reserve(TOKEN_REVOKED_BYTES), position, kind, hi, lo);
+            appendedRecords++;
+        }
+    }
+
+    @Override
+    public boolean claimToken(TokenKind kind, long hi, long lo) {
+        tokenRevoked(kind, hi, lo);
+        return true;
+    }
+
+    @Override
+    public void awaitWrites() {
+        if (!sync) {
+            return;
+        }
+        long target = appendedRecords;
+        synchronized (flushSignal) {
+            while (forcedRecords < target && running) {
+                flushRequested = true;
+                flushSignal.notifyAll();
+                try {
+                    flushSignal.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long pendingWrites() {
+        return appendedRecords - forcedRecords;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return sync;
+    }
+
+    /**
+     * Makes room for a record of {@code length} bytes, moving on to a new segment if needed.
+     */
+    private MappedByteBuffer reserve(int length) {
+        if (position + length > segmentBytes) {
+            roll();
+        }
+        return segment;
+    }
+
+    private void roll() {
+        try {
+            MappedByteBuffer next = mapSegment(segmentSeq + 1);
+            retired.add(segment);
+            segment = next;
+            segmentSeq++;
+            position = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start token journal segment " + (segmentSeq + 1), e);
+        }
+    }
+
+    private MappedByteBuffer mapSegment(long seq) throws IOException {
+        Path file = dir.resolve(String.format("journal-%016d.log", seq));
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping outlives the channel; the file is sparse until written
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            synchronized (flushSignal) {
+                if (!flushRequested) {
+                    try {
+                        flushSignal.wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                flushRequested = false;
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.error("[JournalTokenPersistence] Forcing the journal to disk failed", e);
+            }
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk, then wakes whoever waits for it.
+     */
+    private void flush() {
+        List<MappedByteBuffer> full;
+        MappedByteBuffer current;
+        int limit;
+        long target;
+        synchronized (this) {
+            full = new ArrayList<>(retired);
+            retired.clear();
+            current = segment;
+            limit = position;
+            target = appendedRecords;
+        }
+        if (target == forcedRecords) {
+            return;
+        }
+        for (MappedByteBuffer buffer : full) {
+            buffer.force();
+        }
+        synchronized (flushSignal) {
+            int from = current == forcedSegment ? forcedPosition : 0;
+            if (limit > from) {
+                current.force(from, limit - from);
+            }
+            forcedSegment = current;
+            forcedPosition = limit;
+            forcedRecords = target;
+            flushSignal.notifyAll();
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.error("[JournalTokenPersistence] Snapshot failed; the journal segments are kept", e);
+        }
+    }
+
+    /**
+     * Writes the live state to a snapshot and deletes the segments and snapshots it replaces.
+     *
+     * TokenStore changes its maps and indexes before it journals the change, so everything in the
+     * segments up to the roll below is already visible while the state is walked. Changes made
+     * during the walk may end up in both the snapshot and the next segment, which replay tolerates.
+     */
+    void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            StoreState state = this.state;
+            if (state != null && appendedRecords != snapshotRecords) {
+                writeSnapshot(state);
+            }
+        }
+    }
+
+    private void writeSnapshot(StoreState state) throws IOException {
+        long started = System.nanoTime();
+        long covered;
+        synchronized (this) {
+            covered = segmentSeq;
+            snapshotRecords = appendedRecords;
+            roll();
+        }
+
+        Path target = dir.resolve(String.format("snapshot-%016d.snap", covered));
+        Path tmp = dir.resolve(target.getFileName() + ".tmp");
+        SnapshotWriter out = new SnapshotWriter(tmp);
+        try (out) {
+            state.forEachCode(code -> {
+                byte[] bytes = codeBytes(code.code());
+                byte[] client = bindingBytes(code.clientId());
+                byte[] uri = bindingBytes(code.redirectUri());
+                out.reserve(codeIssuedBytes(bytes, client, uri));
+                out.at = putCodeIssued(out.buffer, out.at, bytes, code.userId(), roleCode(code.role()), code.expiresAt(),
+                    client, uri);
+                if (code.redeemed()) {
+                    out.reserve(3 + bytes.length);
+                    out.at = putCodeRedeemed(out.buffer, out.at, bytes);
+                }
+                out.codes++;
+                out.drainIfFull();
+            });
+            int now = TokenStore.nowSeconds();
+            for (TokenKind kind : KINDS) {
+                TokenIndex index = state.index(kind);
+                for (int s = 0; s < index.segmentCount(); s++) {
+                    // Buffered and written after the visit, so the index segment is not locked during I/O
+                    index.forEach(s, now, (hi, lo, value, expiresAt) -> {
+                        out.reserve(TOKEN_MINTED_BYTES);
+                        out.at = putTokenMinted(out.buffer, out.at, kind, hi, lo, value, expiresAt);
+                        out.tokens[kind.ordinal()]++;
+                    });
+                    out.drainIfFull();
+                }
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+
+        int deleted = 0;
+        for (Path file : list(SEGMENT_FILE).headMap(covered, true).values()) {
+            deleted += Files.deleteIfExists(file) ? 1 : 0;
+        }
+        for (Path file : list(SNAPSHOT_FILE).headMap(covered, false).values()) {
+            Files.deleteIfExists(file);
+        }
+        logger.info("[JournalTokenPersistence] Snapshot {} holds {} codes and {} tokens, replaced {} segments in {}ms",
+            target.getFileName(), out.codes, out.tokens[0] + out.tokens[1], deleted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private TreeMap<Long, Path> list(Pattern pattern) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (var entries = Files.newDirectoryStream(dir)) {
+            for (Path file : entries) {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static byte[] codeBytes(String code) {
+        byte[] bytes = code.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > MAX_CODE_BYTES) {
+            throw new IllegalArgumentException("Authorization code too long to journal");
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the UTF-8 bytes, or null for an unbound code
+     */
+    private static byte[] bindingBytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_CODE_BYTES) {
+            throw new IllegalArgumentException("Client binding too long to journal");
+        }
+        return bytes;
+    }
+
+    private static int codeIssuedBytes(byte[] code, byte[] clientId, byte[] redirectUri) {
+        return 12 + code.length + (clientId != null ? 4 + clientId.length + redirectUri.length : 0);
+    }
+
+    /**
+     * @return the position after the length-prefixed string at {@code at}, or -2 if it runs past {@code limit}
+     */
+    private static int stringEnd(ByteBuffer buffer, int at, int limit) {
+        if (at + 2 > limit) {
+            return -2;
+        }
+        int end = at + 2 + (buffer.getShort(at) & 0xffff);
+        return end > limit ? -2 : end;
+    }
+
+    private static String string(ByteBuffer buffer, int at) {
+        byte[] bytes = new byte[buffer.getShort(at) & 0xffff];
+        buffer.get(at + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte roleCode(String role) {
+        return TokenStore.INSTRUCTOR_ROLE.equals(role) ? (byte) 1 : (byte) 2;
+    }
+
+    // Each put writes the record body first and its type byte last, and returns the next position
+
+    private static int putCodeIssued(ByteBuffer buffer, int at, byte[] code, int userId, byte role, int expiresAt,
+                                     byte[] clientId, byte[] redirectUri) {
+        buffer.putShort(at + 1, (short) code.length);
+        buffer.put(at + 3, code);
+        int next = at + 3 + code.length;
+        buffer.putInt(next, userId);
+        buffer.put(next + 4, role);
+        buffer.putInt(next + 5, expiresAt);
+        next += 9;
+        if (clientId == null) {
+            buffer.put(at, CODE_ISSUED);
+            return next;
+        }
+        buffer.putShort(next, (short) clientId.length);
+        buffer.put(next + 2, clientId);
+        next += 2 + clientId.length;
+        buffer.putShort(next, (short) redirectUri.length);
+        buffer.put(next + 2, redirectUri);
+        buffer.put(at, CODE_ISSUED_FOR_CLIENT);
+        return next + 2 + redirectUri.length;
+    }
+
+    private static int putCodeRedeemed(ByteBuffer buffer, int at, byte[] code) {
+        buffer.putShort(at + 1, (short) code.length);
+        buffer.put(at + 3, code);
+        buffer.put(at, CODE_REDEEMED);
+        return at + 3 + code.length;
+    }
+
+    private static int putTokenMinted(ByteBuffer buffer, int at, TokenKind kind, long hi, long lo, long principal, int expiresAt) {
+        buffer.put(at + 1, (byte) kind.ordinal());
+        buffer.putLong(at + 2, hi);
+        buffer.putLong(at + 10, lo);
+        buffer.putLong(at + 18, principal);
+        buffer.putInt(at + 26, expiresAt);
+        buffer.put(at, TOKEN_MINTED);
+        return at + TOKEN_MINTED_BYTES;
+    }
+
+    private static int putTokenRevoked(ByteBuffer buffer, int at, TokenKind kind, long hi, long lo) {
+        buffer.put(at + 1, (byte) kind.ordinal());
+        buffer.putLong(at + 2, hi);
+        buffer.putLong(at + 10, lo);
+        buffer.put(at, TOKEN_REVOKED);
+        return at + TOKEN_REVOKED_BYTES;
+    }
+
+    private static int putTokenCount(ByteBuffer buffer, int at, TokenKind kind, long count) {
+        buffer.put(at + 1, (byte) kind.ordinal());
+        buffer.putLong(at + 2, count);
+        buffer.put(at, TOKEN_COUNT);
+        return at + TOKEN_COUNT_BYTES;
+    }
+
+    /**
+     * Buffers snapshot records and writes them to the file in large chunks.
+     */
+    private static final class SnapshotWriter implements AutoCloseable {
+
+        private static final int CHUNK = 1 << 20;
+
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(2 * CHUNK);
+        // Room for the token counts, filled in on close
+        private int at = KINDS.length * TOKEN_COUNT_BYTES;
+        private long codes;
+        private final long[] tokens = new long[KINDS.length];
+
+        SnapshotWriter(Path file) throws IOException {
+            this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void reserve(int length) {
+            if (at + length > buffer.capacity()) {
+                // One index segment may not fit; grow rather than write while its lock is held
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), at + length));
+                larger.put(0, buffer, 0, at);
+                buffer = larger;
+            }
+        }
+
+        void drainIfFull() {
+            if (at >= CHUNK) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            try {
+                ByteBuffer pending = buffer.slice(0, at);
+                while (pending.hasRemaining()) {
+                    channel.write(pending);
+                }
+                at = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                ByteBuffer counts = ByteBuffer.allocate(KINDS.length * TOKEN_COUNT_BYTES);
+                for (TokenKind kind : KINDS) {
+                    putTokenCount(counts, kind.ordinal() * TOKEN_COUNT_BYTES, kind, tokens[kind.ordinal()]);
+                }
+                channel.write(counts, 0);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Applies a snapshot and the segments after it, in order.
+     *
+     * Codes are restored as they are read. Their two records are journaled by different threads, so
+     * a redemption read before its code is remembered and applied with it. Tokens go into the index
+     * in large batches, each locking an index segment once; a revocation journaled before its
+     * token's mint is remembered the same way, so the mint is then skipped.
+     */
+    private static final class Replay {
+
+        private static final int TOKEN_BATCH = 1 << 16;
+
+        private record TokenKey(int kind, long hi, long lo) {
+        }
+
+        private final StoreState state;
+        private final int now;
+        private final Set<String> redeemedFirst = new HashSet<>();
+        private final Set<TokenKey> revokedFirst = new HashSet<>();
+        private final TokenBatch[] minted = new TokenBatch[KINDS.length];
+        private long codes;
+        private long tokens;
+
+        Replay(StoreState state, int now) {
+            this.state = state;
+            this.now = now;
+            for (TokenKind kind : KINDS) {
+                minted[kind.ordinal()] = new TokenBatch(state.index(kind));
+            }
+        }
+
+        void file(Path file) throws IOException {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException(file + " is larger than 2GB");
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            int at = 0;
+            int limit = buffer.limit();
+            while (at < limit) {
+                int next = record(buffer, at, limit);
+                if (next < 0) {
+                    if (next == -2) {
+                        logger.warn("[JournalTokenPersistence] {} ends with a torn or unknown record at offset {}",
+                            file.getFileName(), at);
+                    }
+                    return;
+                }
+                at = next;
+            }
+        }
+
+        /**
+         * @return the position after the record, -1 at the end of the data or -2 for a torn record
+         */
+        private int record(ByteBuffer buffer, int at, int limit) {
+            byte type = buffer.get(at);
+            switch (type) {
+                case 0:
+                    return -1;
+                case CODE_ISSUED:
+                case CODE_ISSUED_FOR_CLIENT:
+                case CODE_REDEEMED: {
+                    if (at + 3 > limit) {
+                        return -2;
+                    }
+                    int length = buffer.getShort(at + 1) & 0xffff;
+                    int end = at + 3 + length + (type != CODE_REDEEMED ? 9 : 0);
+                    if (end > limit) {
+                        return -2;
+                    }
+                    byte[] bytes = new byte[length];
+                    buffer.get(at + 3, bytes);
+                    String code = new String(bytes, StandardCharsets.US_ASCII);
+                    if (type != CODE_REDEEMED) {
+                        int body = at + 3 + length;
+                        String clientId = null;
+                        String redirectUri = null;
+                        if (type == CODE_ISSUED_FOR_CLIENT) {
+                            int uriAt = stringEnd(buffer, end, limit);
+                            int uriEnd = uriAt < 0 ? -2 : stringEnd(buffer, uriAt, limit);
+                            if (uriEnd < 0) {
+                                return -2;
+                            }
+                            clientId = string(buffer, end);
+                            redirectUri = string(buffer, uriAt);
+                            end = uriEnd;
+                        }
+                        int expiresAt = buffer.getInt(body + 5);
+                        boolean redeemed = !redeemedFirst.isEmpty() && redeemedFirst.remove(code);
+                        if (expiresAt - now > 0) {
+                            String role = buffer.get(body + 4) == 1 ? TokenStore.INSTRUCTOR_ROLE : TokenStore.STUDENT_ROLE;
+                            state.restoreCode(new PersistedCode(code, buffer.getInt(body), role, clientId, redirectUri,
+                                expiresAt, redeemed));
+                            codes++;
+                        }
+                    } else if (!state.restoreRedemption(code)) {
+                        redeemedFirst.add(code);
+                    }
+                    return end;
+                }
+                case TOKEN_COUNT: {
+                    int end = at + TOKEN_COUNT_BYTES;
+                    int kind = buffer.get(at + 1);
+                    if (end > limit || kind < 0 || kind >= KINDS.length) {
+                        return -2;
+                    }
+                    state.index(KINDS[kind]).ensureCapacity(buffer.getLong(at + 2));
+                    return end;
+                }
+                case TOKEN_MINTED:
+                case TOKEN_REVOKED: {
+                    int end = at + (type == TOKEN_MINTED ? TOKEN_MINTED_BYTES : TOKEN_REVOKED_BYTES);
+                    int kind = buffer.get(at + 1);
+                    if (end > limit || kind < 0 || kind >= KINDS.length) {
+                        return -2;
+                    }
+                    long hi = buffer.getLong(at + 2);
+                    long lo = buffer.getLong(at + 10);
+                    if (type == TOKEN_MINTED) {
+                        int expiresAt = buffer.getInt(at + 26);
+                        if (expiresAt - now > 0 && (revokedFirst.isEmpty() || !revokedFirst.remove(new TokenKey(kind, hi, lo)))) {
+                            minted[kind].add(hi, lo, buffer.getLong(at + 18), expiresAt);
+                            tokens++;
+                        }
+                    } else {
+                        // The batch may hold the token being revoked
+                        minted[kind].flush();
+                        if (minted[kind].index.remove(hi, lo, now) == TokenIndex.MISSING) {
+                            revokedFirst.add(new TokenKey(kind, hi, lo));
+                        } else {
+                            tokens--;
+                        }
+                    }
+                    return end;
+                }
+                default:
+                    return -2;
+            }
+        }
+
+        void finish() {
+            for (TokenBatch batch : minted) {
+                batch.flush();
+            }
+        }
+    }
+
+    /**
+     * Replayed tokens of one kind waiting to be inserted into their index together.
+     */
+    private static final class TokenBatch {
+
+        private final TokenIndex index;
+        private final long[] his = new long[Replay.TOKEN_BATCH];
+        private final long[] los = new long[Replay.TOKEN_BATCH];
+        private final long[] values = new long[Replay.TOKEN_BATCH];
+        private final int[] expiries = new int[Replay.TOKEN_BATCH];
+        private int size;
+
+        TokenBatch(TokenIndex index) {
+            this.index = index;
+        }
+
+        void add(long hi, long lo, long value, int expiresAt) {
+            his[size] = hi;
+            los[size] = lo;
+            values[size] = value;
+            expiries[size++] = expiresAt;
+            if (size == his.length) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (size > 0) {
+                index.putAll(his, los, values, expiries, size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Injected response latency, as configured through /admin/faults:
+ * <pre>
+ * {"type": "fixed", "ms": 250}
+ * {"type": "uniform", "min_ms": 50, "max_ms": 400}
+ * {"type": "lognormal", "median_ms": 120, "sigma": 0.8}
+ * {"type": "histogram", "buckets": [[50, 900], [250, 90], [2000, 10]]}
+ * </pre>
+ * A histogram is replayed from [upper bound ms, count] buckets, e.g. exported from Canvas request
+ * logs: a bucket is picked in proportion to its count and the latency drawn uniformly between the
+ * previous bound and its own.
+ */
+public interface LatencyDistribution {
+
+    long sampleNanos(ThreadLocalRandom random);
+
+    JSONObject toJson();
+
+    static LatencyDistribution parse(JSONObject json) {
+        String type = json.getString("type");
+        return switch (type) {
+            case "fixed" -> new Fixed(nonNegative(json.getDouble("ms"), "ms"));
+            case "uniform" -> {
+                double min = nonNegative(json.getDouble("min_ms"), "min_ms");
+                double max = json.getDouble("max_ms");
+                if (max < min) {
+                    throw new IllegalArgumentException("max_ms must not be less than min_ms");
+                }
+                yield new Uniform(min, max);
+            }
+            case "lognormal" -> new LogNormal(nonNegative(json.getDouble("median_ms"), "median_ms"),
+                    nonNegative(json.getDouble("sigma"), "sigma"));
+            case "histogram" -> Histogram.parse(json.getJSONArray("buckets"));
+            default -> throw new IllegalArgumentException("Unknown latency type: " + type
+                    + " (expected fixed, uniform, lognormal or histogram)");
+        };
+    }
+
+    private static double nonNegative(double value, String name) {
+        if (!(value >= 0)) {
+            throw new IllegalArgumentException(name + " must be a non-negative number");
+        }
+        return value;
+    }
+
+    private static long nanos(double millis) {
+        return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    record Fixed(double ms) implements LatencyDistribution {
+
+        @Override
+        public long sampleNanos(ThreadLocalRandom random) {
+            return nanos(ms);
+        }
+
+        @Override
+        public JSONObject toJson() {
+            return new JSONObject().put("type", "fixed").put("ms", ms);
+        }
+    }
+
+    record Uniform(double minMs, double maxMs) implements LatencyDistribution {
+
+        @Override
+        public long sampleNanos(ThreadLocalRandom random) {
+            return nanos(minMs + random.nextDouble() * (maxMs - minMs));
+        }
+
+        @Override
+        public JSONObject toJson() {
+            return new JSONObject().put("type", "uniform").put("min_ms", minMs).put("max_ms", maxMs);
+        }
+    }
+
+    /**
+     * Long-tailed, like most real service latency; sigma around 0.5-1 gives a p99 of 3-10x the median.
+     */
+    record LogNormal(double medianMs, double sigma) implements LatencyDistribution {
+
+        @Override
+        public long sampleNanos(ThreadLocalRandom random) {
+            return nanos(medianMs * Math.exp(sigma * random.nextGaussian()));
+        }
+
+        @Override
+        public JSONObject toJson() {
+            return new JSONObject().put("type", "lognormal").put("median_ms", medianMs).put("sigma", sigma);
+        }
+    }
+
+    /**
+     * @param upperMs   bucket upper bounds, ascending
+     * @param cumulative running total of the bucket counts
+     */
+    record Histogram(double[] upperMs, long[] cumulative) implements LatencyDistribution {
+
+        static Histogram parse(JSONArray buckets) {
+            int count = buckets.length();
+            if (count == 0) {
+                throw new IllegalArgumentException("A histogram needs at least one [upper_ms, count] bucket");
+            }
+            double[] upper = new double[count];
+            long[] cumulative = new long[count];
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                JSONArray bucket = buckets.getJSONArray(i);
+                upper[i] = nonNegative(bucket.getDouble(0), "upper_ms");
+                if (i > 0 && upper[i] <= upper[i - 1]) {
+                    throw new IllegalArgumentException("Histogram bucket bounds must be ascending");
+                }
+                long bucketCount = bucket.getLong(1);
+                if (bucketCount < 0) {
+                    throw new IllegalArgumentException("Histogram bucket counts must not be negative");
+                }
+                total += bucketCount;
+                cumulative[i] = total;
+            }
+            if (total == 0) {
+                throw new IllegalArgumentException("A histogram needs a non-zero total count");
+            }
+            return new Histogram(upper, cumulative);
+        }
+
+        @Override
+        public long sampleNanos(ThreadLocalRandom random) {
+            long pick = random.nextLong(cumulative[cumulative.length - 1]);
+            int bucket = Arrays.binarySearch(cumulative, pick + 1);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            // Equal running totals belong to empty buckets; use the first bucket reaching the pick
+            while (bucket > 0 && cumulative[bucket - 1] > pick) {
+                bucket--;
+            }
+            double lower = bucket > 0 ? upperMs[bucket - 1] : 0;
+            return nanos(lower + random.nextDouble() * (upperMs[bucket] - lower));
+        }
+
+        @Override
+        public JSONObject toJson() {
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i < upperMs.length; i++) {
+                buckets.put(new JSONArray().put(upperMs[i]).put(cumulative[i] - (i > 0 ? cumulative[i - 1] : 0)));
+            }
+            return new JSONObject().put("type", "histogram").put("buckets", buckets);
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package org.oauth.fake_oauth_canvas;
 
 import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 public class LoginController {
 
     @GetMapping("/login/oauth2/select-role")
-    public String selectRole() {
+    public String selectRole(@RequestParam(value = "ctx", required = false) String ctx, Model model) {
+        // Stateless authorize mode: hand the signed context back with the role selection
+        model.addAttribute("ctx", ctx);
         return "login-selection";
     }
 }
@@ -0,0 +1,83 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-endpoint timers for the OAuth and API handlers, published as "oauth.requests" tagged with
+ * endpoint, grant_type and outcome. Each timer's count doubles as the request counter, so rejections
+ * (invalid or replayed codes, rotated refresh tokens, ...) can be rated and alerted on directly.
+ *
+ * Unlike http.server.requests this covers only the handler itself and tells rejections apart, which
+ * a 400 status does not. Tag values come from fixed vocabularies, never from request input.
+ */
+@Component
+public class OAuthMetrics {
+
+    public static final String AUTHORIZE = "authorize";
+    public static final String SELECT_ROLE = "select_role";
+    public static final String TOKEN = "token";
+    public static final String LOGOUT = "logout";
+    public static final String SESSION_TOKEN = "session_token";
+    public static final String USERS_SELF = "users_self";
+    public static final String INTROSPECT = "introspect";
+    // Synthetic Canvas API (SyntheticCanvas)
+    public static final String COURSES = "courses";
+    public static final String COURSE = "course";
+    public static final String ENROLLMENTS = "enrollments";
+    public static final String ASSIGNMENTS = "assignments";
+    // Bulk pre-provisioning (Provisioner)
+    public static final String PROVISION = "provision";
+
+    /** grant_type tag of the endpoints other than the token endpoint */
+    public static final String NO_GRANT = "none";
+    public static final String UNSUPPORTED_GRANT = "unsupported";
+
+    public static final String SUCCESS = "success";
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public OAuthMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void record(Timer.Sample sample, String endpoint, String outcome) {
+        record(sample, endpoint, NO_GRANT, outcome);
+    }
+
+    public void record(Timer.Sample sample, String endpoint, String grantType, String outcome) {
+        sample.stop(timers.computeIfAbsent(endpoint + ' ' + grantType + ' ' + outcome, key -> Timer.builder("oauth.requests")
+                .description("OAuth and API handler latency by endpoint, grant type and outcome")
+                .tag("endpoint", endpoint)
+                .tag("grant_type", grantType)
+                .tag("outcome", outcome)
+                .register(registry)));
+    }
+
+    /**
+     * grant_type tag for a token request, so unknown grant types cannot add tags.
+     */
+    public static String grant(String grantType) {
+        return switch (grantType == null ? "" : grantType) {
+            case "authorization_code", "refresh_token", "client_credentials" -> grantType;
+            default -> UNSUPPORTED_GRANT;
+        };
+    }
+
+    /**
+     * Outcome tag for a store result, e.g. "redeemed", "replayed" or "conflict".
+     */
+    public static String outcome(Enum<?> status) {
+        return status.name().toLowerCase(Locale.ROOT);
+    }
+}
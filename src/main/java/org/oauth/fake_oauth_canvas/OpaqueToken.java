@@ -0,0 +1,69 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.security.SecureRandom;
+
+/**
+ * Codec for minted opaque tokens: 128 random bits written as 32 lowercase hex digits.
+ *
+ * The two 64-bit halves are the {@link TokenIndex} key, so parsing a presented token back into
+ * its key needs no allocation and no hashing.
+ */
+public final class OpaqueToken {
+
+    public static final int LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private OpaqueToken() {
+    }
+
+    /**
+     * Draws a fresh random key into {@code key[0]} (hi) and {@code key[1]} (lo).
+     */
+    public static void mint(long[] key) {
+        SecureRandom random = RANDOM.get();
+        do {
+            key[0] = random.nextLong();
+            key[1] = random.nextLong();
+        } while (key[0] == 0 && key[1] == 0);
+    }
+
+    public static String format(long hi, long lo) {
+        char[] chars = new char[LENGTH];
+        writeHex(chars, 0, hi);
+        writeHex(chars, 16, lo);
+        return new String(chars);
+    }
+
+    public static boolean isWellFormed(String token) {
+        if (token == null || token.length() != LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            char c = token.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Callers must check {@link #isWellFormed(String)} first.
+     */
+    public static long hi(String token) {
+        return Long.parseUnsignedLong(token, 0, 16, 16);
+    }
+
+    public static long lo(String token) {
+        return Long.parseUnsignedLong(token, 16, 32, 16);
+    }
+
+    private static void writeHex(char[] chars, int offset, long value) {
+        for (int i = 15; i >= 0; i--) {
+            chars[offset + i] = HEX[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * An authorization code as read back from a {@link TokenPersistence} backend.
+ *
+ * @param clientId client the code is bound to, or null (see {@link AuthorizationCode#clientId()})
+ * @param expiresAt expiry in TokenStore seconds (see {@link TokenStore#nowSeconds()})
+ */
+public record PersistedCode(String code, int userId, String role, String clientId, String redirectUri, int expiresAt,
+                            boolean redeemed) {
+}
@@ -0,0 +1,10 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * A minted token as read back from a {@link TokenPersistence} backend.
+ *
+ * @param principal packed user id and role code, as stored in {@link TokenIndex} values
+ * @param expiresAt expiry in TokenStore seconds (see {@link TokenStore#nowSeconds()})
+ */
+public record PersistedToken(long principal, int expiresAt) {
+}
@@ -0,0 +1,24 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * A Canvas user that tokens can be issued to.
+ *
+ * The configured instructor and student are the defaults for their roles. Any other user id is a
+ * simulated user whose details are derived from the id, so load tests can log in arbitrarily many
+ * distinct users without the server storing anything per user.
+ */
+public record Principal(int id, String role, String name, String email) {
+
+    public static Principal simulated(int id, String role) {
+        String title = role.isEmpty() ? role : Character.toUpperCase(role.charAt(0)) + role.substring(1);
+        return new Principal(id, role, "Simulated " + title + " " + id, role + id + "@example.edu");
+    }
+
+    /**
+     * Service account that a client_credentials token acts as; its id is derived from the client id.
+     */
+    public static Principal client(String clientId) {
+        return new Principal(clientId.hashCode() & Integer.MAX_VALUE, TokenStore.CLIENT_ROLE,
+                "Service Account " + clientId, clientId + "@clients.example.edu");
+    }
+}
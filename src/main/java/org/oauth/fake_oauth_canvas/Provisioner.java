@@ -0,0 +1,234 @@
+package org.oauth.fake_oauth_canvas;
+
+import jakarta.annotation.PreDestroy;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pre-mints authorization codes or token pairs for many simulated users in one call
+ * (POST /admin/provision), so a load test no longer has to walk each user through
+ * authorize and select-role first.
+ *
+ * A request is cut into batches of {@link #BATCH_SIZE} users. Worker threads (one per core by
+ * default) each generate a whole batch, insert it into {@link TokenStore} with one bulk call and
+ * render it as NDJSON, one line per user. Batches are handed to the response in order, and only a
+ * few batches per worker are ever generated ahead of it, so memory stays flat however many users
+ * are requested; a slow client slows generation down instead of piling up output.
+ */
+@Component
+@ConditionalOnProperty(name = "oauth.provisioning.enabled", havingValue = "true")
+public class Provisioner {
+
+    private static final Logger logger = LoggerFactory.getLogger(Provisioner.class);
+
+    static final int BATCH_SIZE = 2048;
+
+    // Largest sum of role weights; the role of user i is fixed by i modulo this sum
+    private static final int MAX_TOTAL_WEIGHT = 10_000;
+
+    public enum Kind {
+        CODES, TOKENS
+    }
+
+    /**
+     * A parsed provisioning request: {@code count} users with ids from {@code firstUserId}, whose
+     * roles repeat {@code roleCycle} (each role as often as its weight).
+     */
+    public record Request(Kind kind, int count, int firstUserId, String[] roleCycle) {
+
+        public int batches() {
+            return (count + BATCH_SIZE - 1) / BATCH_SIZE;
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchWriter {
+        void write(byte[] batch) throws IOException;
+    }
+
+    private final TokenStore tokenStore;
+    private final int maxCount;
+    private final int threads;
+    private final byte[] adminToken;
+    private final ExecutorService workers;
+
+    public Provisioner(
+            TokenStore tokenStore,
+            @Value("${oauth.provisioning.max-count:5000000}") int maxCount,
+            // 0 runs one worker per core
+            @Value("${oauth.provisioning.threads:0}") int threads,
+            @Value("${oauth.provisioning.admin-token:}") String adminToken) {
+        this.tokenStore = tokenStore;
+        this.maxCount = maxCount;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.adminToken = adminToken.isEmpty() ? null : adminToken.getBytes(StandardCharsets.UTF_8);
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "provisioner-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.warn("[Provisioner] Bulk provisioning is enabled - up to {} users per request, {} workers",
+                maxCount, this.threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Requests must carry oauth.provisioning.admin-token in the X-Admin-Token header when it is set.
+     */
+    public boolean authorized(String token) {
+        return adminToken == null
+                || (token != null && MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Parses a request body such as
+     * {@code {"kind":"tokens","count":100000,"roles":{"student":95,"instructor":5},"first_user_id":1000000}}.
+     * Only count is required; kind defaults to codes, roles to all students and first_user_id to the
+     * first user of the synthetic Canvas dataset.
+     *
+     * @throws IllegalArgumentException for an invalid request, including tokens in static token mode
+     */
+    public Request parse(JSONObject body) {
+        Kind kind = switch (body.optString("kind", "codes").toLowerCase(Locale.ROOT)) {
+            case "codes" -> Kind.CODES;
+            case "tokens" -> Kind.TOKENS;
+            default -> throw new IllegalArgumentException("kind must be codes or tokens");
+        };
+        if (kind == Kind.TOKENS && tokenStore.getTokenMode() == TokenMode.STATIC) {
+            throw new IllegalArgumentException("Per-user tokens need OAUTH_TOKENS_MODE=opaque or signed");
+        }
+        long count = body.optLong("count", 0);
+        if (count < 1 || count > maxCount) {
+            throw new IllegalArgumentException("count must be between 1 and " + maxCount);
+        }
+        int firstUserId = body.optInt("first_user_id", SyntheticCanvas.FIRST_USER_ID);
+        if (firstUserId < 1 || (long) firstUserId + count - 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("first_user_id must be positive and leave room for count users");
+        }
+        JSONObject roles = body.optJSONObject("roles");
+        if (roles == null) {
+            roles = new JSONObject().put(TokenStore.STUDENT_ROLE, 1);
+        }
+        List<String> roleCycle = new ArrayList<>();
+        for (String role : new TreeSet<>(roles.keySet())) {
+            if (!TokenStore.INSTRUCTOR_ROLE.equals(role) && !TokenStore.STUDENT_ROLE.equals(role)) {
+                throw new IllegalArgumentException("Unknown role: " + role);
+            }
+            int weight = roles.optInt(role, -1);
+            if (weight < 0 || roleCycle.size() + weight > MAX_TOTAL_WEIGHT) {
+                throw new IllegalArgumentException("Role weights must be whole numbers adding up to at most " + MAX_TOTAL_WEIGHT);
+            }
+            for (int i = 0; i < weight; i++) {
+                roleCycle.add(role);
+            }
+        }
+        if (roleCycle.isEmpty()) {
+            throw new IllegalArgumentException("At least one role needs a positive weight");
+        }
+        return new Request(kind, (int) count, firstUserId, roleCycle.toArray(new String[0]));
+    }
+
+    /**
+     * Generates every batch of the request on the workers and passes them to {@code out} in order,
+     * keeping at most two batches per worker in flight. If {@code out} fails (the client went away),
+     * the batches not yet started are cancelled; users already provisioned stay valid.
+     */
+    public void stream(Request request, BatchWriter out) throws IOException {
+        int window = 2 * threads;
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>(window);
+        int next = 0;
+        try {
+            while (next < request.batches() || !inFlight.isEmpty()) {
+                while (next < request.batches() && inFlight.size() < window) {
+                    int batch = next++;
+                    inFlight.add(CompletableFuture.supplyAsync(() -> batch(request, batch), workers));
+                }
+                out.write(inFlight.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while provisioning", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Provisioning a batch failed", e.getCause());
+        } finally {
+            inFlight.forEach(batch -> batch.cancel(false));
+        }
+    }
+
+    /**
+     * The workers, for callers that schedule {@link #batch} themselves (the reactive controller).
+     */
+    public ExecutorService workers() {
+        return workers;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    /**
+     * Provisions one batch of users and renders it as NDJSON.
+     */
+    public byte[] batch(Request request, int batch) {
+        int from = batch * BATCH_SIZE;
+        int size = Math.min(BATCH_SIZE, request.count() - from);
+        String[] roles = new String[size];
+        int[] userIds = new int[size];
+        String[] roleCycle = request.roleCycle();
+        for (int i = 0; i < size; i++) {
+            roles[i] = roleCycle[(from + i) % roleCycle.length];
+            userIds[i] = request.firstUserId() + from + i;
+        }
+        StringBuilder out = new StringBuilder(size * (request.kind() == Kind.CODES ? 80 : 160));
+        if (request.kind() == Kind.CODES) {
+            String[] codes = tokenStore.provisionCodes(roles, userIds, size);
+            for (int i = 0; i < size; i++) {
+                line(out, userId(roles[i], userIds[i]), roles[i]).append(",\"code\":\"").append(codes[i]).append("\"}\n");
+            }
+        } else {
+            IssuedTokens[] tokens = tokenStore.provisionTokens(roles, userIds, size);
+            int expiresIn = tokenStore.getAccessTokenTtlSeconds();
+            for (int i = 0; i < size; i++) {
+                line(out, userIds[i], roles[i])
+                        .append(",\"access_token\":\"").append(tokens[i].accessToken())
+                        .append("\",\"refresh_token\":\"").append(tokens[i].refreshToken())
+                        .append("\",\"token_type\":\"Bearer\",\"expires_in\":").append(expiresIn).append("}\n");
+            }
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int userId(String role, int requested) {
+        // Static mode logs every code into the configured user of its role
+        return tokenStore.getTokenMode() == TokenMode.STATIC ? tokenStore.getPrincipal(role).id() : requested;
+    }
+
+    private static StringBuilder line(StringBuilder out, int userId, String role) {
+        return out.append("{\"user_id\":").append(userId).append(",\"role\":\"").append(role).append('"');
+    }
+}
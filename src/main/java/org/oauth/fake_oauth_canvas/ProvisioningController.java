@@ -0,0 +1,80 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletResponse;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * POST /admin/provision: streams pre-minted codes or token pairs as NDJSON ({@link Provisioner}).
+ * Each batch is written to the socket as soon as it is its turn, so the response starts after the
+ * first batch rather than after the last.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "oauth.provisioning.enabled", havingValue = "true")
+public class ProvisioningController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProvisioningController.class);
+
+    private final Provisioner provisioner;
+    private final OAuthMetrics metrics;
+
+    public ProvisioningController(Provisioner provisioner, OAuthMetrics metrics) {
+        this.provisioner = provisioner;
+        this.metrics = metrics;
+    }
+
+    @PostMapping("/admin/provision")
+    public void provision(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                          @RequestBody String body, HttpServletResponse response) throws IOException {
+        Timer.Sample sample = metrics.start();
+        if (!provisioner.authorized(token)) {
+            metrics.record(sample, OAuthMetrics.PROVISION, "invalid_token");
+            error(response, HttpStatus.UNAUTHORIZED, "Invalid admin token");
+            return;
+        }
+        Provisioner.Request request;
+        try {
+            request = provisioner.parse(new JSONObject(body));
+        } catch (JSONException | IllegalArgumentException e) {
+            metrics.record(sample, OAuthMetrics.PROVISION, "invalid");
+            error(response, HttpStatus.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        logger.info("[PROVISION] Provisioning {} {} from user id {}", request.count(), request.kind(), request.firstUserId());
+        long start = System.nanoTime();
+
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        OutputStream out = response.getOutputStream();
+        provisioner.stream(request, out::write);
+        metrics.record(sample, OAuthMetrics.PROVISION, OAuthMetrics.SUCCESS);
+        logger.info("[PROVISION] Provisioned {} {} in {}ms", request.count(), request.kind(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    static byte[] errorBody(String message) {
+        JSONObject error = new JSONObject().put("message", message);
+        return new JSONObject().put("errors", new JSONArray().put(error)).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void error(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getOutputStream().write(errorBody(message));
+    }
+}
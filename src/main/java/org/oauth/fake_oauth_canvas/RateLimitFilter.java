@@ -0,0 +1,59 @@
+package org.oauth.fake_oauth_canvas;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Applies {@link RateLimiter} in servlet mode. Runs after RequestEventFilter, so throttled
+ * requests are logged, and before fault injection, so a throttled request is never delayed.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConditionalOnProperty(name = "oauth.rate-limit.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RateLimiter rateLimiter;
+
+    public RateLimitFilter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String endpoint = RateLimiter.endpointFor(request.getMethod(), request.getRequestURI());
+        if (endpoint == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String clientId = null;
+        if (OAuthMetrics.TOKEN.equals(endpoint)) {
+            clientId = rateLimiter.clientKey(request.getHeader(HttpHeaders.AUTHORIZATION),
+                    request.getParameter("client_id"), request.getParameter("client_secret"));
+        }
+        long retryAfterSeconds = rateLimiter.acquire(endpoint, clientId, request.getRemoteAddr());
+        if (retryAfterSeconds == 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(RateLimiter.THROTTLED_BODY.length);
+        response.getOutputStream().write(RateLimiter.THROTTLED_BODY);
+    }
+}
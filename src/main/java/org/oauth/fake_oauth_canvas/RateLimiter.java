@@ -0,0 +1,149 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-client_id and per-IP rate limits for the token and users/self endpoints, so one runaway
+ * client cannot starve everyone else on a shared server. Both limits are {@link Gcra} token
+ * buckets; a request must pass the IP bucket and, when it names a client, the client bucket.
+ * A request rejected by either bucket takes no token from the other. With a client registry,
+ * only authenticated client ids get a bucket of their own ({@link #clientKey}).
+ *
+ * Applied by RateLimitFilter (servlet) or ReactiveRateLimitFilter, which answer 429 with Retry-After.
+ */
+@Component
+@ConditionalOnProperty(name = "oauth.rate-limit.enabled", havingValue = "true")
+public class RateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+    private static final long SWEEP_INTERVAL_SECONDS = 10;
+
+    static final byte[] THROTTLED_BODY = "{\"errors\":[{\"message\":\"Rate limit exceeded\"}]}".getBytes(StandardCharsets.UTF_8);
+
+    private final Gcra clients;
+    private final Gcra addresses;
+    private final MeterRegistry registry;
+    private final ClientRegistry clientRegistry;
+    private final Map<String, Counter> throttled = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    public RateLimiter(
+            MeterRegistry registry,
+            ClientRegistry clientRegistry,
+            @Value("${oauth.rate-limit.client.requests-per-second:20}") double clientRate,
+            @Value("${oauth.rate-limit.client.burst:40}") int clientBurst,
+            @Value("${oauth.rate-limit.ip.requests-per-second:50}") double ipRate,
+            @Value("${oauth.rate-limit.ip.burst:100}") int ipBurst) {
+        this.registry = registry;
+        this.clientRegistry = clientRegistry;
+        this.clients = new Gcra(clientRate, clientBurst);
+        this.addresses = new Gcra(ipRate, ipBurst);
+        Gauge.builder("oauth.ratelimit.keys", () -> clients.size() + addresses.size())
+                .description("Clients and IP addresses with a partly drained rate limit bucket")
+                .register(registry);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        logger.info("[RateLimiter] Per client_id: {}/s (burst {}), per IP: {}/s (burst {})",
+                clientRate, clientBurst, ipRate, ipBurst);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * The rate-limited endpoint a request targets, or null for everything else.
+     */
+    public static String endpointFor(String method, String path) {
+        if ("POST".equals(method) && "/login/oauth2/token".equals(path)) {
+            return OAuthMetrics.TOKEN;
+        }
+        if ("GET".equals(method) && "/api/v1/users/self".equals(path)) {
+            return OAuthMetrics.USERS_SELF;
+        }
+        return null;
+    }
+
+    /**
+     * The client bucket for a token request. With a client registry this is the client the
+     * credentials authenticate, so a caller cannot drain another client's bucket by naming it;
+     * without one, the client_id the token endpoint will see, parsed by the same code.
+     *
+     * @return the client_id to limit, or null to limit the request by IP only
+     */
+    public String clientKey(String authorization, String clientId, String clientSecret) {
+        if (clientRegistry.isEnabled()) {
+            return clientRegistry.authenticatedClientId(authorization, clientId, clientSecret);
+        }
+        // Never throws without a registry
+        return clientRegistry.authenticate(authorization, clientId, clientSecret);
+    }
+
+    /**
+     * Takes a token from each of the caller's buckets, or from none if either is empty.
+     *
+     * @param clientId the request's {@link #clientKey}, or null if it has none
+     * @return 0 if the request may proceed, otherwise the seconds to send in Retry-After
+     */
+    public long acquire(String endpoint, String clientId, String address) {
+        long now = System.nanoTime();
+        long wait = addresses.check(address, now);
+        boolean byClient = false;
+        if (wait == 0 && clientId != null) {
+            wait = clients.check(clientId, now);
+            byClient = true;
+        }
+        if (wait == 0) {
+            wait = addresses.acquire(address, now);
+            byClient = false;
+            if (wait == 0 && clientId != null) {
+                wait = clients.acquire(clientId, now);
+                byClient = true;
+                if (wait > 0) {
+                    // Another request took the client's last token since the check
+                    addresses.release(address);
+                }
+            }
+        }
+        if (wait == 0) {
+            return 0;
+        }
+        String limit = byClient ? "client" : "ip";
+        throttled.computeIfAbsent(endpoint + ' ' + limit, key -> Counter.builder("oauth.ratelimit.throttled")
+                .description("Requests rejected with 429 by the per-client or per-IP rate limit")
+                .tag("endpoint", endpoint)
+                .tag("limit", limit)
+                .register(registry)).increment();
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        int removed = clients.sweep(now) + addresses.sweep(now);
+        if (removed > 0) {
+            logger.debug("[RateLimiter] Forgot {} idle rate limit buckets", removed);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Timer;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The OAuth, API and introspection endpoints of {@link AuthController} for the reactive server mode (Netty).
+ *
+ * Responses are the same, but no handler ever blocks an event-loop thread: store calls go through
+ * {@link ReactiveTokenStore} and the pending authorization always travels in the signed "ctx"
+ * parameter, as in stateless authorize mode, because there is no servlet session. WebFlux only
+ * binds query parameters to @RequestParam, so the form posts read the body via the exchange.
+ * Only failures are logged; a per-request log line would cost more than the request itself.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAuthController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveAuthController.class);
+
+    private final ReactiveTokenStore tokenStore;
+    private final HmacSigner signer;
+    private final OAuthMetrics metrics;
+    private final ClientRegistry clients;
+    private final long authorizeContextTtlSeconds;
+    private final int maxIntrospectTokens;
+
+    public ReactiveAuthController(
+            ReactiveTokenStore tokenStore,
+            HmacSigner signer,
+            OAuthMetrics metrics,
+            ClientRegistry clients,
+            @Value("${oauth.authorize.context-ttl-seconds:600}") long authorizeContextTtlSeconds,
+            @Value("${oauth.introspect.max-tokens:1000}") int maxIntrospectTokens) {
+        this.tokenStore = tokenStore;
+        this.signer = signer;
+        this.metrics = metrics;
+        this.clients = clients;
+        this.authorizeContextTtlSeconds = authorizeContextTtlSeconds;
+        this.maxIntrospectTokens = maxIntrospectTokens;
+        logger.info("ReactiveAuthController initialized (authorize context carried in ctx parameter)");
+    }
+
+    @GetMapping("/login/oauth2/auth")
+    public ResponseEntity<Void> authorize(
+            @RequestParam("client_id") String clientId,
+            @RequestParam("response_type") String responseType,
+            @RequestParam("redirect_uri") String redirectUri,
+            @RequestParam(value = "state", required = false) String state,
+            @RequestParam(value = "scope", required = false) String scope) {
+        Timer.Sample sample = metrics.start();
+        if (!"code".equals(responseType)) {
+            logger.error("[AUTHORIZE] Invalid response_type: {}. Expected 'code'", responseType);
+            metrics.record(sample, OAuthMetrics.AUTHORIZE, "unsupported_response_type");
+            return ResponseEntity.badRequest().build();
+        }
+        String rejection = clients.checkAuthorization(clientId, redirectUri);
+        if (rejection != null) {
+            logger.error("[AUTHORIZE] Rejected client_id {} with redirect_uri {}: {}", clientId, redirectUri, rejection);
+            metrics.record(sample, OAuthMetrics.AUTHORIZE, rejection);
+            return ResponseEntity.badRequest().build();
+        }
+
+        long expiresAt = System.currentTimeMillis() / 1000 + authorizeContextTtlSeconds;
+        String context = new AuthorizationContext(clientId, redirectUri, state, scope, expiresAt).encode(signer);
+        metrics.record(sample, OAuthMetrics.AUTHORIZE, OAuthMetrics.SUCCESS);
+        return redirect("/login/oauth2/select-role?ctx=" + context);
+    }
+
+    @PostMapping("/login/oauth2/select-role")
+    public Mono<ResponseEntity<Void>> selectRole(ServerWebExchange exchange) {
+        Timer.Sample sample = metrics.start();
+        return parameters(exchange).flatMap(parameters -> {
+            String role = parameters.getFirst("role");
+            AuthorizationContext context = AuthorizationContext.decode(
+                    signer, parameters.getFirst("ctx"), System.currentTimeMillis() / 1000);
+            if (context == null || context.redirectUri() == null) {
+                logger.error("[SELECT-ROLE] ERROR: no pending authorization (ctx missing, forged or expired)");
+                metrics.record(sample, OAuthMetrics.SELECT_ROLE, "no_pending_authorization");
+                return Mono.just(ResponseEntity.badRequest().<Void>build());
+            }
+            Integer userId;
+            try {
+                String value = parameters.getFirst("user_id");
+                userId = value != null && !value.isEmpty() ? Integer.valueOf(value) : null;
+            } catch (NumberFormatException e) {
+                logger.error("[SELECT-ROLE] ERROR: Invalid user_id");
+                metrics.record(sample, OAuthMetrics.SELECT_ROLE, "invalid_user_id");
+                return Mono.just(ResponseEntity.badRequest().<Void>build());
+            }
+            // Without a registry any client may redeem the code, as clients are not authenticated
+            return (clients.isEnabled()
+                    ? tokenStore.generateCode(role, userId, context.clientId(), context.redirectUri())
+                    : tokenStore.generateCode(role, userId, null, null))
+                    .map(code -> {
+                        metrics.record(sample, OAuthMetrics.SELECT_ROLE, OAuthMetrics.SUCCESS);
+                        String location = context.redirectUri() + "?code=" + code + "&state=" + context.state();
+                        return ReactiveAuthController.<Void>redirect(location);
+                    })
+                    .switchIfEmpty(Mono.fromSupplier(() -> {
+                        logger.error("[SELECT-ROLE] ERROR: Unknown role: {}", role);
+                        metrics.record(sample, OAuthMetrics.SELECT_ROLE, "unknown_role");
+                        return ResponseEntity.badRequest().<Void>build();
+                    }));
+        });
+    }
+
+    @PostMapping("/login/oauth2/token")
+    public Mono<ResponseEntity<byte[]>> token(ServerWebExchange exchange) {
+        Timer.Sample sample = metrics.start();
+        return parameters(exchange).flatMap(parameters -> {
+            String grantType = parameters.getFirst("grant_type");
+            String clientId;
+            try {
+                clientId = clients.authenticate(exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION),
+                        parameters.getFirst("client_id"), parameters.getFirst("client_secret"));
+            } catch (IllegalArgumentException e) {
+                logger.error("[TOKEN] ERROR: Client authentication failed - {}", e.getMessage());
+                metrics.record(sample, OAuthMetrics.TOKEN, OAuthMetrics.grant(grantType), "invalid_client");
+                return Mono.just(ResponseEntity.status(HttpStatus.UNAUTHORIZED).contentType(MediaType.TEXT_PLAIN)
+                        .body(AuthController.INVALID_CLIENT));
+            }
+            if ("authorization_code".equals(grantType)) {
+                return tokenStore.redeemCode(parameters.getFirst("code"), clientId, parameters.getFirst("redirect_uri")).map(redemption -> {
+                    metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.outcome(redemption.status()));
+                    if (!redemption.isRedeemed()) {
+                        logger.error("[TOKEN] ERROR: Code rejected - {}", redemption.status());
+                        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(AuthController.INVALID_CODE);
+                    }
+                    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                            .body(tokenStore.getResponseTemplates().codeGrant(redemption.tokens(), redemption.principal()));
+                });
+            } else if ("refresh_token".equals(grantType)) {
+                return tokenStore.refresh(parameters.getFirst("refresh_token")).map(refresh -> {
+                    metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.outcome(refresh.status()));
+                    if (!refresh.isRefreshed()) {
+                        logger.error("[TOKEN] ERROR: Refresh token rejected - {}", refresh.status());
+                        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(AuthController.INVALID_REFRESH_TOKEN);
+                    }
+                    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(tokenStore.getResponseTemplates()
+                            .refreshGrant(refresh.accessToken(), refresh.refreshToken(), refresh.principal()));
+                });
+            } else if ("client_credentials".equals(grantType)) {
+                JSONObject response = new JSONObject();
+                response.put("access_token", tokenStore.issueClientToken(clientId));
+                response.put("token_type", "Bearer");
+                response.put("expires_in", tokenStore.getAccessTokenTtlSeconds());
+                response.put("scope", parameters.getFirst("scope"));
+                metrics.record(sample, OAuthMetrics.TOKEN, grantType, OAuthMetrics.SUCCESS);
+                return Mono.just(ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                        .body(response.toString().getBytes(StandardCharsets.UTF_8)));
+            }
+            logger.error("[TOKEN] ERROR: Unsupported grant_type: {}", grantType);
+            metrics.record(sample, OAuthMetrics.TOKEN, OAuthMetrics.UNSUPPORTED_GRANT, "unsupported_grant_type");
+            return Mono.just(ResponseEntity.badRequest().<byte[]>build());
+        });
+    }
+
+    @DeleteMapping("/login/oauth2/token")
+    public ResponseEntity<String> logout(
+            @RequestParam(value = "expire_sessions", required = false) String expireSessions) {
+        Timer.Sample sample = metrics.start();
+        if ("1".equals(expireSessions)) {
+            JSONObject response = new JSONObject();
+            response.put("forward_url", "https://idp.school.edu/opaque_url");
+            metrics.record(sample, OAuthMetrics.LOGOUT, OAuthMetrics.SUCCESS);
+            return ResponseEntity.ok(response.toString());
+        }
+        metrics.record(sample, OAuthMetrics.LOGOUT, OAuthMetrics.SUCCESS);
+        return ResponseEntity.ok().build();
+    }
+
+    @GetMapping("/login/session_token")
+    public ResponseEntity<String> sessionToken(
+            @RequestParam(value = "return_to", required = false) String returnTo) {
+        Timer.Sample sample = metrics.start();
+        JSONObject response = new JSONObject();
+        response.put("session_url", "https://canvas.instructure.com/opaque_url");
+        metrics.record(sample, OAuthMetrics.SESSION_TOKEN, OAuthMetrics.SUCCESS);
+        return ResponseEntity.ok(response.toString());
+    }
+
+    @GetMapping("/api/v1/users/self")
+    public Mono<ResponseEntity<byte[]>> getUserInfo(
+            @RequestParam(value = "access_token", required = false) String accessToken) {
+        Timer.Sample sample = metrics.start();
+        return tokenStore.getPrincipalForAccessToken(accessToken)
+                .map(principal -> {
+                    metrics.record(sample, OAuthMetrics.USERS_SELF, OAuthMetrics.SUCCESS);
+                    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                            .body(tokenStore.getResponseTemplates().userInfo(principal));
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    logger.error("[USER-INFO] ERROR: Invalid access token - not found in TokenStore");
+                    metrics.record(sample, OAuthMetrics.USERS_SELF, "invalid_token");
+                    return ResponseEntity.status(HttpStatus.UNAUTHORIZED).contentType(MediaType.TEXT_PLAIN)
+                            .body(AuthController.INVALID_ACCESS_TOKEN);
+                }));
+    }
+
+    /**
+     * See {@link AuthController#introspect}. The lines are written as one buffer: a streaming media
+     * type would otherwise make WebFlux flush after every token.
+     */
+    @PostMapping("/login/oauth2/introspect")
+    public Mono<ResponseEntity<byte[]>> introspect(ServerWebExchange exchange) {
+        Timer.Sample sample = metrics.start();
+        return parameters(exchange).flatMap(parameters -> {
+            List<String> tokens = parameters.getOrDefault("token", List.of());
+            if (tokens.isEmpty() || tokens.size() > maxIntrospectTokens) {
+                logger.error("[INTROSPECT] ERROR: {} tokens given, expected 1 to {}", tokens.size(), maxIntrospectTokens);
+                metrics.record(sample, OAuthMetrics.INTROSPECT, "invalid_request");
+                return Mono.just(ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                        .body(AuthController.INVALID_INTROSPECTION_REQUEST));
+            }
+            return tokenStore.introspect(tokens).map(principals -> {
+                ResponseTemplates templates = tokenStore.getResponseTemplates();
+                byte[][] lines = new byte[principals.length][];
+                int length = 0;
+                for (int i = 0; i < principals.length; i++) {
+                    lines[i] = templates.introspectionLine(principals[i]);
+                    length += lines[i].length;
+                }
+                byte[] body = new byte[length];
+                int offset = 0;
+                for (byte[] line : lines) {
+                    System.arraycopy(line, 0, body, offset, line.length);
+                    offset += line.length;
+                }
+                metrics.record(sample, OAuthMetrics.INTROSPECT, OAuthMetrics.SUCCESS);
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+            });
+        });
+    }
+
+    /**
+     * Query and form parameters together, query first, like ServletRequest#getParameter.
+     */
+    private static Mono<MultiValueMap<String, String>> parameters(ServerWebExchange exchange) {
+        return exchange.getFormData().map(form -> {
+            MultiValueMap<String, String> parameters = new LinkedMultiValueMap<>();
+            parameters.addAll(exchange.getRequest().getQueryParams());
+            parameters.addAll(form);
+            return parameters;
+        });
+    }
+
+    private static <T> ResponseEntity<T> redirect(String location) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(URI.create(location));
+        return new ResponseEntity<>(headers, HttpStatus.FOUND);
+    }
+}
@@ -0,0 +1,145 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * The synthetic course API of {@link CanvasApiController} for the reactive server mode. A page is
+ * a Flux of chunks generated on demand, so Netty's backpressure decides how far generation runs
+ * ahead of the socket.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCanvasApiController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveCanvasApiController.class);
+
+    private final ReactiveTokenStore tokenStore;
+    private final SyntheticCanvas canvas;
+    private final OAuthMetrics metrics;
+
+    public ReactiveCanvasApiController(ReactiveTokenStore tokenStore, SyntheticCanvas canvas, OAuthMetrics metrics) {
+        this.tokenStore = tokenStore;
+        this.canvas = canvas;
+        this.metrics = metrics;
+    }
+
+    @GetMapping("/api/v1/courses")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> courses(
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestParam(value = "page", required = false) String page,
+            @RequestParam(value = "per_page", required = false) String perPage,
+            ServerWebExchange exchange) {
+        return list(OAuthMetrics.COURSES, canvas.courses(), accessToken, authorization, page, perPage, exchange);
+    }
+
+    @GetMapping("/api/v1/courses/{courseId}")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> course(
+            @PathVariable("courseId") String courseId,
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            ServerWebExchange exchange) {
+        Timer.Sample sample = metrics.start();
+        DataBufferFactory buffers = exchange.getResponse().bufferFactory();
+        return authorized(OAuthMetrics.COURSE, sample, accessToken, authorization, buffers, () -> {
+            String course = canvas.course(CanvasApiController.id(courseId));
+            if (course == null) {
+                return notFound(OAuthMetrics.COURSE, sample, buffers);
+            }
+            metrics.record(sample, OAuthMetrics.COURSE, OAuthMetrics.SUCCESS);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                    .body(Flux.just(buffers.wrap(course.getBytes(StandardCharsets.UTF_8))));
+        });
+    }
+
+    @GetMapping("/api/v1/courses/{courseId}/enrollments")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> enrollments(
+            @PathVariable("courseId") String courseId,
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestParam(value = "page", required = false) String page,
+            @RequestParam(value = "per_page", required = false) String perPage,
+            ServerWebExchange exchange) {
+        return list(OAuthMetrics.ENROLLMENTS, canvas.enrollments(CanvasApiController.id(courseId)),
+                accessToken, authorization, page, perPage, exchange);
+    }
+
+    @GetMapping("/api/v1/courses/{courseId}/assignments")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> assignments(
+            @PathVariable("courseId") String courseId,
+            @RequestParam(value = "access_token", required = false) String accessToken,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestParam(value = "page", required = false) String page,
+            @RequestParam(value = "per_page", required = false) String perPage,
+            ServerWebExchange exchange) {
+        return list(OAuthMetrics.ASSIGNMENTS, canvas.assignments(CanvasApiController.id(courseId)),
+                accessToken, authorization, page, perPage, exchange);
+    }
+
+    private Mono<ResponseEntity<Flux<DataBuffer>>> list(String endpoint, SyntheticCanvas.Listing listing,
+                                                         String accessToken, String authorization,
+                                                         String page, String perPage, ServerWebExchange exchange) {
+        Timer.Sample sample = metrics.start();
+        DataBufferFactory buffers = exchange.getResponse().bufferFactory();
+        return authorized(endpoint, sample, accessToken, authorization, buffers, () -> {
+            if (listing == null) {
+                return notFound(endpoint, sample, buffers);
+            }
+            SyntheticCanvas.Page selected = canvas.page(listing, page, perPage);
+            logger.info("[CANVAS-API] {} page {} ({} per page) of {}", endpoint, selected.number(), selected.perPage(), listing.size());
+            Flux<DataBuffer> body = Flux.<DataBuffer, Long>generate(selected::from, (next, sink) -> {
+                StringBuilder chunk = new StringBuilder(SyntheticCanvas.CHUNK_CHARS + 512);
+                long after = selected.writeChunk(chunk, next);
+                sink.next(buffers.wrap(chunk.toString().getBytes(StandardCharsets.UTF_8)));
+                if (selected.isComplete(after)) {
+                    sink.complete();
+                }
+                return after;
+            }).doOnComplete(() -> metrics.record(sample, endpoint, OAuthMetrics.SUCCESS));
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.LINK, selected.linkHeader(UriComponentsBuilder.fromUri(exchange.getRequest().getURI())))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(body);
+        });
+    }
+
+    private Mono<ResponseEntity<Flux<DataBuffer>>> authorized(
+            String endpoint, Timer.Sample sample, String accessToken, String authorization, DataBufferFactory buffers,
+            Supplier<ResponseEntity<Flux<DataBuffer>>> handler) {
+        return tokenStore.getPrincipalForAccessToken(CanvasApiController.accessToken(accessToken, authorization))
+                .map(principal -> handler.get())
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    logger.error("[CANVAS-API] ERROR: Invalid access token - not found in TokenStore");
+                    metrics.record(sample, endpoint, "invalid_token");
+                    return ResponseEntity.status(HttpStatus.UNAUTHORIZED).contentType(MediaType.TEXT_PLAIN)
+                            .body(Flux.just(buffers.wrap(AuthController.INVALID_ACCESS_TOKEN)));
+                }));
+    }
+
+    private ResponseEntity<Flux<DataBuffer>> notFound(String endpoint, Timer.Sample sample, DataBufferFactory buffers) {
+        metrics.record(sample, endpoint, "not_found");
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.just(buffers.wrap(SyntheticCanvas.NOT_FOUND_BODY)));
+    }
+}
@@ -0,0 +1,53 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Applies {@link FaultInjector} faults in the reactive server mode. Delays are timers on Reactor's
+ * parallel scheduler, so no event loop or worker thread waits on them.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConditionalOnProperty(name = "oauth.faults.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveFaultInjectionFilter implements WebFilter {
+
+    private final FaultInjector injector;
+
+    public ReactiveFaultInjectionFilter(FaultInjector injector) {
+        this.injector = injector;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        FaultInjector.Fault fault = injector.next(FaultInjector.endpointFor(
+                exchange.getRequest().getMethod().name(), exchange.getRequest().getPath().value()));
+        if (fault == null) {
+            return chain.filter(exchange);
+        }
+        Mono<Void> outcome = fault.status() == 0
+                ? chain.filter(exchange)
+                : Mono.defer(() -> writeError(exchange.getResponse(), fault.status()));
+        return fault.delayNanos() == 0 ? outcome : Mono.delay(Duration.ofNanos(fault.delayNanos())).then(outcome);
+    }
+
+    private static Mono<Void> writeError(ServerHttpResponse response, int status) {
+        response.setStatusCode(HttpStatusCode.valueOf(status));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        response.getHeaders().setContentLength(FaultInjector.ERROR_BODY.length);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(FaultInjector.ERROR_BODY)));
+    }
+}
@@ -0,0 +1,82 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.Timer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * POST /admin/provision for the reactive server mode. Batches are generated on the provisioner's
+ * workers, never on the event loop, and emitted in order; Netty's demand limits how many are
+ * generated ahead of the socket.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@ConditionalOnProperty(name = "oauth.provisioning.enabled", havingValue = "true")
+public class ReactiveProvisioningController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveProvisioningController.class);
+
+    private final Provisioner provisioner;
+    private final OAuthMetrics metrics;
+    private final Scheduler workers;
+
+    public ReactiveProvisioningController(Provisioner provisioner, OAuthMetrics metrics) {
+        this.provisioner = provisioner;
+        this.metrics = metrics;
+        this.workers = Schedulers.fromExecutorService(provisioner.workers(), "provisioner");
+    }
+
+    @PostMapping("/admin/provision")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> provision(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                                            @RequestBody String body, ServerWebExchange exchange) {
+        Timer.Sample sample = metrics.start();
+        DataBufferFactory buffers = exchange.getResponse().bufferFactory();
+        if (!provisioner.authorized(token)) {
+            metrics.record(sample, OAuthMetrics.PROVISION, "invalid_token");
+            return Mono.just(error(buffers, HttpStatus.UNAUTHORIZED, "Invalid admin token"));
+        }
+        Provisioner.Request request;
+        try {
+            request = provisioner.parse(new JSONObject(body));
+        } catch (JSONException | IllegalArgumentException e) {
+            metrics.record(sample, OAuthMetrics.PROVISION, "invalid");
+            return Mono.just(error(buffers, HttpStatus.BAD_REQUEST, e.getMessage()));
+        }
+        logger.info("[PROVISION] Provisioning {} {} from user id {}", request.count(), request.kind(), request.firstUserId());
+        long start = System.nanoTime();
+
+        // At most two batches per worker in flight, as in the servlet mode
+        Flux<DataBuffer> batches = Flux.range(0, request.batches())
+                .flatMapSequential(batch -> Mono.fromCallable(() -> provisioner.batch(request, batch)).subscribeOn(workers),
+                        2 * provisioner.threads(), 1)
+                .map(buffers::wrap)
+                .doOnComplete(() -> {
+                    metrics.record(sample, OAuthMetrics.PROVISION, OAuthMetrics.SUCCESS);
+                    logger.info("[PROVISION] Provisioned {} {} in {}ms", request.count(), request.kind(), (System.nanoTime() - start) / 1_000_000);
+                });
+        return Mono.just(ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(batches));
+    }
+
+    private static ResponseEntity<Flux<DataBuffer>> error(DataBufferFactory buffers, HttpStatus status, String message) {
+        return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.just(buffers.wrap(ProvisioningController.errorBody(message))));
+    }
+}
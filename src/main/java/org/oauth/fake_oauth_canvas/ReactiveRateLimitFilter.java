@@ -0,0 +1,73 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Applies {@link RateLimiter} in the reactive server mode, ahead of fault injection. The token
+ * endpoint's form body is read here to find the client_id; WebFlux caches it for the controller.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "oauth.rate-limit.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRateLimitFilter implements WebFilter {
+
+    private final RateLimiter rateLimiter;
+
+    public ReactiveRateLimitFilter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String endpoint = RateLimiter.endpointFor(request.getMethod().name(), request.getPath().value());
+        if (endpoint == null) {
+            return chain.filter(exchange);
+        }
+        InetSocketAddress remote = request.getRemoteAddress();
+        String address = remote != null ? remote.getHostString() : "unknown";
+        if (!OAuthMetrics.TOKEN.equals(endpoint)) {
+            return proceed(exchange, chain, rateLimiter.acquire(endpoint, null, address));
+        }
+        return exchange.getFormData().flatMap(form -> {
+            String clientId = request.getQueryParams().getFirst("client_id");
+            if (clientId == null) {
+                clientId = form.getFirst("client_id");
+            }
+            String clientSecret = request.getQueryParams().getFirst("client_secret");
+            if (clientSecret == null) {
+                clientSecret = form.getFirst("client_secret");
+            }
+            clientId = rateLimiter.clientKey(request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION), clientId, clientSecret);
+            return proceed(exchange, chain, rateLimiter.acquire(endpoint, clientId, address));
+        });
+    }
+
+    private static Mono<Void> proceed(ServerWebExchange exchange, WebFilterChain chain, long retryAfterSeconds) {
+        if (retryAfterSeconds == 0) {
+            return chain.filter(exchange);
+        }
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        response.getHeaders().setContentLength(RateLimiter.THROTTLED_BODY.length);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(RateLimiter.THROTTLED_BODY)));
+    }
+}
@@ -0,0 +1,71 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.RedirectServerAuthenticationSuccessHandler;
+import org.springframework.security.web.server.authentication.logout.RedirectServerLogoutSuccessHandler;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.savedrequest.NoOpServerRequestCache;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+
+import java.net.URI;
+
+/**
+ * The rules of {@link SecurityConfig} for the reactive server mode.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@EnableWebFluxSecurity
+public class ReactiveSecurityConfig {
+
+    /**
+     * Counterpart of {@link SecurityConfig#apiSecurityFilterChain}: no session, security context,
+     * CSRF, request cache, anonymous authentication or authorization for the API endpoints.
+     */
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @ConditionalOnProperty(name = "oauth.security.api-chain.enabled", havingValue = "true", matchIfMissing = true)
+    public SecurityWebFilterChain apiSecurityWebFilterChain(ServerHttpSecurity http) {
+        return http
+                .securityMatcher(ServerWebExchangeMatchers.pathMatchers(SecurityConfig.API_ENDPOINTS))
+                .csrf(csrf -> csrf.disable())
+                .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+                .requestCache(cache -> cache.requestCache(NoOpServerRequestCache.getInstance()))
+                .anonymous(anonymous -> anonymous.disable())
+                .httpBasic(basic -> basic.disable())
+                .formLogin(form -> form.disable())
+                .logout(logout -> logout.disable())
+                .headers(headers -> headers
+                        .frameOptions(frameOptions -> frameOptions.disable())
+                        .hsts(hsts -> hsts.disable())
+                        .xssProtection(xss -> xss.disable())
+                )
+                .build();
+    }
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+        RedirectServerLogoutSuccessHandler logoutSuccessHandler = new RedirectServerLogoutSuccessHandler();
+        logoutSuccessHandler.setLogoutSuccessUrl(URI.create("/"));
+        return http
+                .csrf(csrf -> csrf.disable())
+                .authorizeExchange(authorize -> authorize
+                        .pathMatchers("/", "/login", "/login/oauth2/**", "/oauth2/**", "/api/v1/**", "/actuator/health", "/actuator/metrics/**", "/actuator/prometheus", "/admin/faults/**", "/admin/provision", "/error").permitAll()
+                        .anyExchange().authenticated()
+                )
+                .oauth2Login(oauth2 -> oauth2
+                        .authenticationSuccessHandler(new RedirectServerAuthenticationSuccessHandler("/dashboard"))
+                )
+                .logout(logout -> logout
+                        .logoutSuccessHandler(logoutSuccessHandler)
+                )
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking view of {@link TokenStore} for the reactive server mode.
+ *
+ * The in-memory store never waits on I/O, so its calls complete directly on the Netty event loop.
+ * With a blocking backend (JDBC) a call may wait for a group commit or a read-through query, so it
+ * is subscribed on the bounded elastic scheduler instead of stalling the event loop.
+ * Lookups that find nothing complete empty.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveTokenStore {
+
+    private final TokenStore tokenStore;
+    private final boolean blocking;
+
+    public ReactiveTokenStore(TokenStore tokenStore) {
+        this.tokenStore = tokenStore;
+        this.blocking = tokenStore.isBlocking();
+    }
+
+    /**
+     * @return the code, or empty for an unknown role
+     */
+    public Mono<String> generateCode(String role, Integer userId, String clientId, String redirectUri) {
+        return call(() -> tokenStore.generateCode(role, userId, clientId, redirectUri));
+    }
+
+    public Mono<CodeRedemption> redeemCode(String code, String clientId, String redirectUri) {
+        return call(() -> tokenStore.redeemCode(code, clientId, redirectUri));
+    }
+
+    public Mono<TokenRefresh> refresh(String refreshToken) {
+        return call(() -> tokenStore.refresh(refreshToken));
+    }
+
+    /**
+     * @return the principal, or empty for an unknown, expired or revoked token
+     */
+    public Mono<Principal> getPrincipalForAccessToken(String accessToken) {
+        return call(() -> tokenStore.getPrincipalForAccessToken(accessToken));
+    }
+
+    /**
+     * @see TokenStore#introspect(List)
+     */
+    public Mono<Principal[]> introspect(List<String> accessTokens) {
+        return call(() -> tokenStore.introspect(accessTokens));
+    }
+
+    /**
+     * Client tokens are only cached in memory, so this never blocks.
+     */
+    public String issueClientToken(String clientId) {
+        return tokenStore.issueClientToken(clientId);
+    }
+
+    public int getAccessTokenTtlSeconds() {
+        return tokenStore.getAccessTokenTtlSeconds();
+    }
+
+    public ResponseTemplates getResponseTemplates() {
+        return tokenStore.getResponseTemplates();
+    }
+
+    private <T> Mono<T> call(Supplier<T> operation) {
+        Mono<T> result = Mono.fromSupplier(operation);
+        return blocking ? result.subscribeOn(Schedulers.boundedElastic()) : result;
+    }
+}
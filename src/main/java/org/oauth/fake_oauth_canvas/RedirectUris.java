@@ -0,0 +1,236 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The redirect URIs one registered client may use, compiled once when the registry is loaded.
+ *
+ * A registered URI is either exact ({@code https://app.example.com/callback}), matched by plain
+ * string comparison as RFC 6749 asks, or a prefix ending in {@code /*}
+ * ({@code https://app.example.com/oauth/*}), which allows any path below it with any query; the
+ * scheme and host of a prefix are compared case-insensitively.
+ *
+ * Exact URIs are a hash set, which a client without any does not probe at all. Prefixes
+ * are compiled into one radix trie keyed by origin and then path, so the origin is just the first
+ * edges of the walk: an int array holds the nodes and one string holds every edge's characters, so
+ * an edge is compared with a single regionMatches and a check allocates nothing. A prefix never
+ * matches a URI with user info, a fragment, a backslash or a dot segment, which a browser would
+ * resolve to somewhere else.
+ */
+final class RedirectUris {
+
+    private static final int MAX_URI_LENGTH = 4096;
+
+    // Null if the client has no exact URIs
+    private final Set<String> exact;
+    // Node: terminal flag, child count, then per child (sorted by first character): first character,
+    // edge offset in labels, edge length, child node index
+    private final int[] nodes;
+    private final String labels;
+
+    private RedirectUris(Set<String> exact, int[] nodes, String labels) {
+        this.exact = exact.isEmpty() ? null : exact;
+        this.nodes = nodes;
+        this.labels = labels;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a URI is not absolute http(s) or a prefix is malformed
+     */
+    static RedirectUris compile(List<String> uris) {
+        Set<String> exact = new HashSet<>();
+        TreeSet<String> prefixes = new TreeSet<>();
+        for (String uri : uris) {
+            int authorityEnd = authorityEnd(uri);
+            if (authorityEnd < 0 || uri.indexOf('#') >= 0 || uri.length() > MAX_URI_LENGTH) {
+                throw new IllegalArgumentException("Redirect URIs must be absolute http(s) URIs without a fragment: " + uri);
+            }
+            if (!uri.endsWith("/*")) {
+                if (uri.indexOf('*') >= 0) {
+                    throw new IllegalArgumentException("A * is only allowed as a trailing /*: " + uri);
+                }
+                exact.add(uri);
+                continue;
+            }
+            String prefix = uri.substring(0, uri.length() - 1);
+            if (prefix.indexOf('?') >= 0 || prefix.indexOf('*') >= 0 || !safePath(prefix, authorityEnd, prefix.length())) {
+                throw new IllegalArgumentException("Redirect URI prefixes must be a plain path ending in /*: " + uri);
+            }
+            StringBuilder normalized = new StringBuilder(prefix.length());
+            for (int i = 0; i < prefix.length(); i++) {
+                normalized.append(i < authorityEnd ? lowerCase(prefix.charAt(i)) : prefix.charAt(i));
+            }
+            prefixes.add(normalized.toString());
+        }
+        if (prefixes.isEmpty()) {
+            return new RedirectUris(Set.copyOf(exact), null, null);
+        }
+        List<Integer> nodes = new ArrayList<>();
+        StringBuilder labels = new StringBuilder();
+        write(nodes, labels, prefixes.toArray(new String[0]), 0, prefixes.size(), 0);
+        return new RedirectUris(Set.copyOf(exact), nodes.stream().mapToInt(Integer::intValue).toArray(), labels.toString());
+    }
+
+    boolean allows(String uri) {
+        if (uri == null) {
+            return false;
+        }
+        if (exact != null && exact.contains(uri)) {
+            return true;
+        }
+        if (nodes == null) {
+            return false;
+        }
+        int authorityEnd = authorityEnd(uri);
+        if (authorityEnd < 0) {
+            return false;
+        }
+        int node = 0;
+        int i = 0;
+        while (i < uri.length()) {
+            int children = nodes[node + 1];
+            int child = node + 2;
+            int next = -1;
+            char c = i < authorityEnd ? lowerCase(uri.charAt(i)) : uri.charAt(i);
+            for (int n = 0; n < children; n++, child += 4) {
+                int first = nodes[child];
+                if (first == c) {
+                    int length = nodes[child + 2];
+                    if (!edgeMatches(uri, i, nodes[child + 1], length, authorityEnd)) {
+                        return false;
+                    }
+                    i += length;
+                    next = nodes[child + 3];
+                    break;
+                }
+                if (first > c) {
+                    return false;
+                }
+            }
+            if (next < 0) {
+                return false;
+            }
+            node = next;
+            if (nodes[node] != 0) {
+                // Labels never hold a '#', so a fragment can only follow the matched prefix
+                int pathEnd = uri.indexOf('?', authorityEnd);
+                return uri.indexOf('#', i) < 0 && safePath(uri, authorityEnd, pathEnd < 0 ? uri.length() : pathEnd);
+            }
+        }
+        return false;
+    }
+
+    private boolean edgeMatches(String uri, int from, int offset, int length, int authorityEnd) {
+        // The part of the edge inside the origin ignores case; labels hold it lower-cased
+        int inOrigin = Math.max(0, Math.min(length, authorityEnd - from));
+        if (inOrigin > 0 && !uri.regionMatches(from, labels, offset, inOrigin)
+                && !uri.regionMatches(true, from, labels, offset, inOrigin)) {
+            return false;
+        }
+        return uri.regionMatches(from + inOrigin, labels, offset + inOrigin, length - inOrigin);
+    }
+
+    /**
+     * Appends the node for keys[from, to), which share their first depth characters, and returns
+     * its index. Each edge holds the run of characters its keys share, so a walk visits one node
+     * per branch point rather than one per character.
+     */
+    private static int write(List<Integer> nodes, StringBuilder labels, String[] keys, int from, int to, int depth) {
+        int node = nodes.size();
+        boolean terminal = keys[from].length() == depth;
+        if (terminal) {
+            from++;
+        }
+        nodes.add(terminal ? 1 : 0);
+        nodes.add(0);
+        List<int[]> groups = new ArrayList<>();
+        for (int i = from; i < to; ) {
+            char first = keys[i].charAt(depth);
+            int end = i + 1;
+            while (end < to && keys[end].charAt(depth) == first) {
+                end++;
+            }
+            // Sorted, so the first and last key share the prefix every key in between shares
+            String low = keys[i];
+            String high = keys[end - 1];
+            int shared = depth + 1;
+            while (shared < low.length() && shared < high.length() && low.charAt(shared) == high.charAt(shared)) {
+                shared++;
+            }
+            groups.add(new int[]{i, end, shared, nodes.size()});
+            nodes.add((int) first);
+            nodes.add(labels.length());
+            nodes.add(shared - depth);
+            nodes.add(-1);
+            labels.append(low, depth, shared);
+            i = end;
+        }
+        nodes.set(node + 1, groups.size());
+        for (int[] group : groups) {
+            nodes.set(group[3] + 3, write(nodes, labels, keys, group[0], group[1], group[2]));
+        }
+        return node;
+    }
+
+    private static char lowerCase(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * Index just past the authority of an http(s) URI, or -1 if it is not one or has user info.
+     */
+    private static int authorityEnd(String uri) {
+        int start;
+        if (uri.regionMatches(true, 0, "https://", 0, 8)) {
+            start = 8;
+        } else if (uri.regionMatches(true, 0, "http://", 0, 7)) {
+            start = 7;
+        } else {
+            return -1;
+        }
+        int end = start;
+        while (end < uri.length()) {
+            char c = uri.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == '@' || c == '\\') {
+                return -1;
+            }
+            end++;
+        }
+        return end > start ? end : -1;
+    }
+
+    private static boolean safePath(String uri, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = uri.charAt(i);
+            if (c == '\\') {
+                return false;
+            }
+            if (c == '.' && i > from && uri.charAt(i - 1) == '/') {
+                // "." and ".." segments, in any position
+                int next = i + 1 < to && uri.charAt(i + 1) == '.' ? i + 2 : i + 1;
+                if (next == to || uri.charAt(next) == '/') {
+                    return false;
+                }
+            }
+            if (c == '%' && i + 2 < to) {
+                // Percent-encoded dots, slashes and backslashes could be decoded into the above
+                char high = uri.charAt(i + 1);
+                char low = Character.toLowerCase(uri.charAt(i + 2));
+                if (high == '2' && (low == 'e' || low == 'f') || high == '5' && low == 'c') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
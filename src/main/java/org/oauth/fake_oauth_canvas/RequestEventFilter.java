@@ -0,0 +1,111 @@
+package org.oauth.fake_oauth_canvas;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Production logging mode: one structured JSON event per OAuth request instead of the
+ * per-step INFO banners in AuthController and TokenStore.
+ *
+ * Events go to the "oauth.requests" logger, which logback-spring.xml routes through a bounded
+ * non-blocking async appender, so a slow console never adds latency to a request. Successful
+ * requests are sampled; failures are always logged. Codes and tokens are never included.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "oauth.logging.request-events.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RequestEventFilter extends OncePerRequestFilter {
+
+    private static final Logger events = LoggerFactory.getLogger("oauth.requests");
+
+    private final double sampleRate;
+
+    public RequestEventFilter(@Value("${oauth.logging.request-events.sample-rate:1.0}") double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !(path.startsWith("/login/oauth2/") || path.startsWith("/api/v1/") || path.startsWith("/login/session_token"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // Suspended by fault injection: the response is only decided once the request completes
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        logEvent(request, response, start);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                logEvent(request, response, start);
+            }
+        }
+    }
+
+    private void logEvent(HttpServletRequest request, HttpServletResponse response, long start) {
+        int status = response.getStatus();
+        if (events.isInfoEnabled() && (status >= 400 || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            events.info(toEvent(request, status, (System.nanoTime() - start) / 1_000));
+        }
+    }
+
+    private String toEvent(HttpServletRequest request, int status, long durationMicros) {
+        StringBuilder event = new StringBuilder(192)
+                .append("{\"ts\":\"").append(Instant.now()).append('"')
+                .append(",\"method\":\"").append(request.getMethod()).append('"')
+                .append(",\"path\":").append(JSONObject.quote(request.getRequestURI()))
+                .append(",\"status\":").append(status)
+                .append(",\"duration_us\":").append(durationMicros);
+        appendParameter(event, request, "grant_type");
+        appendParameter(event, request, "client_id");
+        appendParameter(event, request, "role");
+        return event.append('}').toString();
+    }
+
+    private static void appendParameter(StringBuilder event, HttpServletRequest request, String name) {
+        String value = request.getParameter(name);
+        if (value != null) {
+            event.append(",\"").append(name).append("\":").append(JSONObject.quote(value));
+        }
+    }
+}
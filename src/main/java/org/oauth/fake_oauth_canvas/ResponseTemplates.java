@@ -0,0 +1,252 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, pre-serialized bodies for the token, users/self and introspection endpoints.
+ *
+ * Everything static - the JSON punctuation, expires_in, canvas_region and the configured users'
+ * details - is encoded to UTF-8 once. A response is then a single exact-size byte[] with the
+ * per-request tokens spliced in, instead of a JSONObject built, filled and re-serialized per call.
+ * Simulated users are written on demand, and only the fragment the response needs: a token grant
+ * writes the user straight into its body, users/self and introspection render one exact-size array.
+ */
+public final class ResponseTemplates {
+
+    private static final byte[] ACCESS_TOKEN_PREFIX = ascii("{\"access_token\":\"");
+    private static final byte[] USER_PREFIX = ascii("\",\"token_type\":\"Bearer\",\"user\":");
+    private static final byte[] REFRESH_TOKEN_PREFIX = ascii(",\"refresh_token\":\"");
+    private static final byte[] INACTIVE_LINE = ascii("{\"active\":false}\n");
+    private static final byte[] ID_PREFIX = ascii("{\"id\":");
+    private static final byte[] NAME_PREFIX = ascii(",\"name\":\"");
+    private static final byte[] EMAIL_PREFIX = ascii("\",\"email\":\"");
+    private static final byte[] LOGIN_ID_PREFIX = ascii("\",\"login_id\":\"");
+    private static final byte[] ACTIVE_PREFIX = ascii("{\"active\":true,\"token_type\":\"Bearer\",\"sub\":\"");
+    private static final byte[] USERNAME_PREFIX = ascii("\",\"username\":\"");
+    private static final byte[] ROLE_PREFIX = ascii("\",\"role\":\"");
+    private static final byte[] INTROSPECTION_USER_PREFIX = ascii("\",\"user\":");
+
+    private final byte[] codeGrantSuffix;
+    private final byte[] refreshGrantSuffix;
+    private final Map<Principal, UserFragments> configuredUsers;
+
+    public ResponseTemplates(int expiresIn, Iterable<Principal> configuredPrincipals) {
+        this.codeGrantSuffix = ascii("\",\"expires_in\":" + expiresIn + ",\"canvas_region\":\"us-east-1\"}");
+        this.refreshGrantSuffix = ascii(",\"expires_in\":" + expiresIn + "}");
+        Map<Principal, UserFragments> users = new HashMap<>();
+        for (Principal principal : configuredPrincipals) {
+            users.put(principal, new UserFragments(tokenUser(principal), renderUserInfo(principal), renderIntrospectionLine(principal)));
+        }
+        this.configuredUsers = Map.copyOf(users);
+    }
+
+    /**
+     * Body of a successful authorization_code grant.
+     */
+    public byte[] codeGrant(IssuedTokens tokens, Principal principal) {
+        UserFragments configured = configuredUsers.get(principal);
+        int userLength = configured != null ? configured.tokenUser.length : tokenUserLength(principal);
+        byte[] body = new byte[ACCESS_TOKEN_PREFIX.length + contentLength(tokens.accessToken()) + USER_PREFIX.length
+                + userLength + REFRESH_TOKEN_PREFIX.length + contentLength(tokens.refreshToken()) + codeGrantSuffix.length];
+        int offset = put(body, 0, ACCESS_TOKEN_PREFIX);
+        offset = putContent(body, offset, tokens.accessToken());
+        offset = put(body, offset, USER_PREFIX);
+        offset = configured != null ? put(body, offset, configured.tokenUser) : putTokenUser(body, offset, principal);
+        offset = put(body, offset, REFRESH_TOKEN_PREFIX);
+        offset = putContent(body, offset, tokens.refreshToken());
+        put(body, offset, codeGrantSuffix);
+        return body;
+    }
+
+    /**
+     * Body of a successful refresh_token grant.
+     */
+    public byte[] refreshGrant(String accessToken, Principal principal) {
+        return refreshGrant(accessToken, null, principal);
+    }
+
+    /**
+     * Body of a successful refresh_token grant that rotated the refresh token; a null refresh token is left out.
+     */
+    public byte[] refreshGrant(String accessToken, String refreshToken, Principal principal) {
+        UserFragments configured = configuredUsers.get(principal);
+        int userLength = configured != null ? configured.tokenUser.length : tokenUserLength(principal);
+        int refreshLength = refreshToken != null ? REFRESH_TOKEN_PREFIX.length + contentLength(refreshToken) + 1 : 0;
+        byte[] body = new byte[ACCESS_TOKEN_PREFIX.length + contentLength(accessToken) + USER_PREFIX.length + userLength
+                + refreshLength + refreshGrantSuffix.length];
+        int offset = put(body, 0, ACCESS_TOKEN_PREFIX);
+        offset = putContent(body, offset, accessToken);
+        offset = put(body, offset, USER_PREFIX);
+        offset = configured != null ? put(body, offset, configured.tokenUser) : putTokenUser(body, offset, principal);
+        if (refreshToken != null) {
+            offset = put(body, offset, REFRESH_TOKEN_PREFIX);
+            offset = putContent(body, offset, refreshToken);
+            body[offset++] = '"';
+        }
+        put(body, offset, refreshGrantSuffix);
+        return body;
+    }
+
+    /**
+     * Body of /api/v1/users/self. For configured users this is a shared array that must not be modified.
+     */
+    public byte[] userInfo(Principal principal) {
+        UserFragments configured = configuredUsers.get(principal);
+        return configured != null ? configured.userInfo : renderUserInfo(principal);
+    }
+
+    /**
+     * One line of the NDJSON introspection response, newline included: an RFC 7662 response for the
+     * token's principal, or {"active":false} for null. Shared arrays that must not be modified.
+     */
+    public byte[] introspectionLine(Principal principal) {
+        if (principal == null) {
+            return INACTIVE_LINE;
+        }
+        UserFragments configured = configuredUsers.get(principal);
+        return configured != null ? configured.introspectionLine : renderIntrospectionLine(principal);
+    }
+
+    // {"id":101,"name":"..."}
+    private static int tokenUserLength(Principal principal) {
+        return ID_PREFIX.length + decimalLength(principal.id()) + NAME_PREFIX.length + contentLength(principal.name()) + 2;
+    }
+
+    private static int putTokenUser(byte[] body, int offset, Principal principal) {
+        offset = put(body, offset, ID_PREFIX);
+        offset = putDecimal(body, offset, principal.id());
+        offset = put(body, offset, NAME_PREFIX);
+        offset = putContent(body, offset, principal.name());
+        body[offset++] = '"';
+        body[offset++] = '}';
+        return offset;
+    }
+
+    private static byte[] tokenUser(Principal principal) {
+        byte[] user = new byte[tokenUserLength(principal)];
+        putTokenUser(user, 0, principal);
+        return user;
+    }
+
+    // {"id":101,"name":"...","email":"...","login_id":"..."}
+    private static int userInfoLength(Principal principal) {
+        int email = contentLength(principal.email());
+        // The token user without its closing "}, then both email fields and their own "}
+        return tokenUserLength(principal) + EMAIL_PREFIX.length + email + LOGIN_ID_PREFIX.length + email;
+    }
+
+    private static int putUserInfo(byte[] body, int offset, Principal principal) {
+        offset = put(body, offset, ID_PREFIX);
+        offset = putDecimal(body, offset, principal.id());
+        offset = put(body, offset, NAME_PREFIX);
+        offset = putContent(body, offset, principal.name());
+        offset = put(body, offset, EMAIL_PREFIX);
+        offset = putContent(body, offset, principal.email());
+        offset = put(body, offset, LOGIN_ID_PREFIX);
+        offset = putContent(body, offset, principal.email());
+        body[offset++] = '"';
+        body[offset++] = '}';
+        return offset;
+    }
+
+    private static byte[] renderUserInfo(Principal principal) {
+        byte[] body = new byte[userInfoLength(principal)];
+        putUserInfo(body, 0, principal);
+        return body;
+    }
+
+    // {"active":true,"token_type":"Bearer","sub":"101","username":"...","role":"...","user":{...}}\n
+    private static byte[] renderIntrospectionLine(Principal principal) {
+        byte[] line = new byte[ACTIVE_PREFIX.length + decimalLength(principal.id()) + USERNAME_PREFIX.length
+                + contentLength(principal.email()) + ROLE_PREFIX.length + contentLength(principal.role())
+                + INTROSPECTION_USER_PREFIX.length + userInfoLength(principal) + 2];
+        int offset = put(line, 0, ACTIVE_PREFIX);
+        offset = putDecimal(line, offset, principal.id());
+        offset = put(line, offset, USERNAME_PREFIX);
+        offset = putContent(line, offset, principal.email());
+        offset = put(line, offset, ROLE_PREFIX);
+        offset = putContent(line, offset, principal.role());
+        offset = put(line, offset, INTROSPECTION_USER_PREFIX);
+        offset = putUserInfo(line, offset, principal);
+        line[offset++] = '}';
+        line[offset] = '\n';
+        return line;
+    }
+
+    private static int decimalLength(int value) {
+        long magnitude = Math.abs((long) value);
+        int length = value < 0 ? 2 : 1;
+        for (long bound = 10; magnitude >= bound; bound *= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int putDecimal(byte[] body, int offset, int value) {
+        int end = offset + decimalLength(value);
+        long magnitude = Math.abs((long) value);
+        int position = end;
+        do {
+            body[--position] = (byte) ('0' + magnitude % 10);
+            magnitude /= 10;
+        } while (magnitude > 0);
+        if (value < 0) {
+            body[offset] = '-';
+        }
+        return end;
+    }
+
+    private static int put(byte[] body, int offset, byte[] part) {
+        System.arraycopy(part, 0, body, offset, part.length);
+        return offset + part.length;
+    }
+
+    /**
+     * Byte length of a value written between the quotes of a JSON string.
+     * Tokens are plain ASCII and are written straight into the body; anything else goes through the JSON quoter.
+     */
+    private static int contentLength(String value) {
+        return isPlainAscii(value) ? value.length() : escaped(value).length;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int putContent(byte[] body, int offset, String value) {
+        if (isPlainAscii(value)) {
+            value.getBytes(0, value.length(), body, offset);
+            return offset + value.length();
+        }
+        return put(body, offset, escaped(value));
+    }
+
+    private static boolean isPlainAscii(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] escaped(String value) {
+        String quoted = JSONObject.quote(value != null ? value : "");
+        return quoted.substring(1, quoted.length() - 1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        value.getBytes(0, value.length(), bytes, 0);
+        return bytes;
+    }
+
+    private record UserFragments(byte[] tokenUser, byte[] userInfo, byte[] introspectionLine) {
+    }
+}
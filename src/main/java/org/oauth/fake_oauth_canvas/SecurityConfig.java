@@ -1,27 +1,72 @@
 package org.oauth.fake_oauth_canvas;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import java.util.Arrays;
+
+import static org.springframework.security.config.Customizer.withDefaults;
 
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @EnableWebSecurity
 public class SecurityConfig {
 
     private final GenericLogoutHandler genericLogoutHandler;
 
+    // Called by backends with a token, never by a browser session; matched by apiSecurityFilterChain
+    static final String[] API_ENDPOINTS = {"/login/oauth2/token", "/login/oauth2/introspect", "/login/session_token", "/api/v1/**", "/admin/provision"};
+
     public SecurityConfig(GenericLogoutHandler genericLogoutHandler) {
         this.genericLogoutHandler = genericLogoutHandler;
     }
 
+    /**
+     * Minimal chain for the machine-to-machine endpoints, which are permitAll and never use the
+     * login session: no session lookup or creation, no security context load/save, no CSRF, request
+     * cache, anonymous authentication or authorization filter. Only the Cache-Control and
+     * X-Content-Type-Options headers are kept (token responses must not be cached, RFC 6749 5.1).
+     * See README "Security Filter Chains" for the measured difference.
+     */
+    @Bean
+    @Order(1)
+    @ConditionalOnProperty(name = "oauth.security.api-chain.enabled", havingValue = "true", matchIfMissing = true)
+    public SecurityFilterChain apiSecurityFilterChain(HttpSecurity http) throws Exception {
+        http
+                // Plain path patterns: MVC matchers would consult the handler mappings on every request
+                .securityMatcher(new OrRequestMatcher(
+                        Arrays.stream(API_ENDPOINTS).<RequestMatcher>map(AntPathRequestMatcher::antMatcher).toList()))
+                .csrf(csrf -> csrf.disable())
+                .sessionManagement(session -> session.disable())
+                .securityContext(context -> context.disable())
+                .requestCache(cache -> cache.disable())
+                .anonymous(anonymous -> anonymous.disable())
+                .servletApi(servletApi -> servletApi.disable())
+                .exceptionHandling(exceptions -> exceptions.disable())
+                .logout(logout -> logout.disable())
+                .headers(headers -> headers
+                        .defaultsDisabled()
+                        .cacheControl(withDefaults())
+                        .contentTypeOptions(withDefaults())
+                );
+        return http.build();
+    }
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(authorize -> authorize
-                        .requestMatchers("/", "/login", "/login/oauth2/**", "/oauth2/**", "/api/v1/**", "/error").permitAll()
+                        .requestMatchers("/", "/login", "/login/oauth2/**", "/oauth2/**", "/api/v1/**", "/actuator/health", "/actuator/metrics/**", "/actuator/prometheus", "/admin/faults/**", "/admin/provision", "/error").permitAll()
                         .anyRequest().authenticated()
                 )
                 .oauth2Login(oauth2 -> oauth2
@@ -0,0 +1,76 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Self-contained access token: a compact binary claim set followed by its HMAC, both base64url.
+ *
+ * Claims are version (1 byte), user id (4), role code (1), expiry in store seconds (4) and a random
+ * nonce (8) so that two tokens for the same user are never equal. Validation is a signature check
+ * and an expiry comparison; nothing is looked up, so any replica sharing the signing key can
+ * validate any token without coordination. The trade-off is that a signed token cannot be revoked
+ * before it expires.
+ */
+public final class SignedToken {
+
+    private static final byte VERSION = 1;
+    private static final int CLAIMS_LENGTH = 18;
+    private static final int ENCODED_CLAIMS_LENGTH = 24;
+    private static final int ENCODED_SIGNATURE_LENGTH = 22;
+    public static final int LENGTH = ENCODED_CLAIMS_LENGTH + 1 + ENCODED_SIGNATURE_LENGTH;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private SignedToken() {
+    }
+
+    /**
+     * @param principal packed user id and role code, as stored in {@link TokenIndex} values
+     */
+    public static String issue(HmacSigner signer, long principal, int expiresAt) {
+        byte[] claims = ByteBuffer.allocate(CLAIMS_LENGTH)
+                .put(VERSION)
+                .putInt((int) (principal >>> 32))
+                .put((byte) principal)
+                .putInt(expiresAt)
+                .putLong(ThreadLocalRandom.current().nextLong())
+                .array();
+        return ENCODER.encodeToString(claims) + '.' + ENCODER.encodeToString(signer.sign(HmacSigner.Purpose.ACCESS_TOKEN, claims, 0, CLAIMS_LENGTH));
+    }
+
+    public static boolean looksSigned(String token) {
+        return token != null && token.length() == LENGTH && token.charAt(ENCODED_CLAIMS_LENGTH) == '.';
+    }
+
+    /**
+     * @return the packed principal, or {@link TokenIndex#MISSING} if the token is malformed, forged or expired
+     */
+    public static long verify(HmacSigner signer, String token, int now) {
+        if (!looksSigned(token)) {
+            return TokenIndex.MISSING;
+        }
+        byte[] claims;
+        byte[] signature;
+        try {
+            claims = DECODER.decode(token.substring(0, ENCODED_CLAIMS_LENGTH));
+            signature = DECODER.decode(token.substring(ENCODED_CLAIMS_LENGTH + 1));
+        } catch (IllegalArgumentException e) {
+            return TokenIndex.MISSING;
+        }
+        if (claims.length != CLAIMS_LENGTH || claims[0] != VERSION
+                || !signer.verify(HmacSigner.Purpose.ACCESS_TOKEN, claims, 0, CLAIMS_LENGTH, signature)) {
+            return TokenIndex.MISSING;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(claims, 1, CLAIMS_LENGTH - 1);
+        int userId = buffer.getInt();
+        int roleCode = buffer.get() & 0xff;
+        int expiresAt = buffer.getInt();
+        if (expiresAt - now <= 0) {
+            return TokenIndex.MISSING;
+        }
+        return ((long) userId << 32) | roleCode;
+    }
+}
@@ -0,0 +1,308 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A deterministic, seed-based Canvas dataset for the synthetic /api/v1/courses endpoints, so
+ * backends that page through courses, enrollments and assignments can be load-tested.
+ *
+ * Nothing is stored: every item is computed from (seed, course, index) when its page is written, so
+ * a course with a million enrollments costs no more memory than one with ten. The same seed always
+ * yields the same ids, names and dates. Enrolled users are simulated users ({@link Principal#simulated}),
+ * drawn from a shared population so the same user shows up in several courses, and each course's
+ * first enrollment is its teacher.
+ */
+@Component
+public class SyntheticCanvas {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyntheticCanvas.class);
+
+    // Canvas's default page size
+    static final int DEFAULT_PER_PAGE = 10;
+
+    // A page is written in chunks of about this many chars (servlet writes, reactive buffers)
+    static final int CHUNK_CHARS = 8192;
+
+    // Simulated user ids start here, well clear of the configured instructor and student
+    static final int FIRST_USER_ID = 1_000_000;
+
+    static final byte[] NOT_FOUND_BODY = "{\"errors\":[{\"message\":\"The specified resource does not exist.\"}]}".getBytes(StandardCharsets.UTF_8);
+
+    private static final String[][] SUBJECTS = {
+            {"BIO", "Biology"}, {"CHEM", "Chemistry"}, {"CS", "Computer Science"}, {"ECON", "Economics"},
+            {"ENGL", "English"}, {"HIST", "History"}, {"MATH", "Mathematics"}, {"MUS", "Music"},
+            {"PHIL", "Philosophy"}, {"PHYS", "Physics"}, {"PSYC", "Psychology"}, {"STAT", "Statistics"}};
+    private static final String[] LEVELS = {"Introduction to ", "Foundations of ", "Topics in ", "Advanced "};
+    private static final String[] ASSIGNMENT_KINDS = {"Homework", "Quiz", "Lab", "Essay", "Project"};
+    private static final int[] POINTS = {10, 20, 25, 50, 100};
+    private static final Instant FIRST_TERM_START = Instant.parse("2024-08-26T13:00:00Z");
+    // Four terms, one every 26 weeks, each 16 weeks long
+    private static final int TERMS = 4;
+    private static final long TERM_WEEKS = 16;
+    private static final long TERM_SPACING_DAYS = 26 * 7;
+
+    private static final int COURSE = 1;
+    private static final int ENROLLMENT = 2;
+    private static final int ASSIGNMENT = 3;
+
+    private final long seed;
+    private final int courses;
+    private final int enrollmentsPerCourse;
+    private final int assignmentsPerCourse;
+    private final int users;
+    // Step through the user population; coprime with it, so a course never lists a user twice
+    private final long userStride;
+    private final int maxPerPage;
+
+    public SyntheticCanvas(
+            @Value("${oauth.synthetic.seed:42}") long seed,
+            @Value("${oauth.synthetic.courses:50}") int courses,
+            @Value("${oauth.synthetic.enrollments-per-course:30}") int enrollmentsPerCourse,
+            @Value("${oauth.synthetic.assignments-per-course:12}") int assignmentsPerCourse,
+            @Value("${oauth.synthetic.users:10000}") int users,
+            @Value("${oauth.synthetic.max-per-page:100}") int maxPerPage) {
+        if (courses < 0 || enrollmentsPerCourse < 0 || assignmentsPerCourse < 0 || users < 1 || maxPerPage < 1) {
+            throw new IllegalArgumentException("oauth.synthetic.* sizes must not be negative, users and max-per-page at least 1");
+        }
+        this.seed = seed;
+        this.courses = courses;
+        this.enrollmentsPerCourse = enrollmentsPerCourse;
+        this.assignmentsPerCourse = assignmentsPerCourse;
+        // Every enrollment of a course needs a distinct user
+        this.users = Math.max(users, enrollmentsPerCourse);
+        if ((long) FIRST_USER_ID + this.users > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("oauth.synthetic.users must be below " + (Integer.MAX_VALUE - FIRST_USER_ID));
+        }
+        long stride = Math.floorMod(mix(seed), this.users) | 1;
+        while (gcd(stride, this.users) != 1) {
+            stride += 2;
+        }
+        this.userStride = stride;
+        this.maxPerPage = maxPerPage;
+        logger.info("[SyntheticCanvas] Seed {}: {} courses, {} enrollments and {} assignments each, {} users, up to {} per page",
+                seed, courses, enrollmentsPerCourse, assignmentsPerCourse, this.users, maxPerPage);
+    }
+
+    /**
+     * A collection of the dataset: its size and how to write its items.
+     */
+    public record Listing(long size, ItemWriter items) {
+    }
+
+    @FunctionalInterface
+    public interface ItemWriter {
+        void write(StringBuilder out, long index);
+    }
+
+    public Listing courses() {
+        return new Listing(courses, (out, index) -> course(out, (int) index));
+    }
+
+    /**
+     * @return the course's enrollments, or null if there is no such course
+     */
+    public Listing enrollments(long courseId) {
+        int course = courseIndex(courseId);
+        return course < 0 ? null : new Listing(enrollmentsPerCourse, (out, index) -> enrollment(out, course, (int) index));
+    }
+
+    /**
+     * @return the course's assignments, or null if there is no such course
+     */
+    public Listing assignments(long courseId) {
+        int course = courseIndex(courseId);
+        return course < 0 ? null : new Listing(assignmentsPerCourse, (out, index) -> assignment(out, course, (int) index));
+    }
+
+    /**
+     * @return the course as a JSON object, or null if there is no such course
+     */
+    public String course(long courseId) {
+        int course = courseIndex(courseId);
+        if (course < 0) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(256);
+        course(out, course);
+        return out.toString();
+    }
+
+    /**
+     * The page of a listing selected by Canvas's page and per_page parameters. Anything
+     * unparseable falls back to the default, and per_page is capped at max-per-page, as in Canvas.
+     */
+    public Page page(Listing listing, String page, String perPage) {
+        int size = Math.min(parse(perPage, DEFAULT_PER_PAGE), maxPerPage);
+        long number = parse(page, 1);
+        long lastPage = Math.max(1, (listing.size() + size - 1) / size);
+        long from = Math.min((number - 1) * size, listing.size());
+        return new Page(listing, number, size, lastPage, from, Math.min(from + size, listing.size()));
+    }
+
+    /**
+     * Items [from, to) of a listing, written on demand.
+     */
+    public record Page(Listing listing, long number, int perPage, long lastPage, long from, long to) {
+
+        /**
+         * Canvas's Link header: current, next, prev, first and last page URLs, built from the
+         * request URL with page and per_page replaced, so other parameters (access_token, ...) carry over.
+         */
+        public String linkHeader(UriComponentsBuilder request) {
+            StringBuilder header = new StringBuilder(512);
+            link(header, request, number, "current");
+            if (number < lastPage) {
+                link(header, request, number + 1, "next");
+            }
+            if (number > 1) {
+                link(header, request, Math.min(number - 1, lastPage), "prev");
+            }
+            link(header, request, 1, "first");
+            link(header, request, lastPage, "last");
+            return header.toString();
+        }
+
+        private void link(StringBuilder header, UriComponentsBuilder request, long page, String rel) {
+            if (!header.isEmpty()) {
+                header.append(',');
+            }
+            header.append('<')
+                    .append(request.cloneBuilder().replaceQueryParam("page", page).replaceQueryParam("per_page", perPage).toUriString())
+                    .append(">; rel=\"").append(rel).append('"');
+        }
+
+        /**
+         * Appends the JSON array text from item {@code next} on: the opening bracket first, then items
+         * until about {@link #CHUNK_CHARS} chars are written, and the closing bracket after the last one.
+         *
+         * @return where the next chunk starts; {@link #to()} or more once the array is complete
+         */
+        public long writeChunk(StringBuilder out, long next) {
+            if (next == from) {
+                out.append('[');
+            }
+            while (next < to && out.length() < CHUNK_CHARS) {
+                if (next > from) {
+                    out.append(',');
+                }
+                listing.items().write(out, next++);
+            }
+            if (next == to) {
+                out.append(']');
+                next++;
+            }
+            return next;
+        }
+
+        /**
+         * @return whether {@link #writeChunk} has written the closing bracket
+         */
+        public boolean isComplete(long next) {
+            return next > to;
+        }
+    }
+
+    private void course(StringBuilder out, int course) {
+        long hash = hash(COURSE, course, 0);
+        String[] subject = SUBJECTS[Math.floorMod(hash, SUBJECTS.length)];
+        int level = 1 + Math.floorMod(hash >>> 8, 4);
+        int number = level * 100 + Math.floorMod(hash >>> 16, 100);
+        int term = term(course);
+        out.append("{\"id\":").append(course + 1)
+                .append(",\"name\":\"").append(LEVELS[level - 1]).append(subject[1]).append(' ').append(number).append('"')
+                .append(",\"course_code\":\"").append(subject[0]).append(' ').append(number).append('"')
+                .append(",\"workflow_state\":\"available\",\"account_id\":1")
+                .append(",\"enrollment_term_id\":").append(term + 1)
+                .append(",\"start_at\":\"").append(termStart(term)).append('"')
+                .append(",\"end_at\":\"").append(termStart(term).plus(TERM_WEEKS * 7, ChronoUnit.DAYS)).append('"')
+                .append(",\"time_zone\":\"America/New_York\"")
+                .append(",\"total_students\":").append(Math.max(0, enrollmentsPerCourse - 1))
+                .append('}');
+    }
+
+    private void enrollment(StringBuilder out, int course, int index) {
+        int userId = FIRST_USER_ID + Math.floorMod(Math.floorMod(hash(ENROLLMENT, course, 0), users) + index * userStride, users);
+        boolean teacher = index == 0;
+        Principal user = Principal.simulated(userId, teacher ? TokenStore.INSTRUCTOR_ROLE : TokenStore.STUDENT_ROLE);
+        String type = teacher ? "TeacherEnrollment" : "StudentEnrollment";
+        out.append("{\"id\":").append((long) course * enrollmentsPerCourse + index + 1)
+                .append(",\"course_id\":").append(course + 1)
+                .append(",\"user_id\":").append(userId)
+                .append(",\"type\":\"").append(type).append('"')
+                .append(",\"role\":\"").append(type).append('"')
+                .append(",\"enrollment_state\":\"active\"")
+                .append(",\"user\":{\"id\":").append(userId)
+                .append(",\"name\":\"").append(user.name()).append('"')
+                .append(",\"login_id\":\"").append(user.email()).append("\"}")
+                .append('}');
+    }
+
+    private void assignment(StringBuilder out, int course, int index) {
+        long hash = hash(ASSIGNMENT, course, index);
+        String kind = ASSIGNMENT_KINDS[Math.floorMod(hash, ASSIGNMENT_KINDS.length)];
+        // Spread over the term, due Fridays at 23:59 course time
+        long week = assignmentsPerCourse <= 1 ? TERM_WEEKS / 2 : 1 + index * (TERM_WEEKS - 2) / (assignmentsPerCourse - 1);
+        Instant due = termStart(term(course)).plus(week * 7 + 4, ChronoUnit.DAYS).plus(14 * 60 - 1, ChronoUnit.MINUTES);
+        out.append("{\"id\":").append((long) course * assignmentsPerCourse + index + 1)
+                .append(",\"course_id\":").append(course + 1)
+                .append(",\"name\":\"").append(kind).append(' ').append(index + 1).append('"')
+                .append(",\"position\":").append(index + 1)
+                .append(",\"points_possible\":").append(POINTS[Math.floorMod(hash >>> 8, POINTS.length)])
+                .append(",\"grading_type\":\"points\"")
+                .append(",\"due_at\":\"").append(due).append('"')
+                .append(",\"submission_types\":[\"online_upload\"],\"published\":true")
+                .append('}');
+    }
+
+    private int courseIndex(long courseId) {
+        return courseId >= 1 && courseId <= courses ? (int) (courseId - 1) : -1;
+    }
+
+    private int term(int course) {
+        return Math.floorMod(hash(COURSE, course, 2), TERMS);
+    }
+
+    private static Instant termStart(int term) {
+        return FIRST_TERM_START.plus(term * TERM_SPACING_DAYS, ChronoUnit.DAYS);
+    }
+
+    private long hash(int kind, long a, long b) {
+        return mix(mix(mix(seed + kind) + a) + b);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static int parse(String value, int fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed >= 1 ? parsed : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
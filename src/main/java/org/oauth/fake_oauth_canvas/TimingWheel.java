@@ -0,0 +1,121 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel used to expire short-lived entries (authorization codes, redeemed-code
+ * markers, ...) without ever scanning the map that holds them.
+ *
+ * An entry is appended to the bucket of the tick it expires in. A single reaper thread calls
+ * {@link #advance(long)}, which drains only the buckets whose ticks have elapsed, so each entry
+ * is touched once when it is scheduled and once when it expires - O(1) amortized regardless of
+ * how many entries are live.
+ *
+ * Each bucket has its own lock. The reaper drains a bucket and moves past its tick under that
+ * lock, and a scheduler checks the tick under it before appending, so an entry can never land in
+ * a bucket that has just been swept and wait a whole revolution. Schedulers only contend when
+ * they pick the same bucket at the same moment.
+ */
+public class TimingWheel<T> {
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final ArrayDeque<Slot<T>>[] buckets;
+    private final int mask;
+    private final Consumer<T> onExpire;
+
+    // Only written by the reaper thread, under the lock of the bucket it just drained
+    private volatile long currentTick;
+    // Reaper-only scratch lists, so a sweep does not allocate
+    private final List<T> due = new ArrayList<>();
+    private final List<Slot<T>> notYetDue = new ArrayList<>();
+
+    public TimingWheel(long tickNanos, long horizonNanos, Consumer<T> onExpire) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive");
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = System.nanoTime();
+        this.onExpire = onExpire;
+
+        // Size the wheel so that an entry scheduled within the horizon expires in its first revolution
+        long ticksNeeded = Math.max(2, horizonNanos / tickNanos + 2);
+        int size = Integer.highestOneBit((int) Math.min(ticksNeeded, 1 << 20) - 1) << 1;
+        // Java has no generic array creation; every element is filled with an ArrayDeque<Slot<T>> below
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Slot<T>>[] buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.buckets = buckets;
+        this.mask = size - 1;
+    }
+
+    /**
+     * Schedules {@code item} to be handed to the expiry callback once {@code deadlineNanos}
+     * (a {@link System#nanoTime()} value) has passed.
+     */
+    public void schedule(T item, long deadlineNanos) {
+        long deadlineTick = ticksSinceStart(deadlineNanos) + 1;
+        while (true) {
+            long tick = Math.max(deadlineTick, currentTick);
+            ArrayDeque<Slot<T>> bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                // The reaper may have swept this tick since it was read; then pick the next one
+                if (tick >= currentTick) {
+                    bucket.add(new Slot<>(item, tick));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Expires everything due up to {@code nowNanos}. Must only be called from one thread.
+     *
+     * @return the number of entries handed to the expiry callback
+     */
+    public int advance(long nowNanos) {
+        long target = ticksSinceStart(nowNanos);
+        int expired = 0;
+        while (currentTick <= target) {
+            long tick = currentTick;
+            ArrayDeque<Slot<T>> bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                Slot<T> slot;
+                while ((slot = bucket.poll()) != null) {
+                    if (slot.tick <= tick) {
+                        due.add(slot.item);
+                    } else {
+                        // Belongs to a later revolution of the wheel
+                        notYetDue.add(slot);
+                    }
+                }
+                bucket.addAll(notYetDue);
+                currentTick = tick + 1;
+            }
+            notYetDue.clear();
+            // Outside the lock, so a slow callback never holds up schedulers
+            for (T item : due) {
+                onExpire.accept(item);
+            }
+            expired += due.size();
+            due.clear();
+        }
+        return expired;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    private long ticksSinceStart(long nanos) {
+        return Math.max(0, (nanos - startNanos) / tickNanos);
+    }
+
+    private record Slot<T>(T item, long tick) {
+    }
+}
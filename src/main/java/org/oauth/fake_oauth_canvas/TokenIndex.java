@@ -0,0 +1,382 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact concurrent index from 128-bit token keys to a packed 64-bit value.
+ *
+ * Minted tokens are 128 random bits, so the token itself is the key and no String is kept per
+ * token. Each slot costs 16 bytes of key, 8 bytes of value and 4 bytes of expiry in flat primitive
+ * arrays. Segments double at a 0.75 load factor, so a live token costs 37-75 bytes depending on
+ * where the segments are in their growth cycle. Measured with 1M and 3M minted tokens: 58.5 and 39.1
+ * bytes per token, against roughly 175 for a ConcurrentHashMap of token String to principal String.
+ *
+ * The table is split into independently locked segments. Lookups take an optimistic
+ * {@link StampedLock} read and only fall back to a read lock if a writer raced with them, so the
+ * validation hot path never writes to shared memory. Deletion uses backward shifting, so no
+ * tombstones accumulate as tokens churn.
+ *
+ * A key of (0, 0) marks an empty slot and must not be inserted.
+ */
+public class TokenIndex {
+
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public TokenIndex() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Inserts or replaces the value for a key.
+     *
+     * @param expiresAt expiry in the caller's second-resolution clock; entries are treated as absent from then on
+     */
+    public void put(long hi, long lo, long value, int expiresAt) {
+        segmentFor(lo).put(hi, lo, value, expiresAt);
+    }
+
+    /**
+     * Inserts or replaces the first {@code count} keys of {@code his}/{@code los}, all expiring at
+     * {@code expiresAt}. The entries are grouped by segment first, so each segment is locked once and
+     * grown at most once for the whole batch instead of once per entry.
+     */
+    public void putAll(long[] his, long[] los, long[] values, int count, int expiresAt) {
+        putAll(his, los, values, null, count, expiresAt);
+    }
+
+    /**
+     * Like {@link #putAll(long[], long[], long[], int, int)}, with an expiry per entry (a journal replay).
+     */
+    public void putAll(long[] his, long[] los, long[] values, int[] expiries, int count) {
+        putAll(his, los, values, expiries, count, 0);
+    }
+
+    private void putAll(long[] his, long[] los, long[] values, int[] expiries, int count, int expiresAt) {
+        // Counting sort of the entries by segment: starts[s] .. starts[s + 1] in order
+        int[] starts = new int[SEGMENTS + 1];
+        for (int i = 0; i < count; i++) {
+            starts[segmentIndex(los[i]) + 1]++;
+        }
+        for (int s = 0; s < SEGMENTS; s++) {
+            starts[s + 1] += starts[s];
+        }
+        int[] next = starts.clone();
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[next[segmentIndex(los[i])]++] = i;
+        }
+        for (int s = 0; s < SEGMENTS; s++) {
+            if (starts[s + 1] > starts[s]) {
+                segments[s].putAll(his, los, values, expiries, order, starts[s], starts[s + 1], expiresAt);
+            }
+        }
+    }
+
+    /**
+     * @return the value for the key, or {@link #MISSING} if it is absent or expired at {@code now}
+     */
+    public long get(long hi, long lo, int now) {
+        return segmentFor(lo).get(hi, lo, now);
+    }
+
+    /**
+     * Atomically removes a key. When several threads remove the same key, exactly one of them gets the value.
+     *
+     * @return the removed value, or {@link #MISSING} if the key was absent or expired at {@code now}
+     */
+    public long remove(long hi, long lo, int now) {
+        return segmentFor(lo).remove(hi, lo, now);
+    }
+
+    /**
+     * Drops expired entries from one segment. Called round-robin by the store's reaper so that the
+     * whole index is swept incrementally without ever locking more than one segment.
+     *
+     * @return the number of entries removed
+     */
+    public int sweep(int segment, int now) {
+        return segments[segment & (SEGMENTS - 1)].sweep(now);
+    }
+
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(long hi, long lo, long value, int expiresAt);
+    }
+
+    /**
+     * Passes every entry of one segment that is live at {@code now} to {@code visitor}. The segment's
+     * read lock is held throughout, so writers to that segment (and only that one) wait for it.
+     */
+    public void forEach(int segment, int now, EntryVisitor visitor) {
+        segments[segment & (SEGMENTS - 1)].forEach(now, visitor);
+    }
+
+    /**
+     * Grows every segment up front to hold {@code entries} keys in total, for bulk loads of a known
+     * size (a journal replay), so they do not resize over and over while loading.
+     */
+    public void ensureCapacity(long entries) {
+        // Keys are random, so segments fill evenly; the headroom covers those that get more than their share
+        long perSegment = entries / SEGMENTS;
+        for (Segment segment : segments) {
+            segment.ensureCapacity(perSegment + perSegment / 16);
+        }
+    }
+
+    public int segmentCount() {
+        return SEGMENTS;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    private Segment segmentFor(long lo) {
+        return segments[segmentIndex(lo)];
+    }
+
+    private static int segmentIndex(long lo) {
+        return (int) (lo >>> (64 - SEGMENT_BITS));
+    }
+
+    private static int slotFor(long hi, int mask) {
+        // Token keys are random, so the low bits of hi are already uniformly distributed
+        return (int) hi & mask;
+    }
+
+    private static final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+
+        // keys[2 * slot] = hi, keys[2 * slot + 1] = lo
+        private long[] keys = new long[2 * INITIAL_SEGMENT_CAPACITY];
+        private long[] values = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] expiries = new int[INITIAL_SEGMENT_CAPACITY];
+        private volatile int size;
+
+        long get(long hi, long lo, int now) {
+            long stamp = lock.tryOptimisticRead();
+            long result = find(hi, lo, now);
+            if (lock.validate(stamp)) {
+                return result;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(hi, lo, now);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private long find(long hi, long lo, int now) {
+            long[] keys = this.keys;
+            long[] values = this.values;
+            int[] expiries = this.expiries;
+            int capacity = values.length;
+            if (keys.length != 2 * capacity || expiries.length != capacity) {
+                // Torn read of a resize in progress; the caller's validation will fail
+                return MISSING;
+            }
+            int mask = capacity - 1;
+            int slot = slotFor(hi, mask);
+            // Bounded so a torn optimistic read can never spin forever
+            for (int probes = 0; probes < capacity; probes++) {
+                long keyHi = keys[2 * slot];
+                long keyLo = keys[2 * slot + 1];
+                if (keyHi == 0 && keyLo == 0) {
+                    return MISSING;
+                }
+                if (keyHi == hi && keyLo == lo) {
+                    return expiries[slot] - now > 0 ? values[slot] : MISSING;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return MISSING;
+        }
+
+        void put(long hi, long lo, long value, int expiresAt) {
+            long stamp = lock.writeLock();
+            try {
+                if ((size + 1) * 4L > values.length * 3L) {
+                    resize();
+                }
+                insert(hi, lo, value, expiresAt);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void ensureCapacity(long entries) {
+            long stamp = lock.writeLock();
+            try {
+                while (entries * 4 > values.length * 3L && values.length < 1 << 29) {
+                    resize();
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void putAll(long[] his, long[] los, long[] values, int[] expiries, int[] order, int from, int to, int expiresAt) {
+            long stamp = lock.writeLock();
+            try {
+                while ((size + to - from) * 4L > this.values.length * 3L) {
+                    resize();
+                }
+                for (int i = from; i < to; i++) {
+                    int entry = order[i];
+                    insert(his[entry], los[entry], values[entry], expiries != null ? expiries[entry] : expiresAt);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Caller holds the write lock and has made room
+        private void insert(long hi, long lo, long value, int expiresAt) {
+            int mask = values.length - 1;
+            int slot = slotFor(hi, mask);
+            while (true) {
+                long keyHi = keys[2 * slot];
+                long keyLo = keys[2 * slot + 1];
+                if (keyHi == 0 && keyLo == 0) {
+                    keys[2 * slot] = hi;
+                    keys[2 * slot + 1] = lo;
+                    values[slot] = value;
+                    expiries[slot] = expiresAt;
+                    size++;
+                    return;
+                }
+                if (keyHi == hi && keyLo == lo) {
+                    values[slot] = value;
+                    expiries[slot] = expiresAt;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        long remove(long hi, long lo, int now) {
+            long stamp = lock.writeLock();
+            try {
+                int mask = values.length - 1;
+                int slot = slotFor(hi, mask);
+                while (true) {
+                    long keyHi = keys[2 * slot];
+                    long keyLo = keys[2 * slot + 1];
+                    if (keyHi == 0 && keyLo == 0) {
+                        return MISSING;
+                    }
+                    if (keyHi == hi && keyLo == lo) {
+                        long value = expiries[slot] - now > 0 ? values[slot] : MISSING;
+                        deleteSlot(slot);
+                        return value;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void forEach(int now, EntryVisitor visitor) {
+            long stamp = lock.readLock();
+            try {
+                for (int slot = 0; slot < values.length; slot++) {
+                    long hi = keys[2 * slot];
+                    long lo = keys[2 * slot + 1];
+                    if ((hi != 0 || lo != 0) && expiries[slot] - now > 0) {
+                        visitor.visit(hi, lo, values[slot], expiries[slot]);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int sweep(int now) {
+            long stamp = lock.writeLock();
+            try {
+                int removed = 0;
+                int slot = 0;
+                while (slot < values.length) {
+                    boolean occupied = keys[2 * slot] != 0 || keys[2 * slot + 1] != 0;
+                    if (occupied && expiries[slot] - now <= 0) {
+                        // Backward shifting may move a later entry into this slot, so look at it again
+                        deleteSlot(slot);
+                        removed++;
+                    } else {
+                        slot++;
+                    }
+                }
+                return removed;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Caller holds the write lock
+        private void deleteSlot(int slot) {
+            int mask = values.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[2 * next] != 0 || keys[2 * next + 1] != 0) {
+                int home = slotFor(keys[2 * next], mask);
+                // Move the entry back if the hole lies between its home slot and where it sits now
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[2 * hole] = keys[2 * next];
+                    keys[2 * hole + 1] = keys[2 * next + 1];
+                    values[hole] = values[next];
+                    expiries[hole] = expiries[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[2 * hole] = 0;
+            keys[2 * hole + 1] = 0;
+            size--;
+        }
+
+        // Caller holds the write lock
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            int[] oldExpiries = expiries;
+            int capacity = oldValues.length * 2;
+            long[] newKeys = new long[2 * capacity];
+            long[] newValues = new long[capacity];
+            int[] newExpiries = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                long hi = oldKeys[2 * i];
+                long lo = oldKeys[2 * i + 1];
+                if (hi == 0 && lo == 0) {
+                    continue;
+                }
+                int slot = slotFor(hi, mask);
+                while (newKeys[2 * slot] != 0 || newKeys[2 * slot + 1] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newKeys[2 * slot] = hi;
+                newKeys[2 * slot + 1] = lo;
+                newValues[slot] = oldValues[i];
+                newExpiries[slot] = oldExpiries[i];
+            }
+            keys = newKeys;
+            values = newValues;
+            expiries = newExpiries;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * Which {@link TokenIndex} a persisted token belongs to.
+ */
+public enum TokenKind {
+    ACCESS("A"),
+    REFRESH("R");
+
+    private final String code;
+
+    TokenKind(String code) {
+        this.code = code;
+    }
+
+    /**
+     * Single-character column value used by the persistence backends.
+     */
+    public String code() {
+        return code;
+    }
+}
@@ -0,0 +1,20 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * How access and refresh tokens are issued (oauth.tokens.mode).
+ */
+public enum TokenMode {
+    /**
+     * Every login of a role gets the same configured token pair (OAUTH_*_ACCESS_TOKEN).
+     */
+    STATIC,
+    /**
+     * Every redeemed code mints a distinct random token pair, held in a compact {@link TokenIndex}.
+     */
+    OPAQUE,
+    /**
+     * Access tokens are HMAC-signed {@link SignedToken}s validated without any store lookup;
+     * refresh tokens are opaque and indexed as in {@link #OPAQUE}.
+     */
+    SIGNED
+}
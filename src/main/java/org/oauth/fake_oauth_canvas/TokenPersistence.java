@@ -0,0 +1,147 @@
+package org.oauth.fake_oauth_canvas;
+
+import java.util.function.Consumer;
+
+/**
+ * Durable backing for {@link TokenStore}.
+ *
+ * TokenStore's in-memory maps and indexes stay the primary, read-through cache: backends are told
+ * about every change and are only asked for entries the local cache does not have (codes issued
+ * by another instance or before a restart). Implementations are free to buffer writes, except
+ * {@link #claimCode(String)}, which must be atomic across every instance sharing the backend.
+ * A backend that only this instance uses may instead replay everything into the store at startup
+ * ({@link #attach}) and never be read from afterwards.
+ *
+ * The default implementation keeps nothing, which is the plain in-memory store.
+ */
+public interface TokenPersistence {
+
+    TokenPersistence NONE = new TokenPersistence() {
+    };
+
+    /**
+     * @param clientId client the code is bound to, or null; redirectUri is null with it
+     * @param expiresAt expiry in TokenStore seconds
+     */
+    default void codeIssued(String code, Principal principal, String clientId, String redirectUri, int expiresAt) {
+    }
+
+    /**
+     * Marks a code as redeemed, exactly once across all instances.
+     *
+     * @return false if some instance already redeemed it
+     */
+    default boolean claimCode(String code) {
+        return true;
+    }
+
+    default PersistedCode findCode(String code) {
+        return null;
+    }
+
+    /**
+     * @param principal packed user id and role code, as stored in {@link TokenIndex} values
+     * @param expiresAt expiry in TokenStore seconds
+     */
+    default void tokenMinted(TokenKind kind, long hi, long lo, long principal, int expiresAt) {
+    }
+
+    /**
+     * Backends that other instances read through must have applied the revocation before returning.
+     */
+    default void tokenRevoked(TokenKind kind, long hi, long lo) {
+    }
+
+    /**
+     * Removes a token so that it can be used only once, exactly once across all instances.
+     *
+     * @return false if some instance already removed it
+     */
+    default boolean claimToken(TokenKind kind, long hi, long lo) {
+        return true;
+    }
+
+    /**
+     * @return the token, or null if it is unknown, revoked or expired at {@code now}
+     */
+    default PersistedToken findToken(TokenKind kind, long hi, long lo, int now) {
+        return null;
+    }
+
+    /**
+     * Looks up the first {@code count} keys of {@code his}/{@code los} at once.
+     *
+     * @return one entry per key, in order; null where the token is unknown, revoked or expired at {@code now}
+     */
+    default PersistedToken[] findTokens(TokenKind kind, long[] his, long[] los, int count, int now) {
+        PersistedToken[] found = new PersistedToken[count];
+        for (int i = 0; i < count; i++) {
+            found[i] = findToken(kind, his[i], los[i], now);
+        }
+        return found;
+    }
+
+    /**
+     * TokenStore's in-memory state, handed to the backend once at startup ({@link #attach}).
+     */
+    interface StoreState {
+
+        /**
+         * Adds a code that was issued before the restart, redeemed or not.
+         */
+        void restoreCode(PersistedCode code);
+
+        /**
+         * Marks a restored code as redeemed.
+         *
+         * @return false if the store does not hold the code (not restored yet, or expired)
+         */
+        boolean restoreRedemption(String code);
+
+        /**
+         * Visits the codes that have not expired yet, redeemed or not.
+         */
+        void forEachCode(Consumer<PersistedCode> visitor);
+
+        TokenIndex index(TokenKind kind);
+    }
+
+    /**
+     * Called by TokenStore at the end of its construction. Backends that are replayed into memory
+     * rather than read through restore their entries into {@code state} here, and may read it
+     * later to write snapshots.
+     */
+    default void attach(StoreState state) {
+    }
+
+    /**
+     * Called after each group of changes (an issued code, the tokens of one redemption). Backends
+     * that buffer writes but promise visibility to other instances wait here until they are written.
+     *
+     * @throws IllegalStateException if some of the changes could not be written
+     */
+    default void awaitWrites() {
+    }
+
+    /**
+     * Number of changes accepted but not yet durable.
+     */
+    default long pendingWrites() {
+        return 0;
+    }
+
+    /**
+     * Number of changes the backend gave up on writing.
+     */
+    default long failedWrites() {
+        return 0;
+    }
+
+    /**
+     * Whether calls may wait on I/O (a query, or {@link #awaitWrites()} for a commit). Reactive
+     * handlers move store calls off the event loop when this is true.
+     */
+    default boolean isBlocking() {
+        return false;
+    }
+}
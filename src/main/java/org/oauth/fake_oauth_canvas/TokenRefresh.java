@@ -0,0 +1,25 @@
+package org.oauth.fake_oauth_canvas;
+
+/**
+ * Outcome of {@link TokenStore#refresh(String)}.
+ * Principal and tokens are only set when the status is {@link Status#REFRESHED}; the refresh
+ * token is only set when it was rotated.
+ */
+public record TokenRefresh(Status status, Principal principal, String accessToken, String refreshToken) {
+
+    public enum Status {
+        REFRESHED,
+        /** Unknown, expired or already rotated refresh token */
+        INVALID,
+        /** Another request rotated the same refresh token concurrently and won */
+        CONFLICT
+    }
+
+    static TokenRefresh rejected(Status status) {
+        return new TokenRefresh(status, null, null, null);
+    }
+
+    public boolean isRefreshed() {
+        return status == Status.REFRESHED;
+    }
+}
@@ -1,16 +1,26 @@
 package org.oauth.fake_oauth_canvas;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
 import org.json.JSONObject;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 @Service
 public class TokenStore {
@@ -19,22 +29,100 @@ public class TokenStore {
 
     public static final String INSTRUCTOR_ROLE = "instructor";
     public static final String STUDENT_ROLE = "student";
+    // Role of the service accounts that client_credentials tokens are issued to
+    public static final String CLIENT_ROLE = "client";
 
-    private final Map<String, String> codes = new ConcurrentHashMap<>();
+    // Marks client_credentials tokens so lookups go straight to their cache
+    static final String CLIENT_TOKEN_PREFIX = "cc~";
+
+    // Role codes packed into TokenIndex values; position in this array is the code
+    private static final String[] ROLE_CODES = {null, INSTRUCTOR_ROLE, STUDENT_ROLE};
+
+    // Redemption restored from a journal, which does not record the tokens it handed out
+    private static final IssuedTokens RESTORED_REDEMPTION = new IssuedTokens(null, null);
+
+    // Token expiries are stored as int seconds since 2024-01-01T00:00:00Z
+    private static final long CLOCK_BASE_EPOCH_SECOND = 1_704_067_200L;
+
+    // absentTokens values
+    private static final long REVOKED = 1;
+    private static final long NOT_FOUND = 2;
+
+    private final Map<String, AuthorizationCode> codes = new ConcurrentHashMap<>();
     private final Map<String, JSONObject> userDetails = new ConcurrentHashMap<>();
     private final Map<String, String> accessTokens = new ConcurrentHashMap<>();
     private final Map<String, String> refreshTokens = new ConcurrentHashMap<>();
+    private final Map<String, Principal> principals = new ConcurrentHashMap<>();
+    private final Map<String, Principal> staticAccessTokens = new ConcurrentHashMap<>();
+    private final Map<String, Principal> staticRefreshTokens = new ConcurrentHashMap<>();
+
+    private final TokenMode tokenMode;
+    private final HmacSigner signer;
+    private final TokenPersistence persistence;
+    private final ResponseTemplates responseTemplates;
+    private final int accessTokenTtlSeconds;
+    private final int refreshTokenTtlSeconds;
+    private final boolean rotateRefreshTokens;
+    private final TokenIndex accessTokenIndex = new TokenIndex();
+    private final TokenIndex refreshTokenIndex = new TokenIndex();
+    // Keys the durable backend must not be asked about: revoked here (until the token's TTL could
+    // have run out) or recently not found there (negative cache)
+    private final TokenIndex absentTokens = new TokenIndex();
+    private final int negativeCacheSeconds;
+    private final int readThroughCacheSeconds;
+    private final LongAdder mintedTokens = new LongAdder();
+    private final LongAdder expiredTokens = new LongAdder();
+    private final LongAdder introspectedTokens = new LongAdder();
+    private final LongAdder refreshedTokens = new LongAdder();
+    private final LongAdder rejectedRefreshes = new LongAdder();
+    private final LongAdder refreshConflicts = new LongAdder();
+    private int sweepCursor;
+
+    private final int codeTtlSeconds;
+    private final long codeTtlNanos;
+    private final TimingWheel<AuthorizationCode> codeExpiry;
+    private final ScheduledExecutorService reaper;
+    private final LongAdder expiredCodes = new LongAdder();
+    private final LongAdder redeemedCodes = new LongAdder();
+    private final LongAdder replayedCodes = new LongAdder();
+    // Redeemed codes are retained until their TTL so replays can be told apart from unknown codes
+    private final LongAdder retainedRedeemedCodes = new LongAdder();
+
+    private final boolean revokeOnReplay;
+    private final LongAdder revokedRedemptions = new LongAdder();
+
+    // client_credentials tokens: size-bounded, so a flood of machine clients evicts the least
+    // valuable entries (W-TinyLFU weighs frequency and recency) instead of growing the heap
+    private final Cache<String, Principal> clientTokens;
 
     public TokenStore(
             Environment env,
+            HmacSigner signer,
+            // Durable backend, if one is configured (oauth.store.persistence)
+            ObjectProvider<TokenPersistence> persistence,
+            // Authorization code lifetime
+            @Value("${oauth.code.ttl-seconds:600}") int codeTtlSeconds,
+            @Value("${oauth.code.expiry-tick-millis:1000}") long expiryTickMillis,
+            @Value("${oauth.code.revoke-on-replay:false}") boolean revokeOnReplay,
+            // Token issuing
+            @Value("${oauth.tokens.mode:static}") TokenMode tokenMode,
+            @Value("${oauth.tokens.access-ttl-seconds:3600}") int accessTokenTtlSeconds,
+            @Value("${oauth.tokens.refresh-ttl-seconds:2592000}") int refreshTokenTtlSeconds,
+            @Value("${oauth.tokens.rotate-refresh-tokens:false}") boolean rotateRefreshTokens,
+            @Value("${oauth.client-tokens.max-size:100000}") long maxClientTokens,
+            // Read-through caching of tokens held by the durable backend
+            @Value("${oauth.store.negative-cache-seconds:2}") int negativeCacheSeconds,
+            @Value("${oauth.store.read-through-cache-seconds:30}") int readThroughCacheSeconds,
             // Instructor configuration
             @Value("${oauth.instructor.refresh-token:refresh-token-instructor-67890}") String instructorRefreshToken,
             @Value("${oauth.instructor.id:101}") int instructorId,
             @Value("${oauth.instructor.name:Kashyap Kale}") String instructorName,
+            @Value("${oauth.instructor.email:kashyapk@vt.edu}") String instructorEmail,
             // Student configuration
             @Value("${oauth.student.refresh-token:refresh-token-student-fghij}") String studentRefreshToken,
             @Value("${oauth.student.id:202}") int studentId,
-            @Value("${oauth.student.name:Sarthak Raut}") String studentName) {
+            @Value("${oauth.student.name:Sarthak Raut}") String studentName,
+            @Value("${oauth.student.email:sarthakr@vt.edu}") String studentEmail) {
 
         logger.info("======================================");
         logger.info("[TokenStore] Initializing TokenStore...");
@@ -73,6 +161,9 @@ public class TokenStore {
         userDetails.put(INSTRUCTOR_ROLE, instructor);
         accessTokens.put(INSTRUCTOR_ROLE, instructorAccessToken);
         refreshTokens.put(INSTRUCTOR_ROLE, instructorRefreshToken.isEmpty() ? "refresh-token-instructor-67890" : instructorRefreshToken);
+        principals.put(INSTRUCTOR_ROLE, new Principal(instructorId, INSTRUCTOR_ROLE, instructorName, instructorEmail));
+        staticAccessTokens.put(instructorAccessToken, principals.get(INSTRUCTOR_ROLE));
+        staticRefreshTokens.put(refreshTokens.get(INSTRUCTOR_ROLE), principals.get(INSTRUCTOR_ROLE));
 
         logger.info("[TokenStore] Instructor configured - id: {}, name: {}", instructorId, instructorName);
 
@@ -83,39 +174,261 @@ public class TokenStore {
         userDetails.put(STUDENT_ROLE, student);
         accessTokens.put(STUDENT_ROLE, studentAccessToken);
         refreshTokens.put(STUDENT_ROLE, studentRefreshToken.isEmpty() ? "refresh-token-student-fghij" : studentRefreshToken);
+        principals.put(STUDENT_ROLE, new Principal(studentId, STUDENT_ROLE, studentName, studentEmail));
+        staticAccessTokens.put(studentAccessToken, principals.get(STUDENT_ROLE));
+        staticRefreshTokens.put(refreshTokens.get(STUDENT_ROLE), principals.get(STUDENT_ROLE));
 
         logger.info("[TokenStore] Student configured - id: {}, name: {}", studentId, studentName);
+
+        // Codes are evicted by a timing wheel so the map never has to be scanned
+        this.codeTtlSeconds = codeTtlSeconds;
+        this.codeTtlNanos = TimeUnit.SECONDS.toNanos(codeTtlSeconds);
+        this.revokeOnReplay = revokeOnReplay;
+        this.tokenMode = tokenMode;
+        this.signer = signer;
+        this.persistence = persistence.getIfAvailable(() -> TokenPersistence.NONE);
+        this.accessTokenTtlSeconds = accessTokenTtlSeconds;
+        this.refreshTokenTtlSeconds = refreshTokenTtlSeconds;
+        this.rotateRefreshTokens = rotateRefreshTokens;
+        this.negativeCacheSeconds = negativeCacheSeconds;
+        this.readThroughCacheSeconds = readThroughCacheSeconds;
+        this.responseTemplates = new ResponseTemplates(accessTokenTtlSeconds, principals.values());
+        this.clientTokens = Caffeine.newBuilder()
+            .maximumSize(maxClientTokens)
+            .expireAfterWrite(Duration.ofSeconds(accessTokenTtlSeconds))
+            .recordStats()
+            .build();
+        this.codeExpiry = new TimingWheel<>(TimeUnit.MILLISECONDS.toNanos(expiryTickMillis), codeTtlNanos, this::evictCode);
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-store-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleAtFixedRate(this::reap, expiryTickMillis, expiryTickMillis, TimeUnit.MILLISECONDS);
+        this.persistence.attach(new State());
+
+        logger.info("[TokenStore] Authorization codes expire after {}s (reaper tick {}ms), revoke on replay: {}",
+            codeTtlSeconds, expiryTickMillis, revokeOnReplay);
+        logger.info("[TokenStore] Token mode: {} (access ttl {}s, refresh ttl {}s, rotate refresh tokens: {})",
+            tokenMode, accessTokenTtlSeconds, refreshTokenTtlSeconds, rotateRefreshTokens);
+        logger.info("[TokenStore] client_credentials tokens: at most {} held, expire after {}s",
+            maxClientTokens, accessTokenTtlSeconds);
+        logger.info("[TokenStore] Persistence: {}",
+            this.persistence == TokenPersistence.NONE ? "in-memory only" : this.persistence.getClass().getSimpleName());
         logger.info("[TokenStore] TokenStore initialization complete!");
         logger.info("======================================");
     }
 
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+    }
+
+    private void reap() {
+        codeExpiry.advance(System.nanoTime());
+        // Sweep one index segment per tick so expired tokens are reclaimed without a stop-the-world pass
+        int now = nowSeconds();
+        int segment = sweepCursor++;
+        expiredTokens.add(accessTokenIndex.sweep(segment, now) + refreshTokenIndex.sweep(segment, now));
+        absentTokens.sweep(segment, now);
+    }
+
     public String generateCode(String role) {
+        return generateCode(role, null);
+    }
+
+    /**
+     * Issues a code for a user of the given role.
+     *
+     * @param userId simulated user to log in as; null (or static token mode) uses the configured user for the role
+     * @return the code, or null if the role is unknown
+     */
+    public String generateCode(String role, Integer userId) {
+        return generateCode(role, userId, null, null);
+    }
+
+    /**
+     * Issues a code that only the given client may redeem, and only with the same redirect_uri.
+     *
+     * @param clientId client the code is bound to, or null if any client may redeem it
+     */
+    public String generateCode(String role, Integer userId, String clientId, String redirectUri) {
+        Principal principal = resolvePrincipal(role, userId);
+        if (principal == null) {
+            logger.error("[TokenStore] generateCode() - unknown role: {}", role);
+            return null;
+        }
         String code = UUID.randomUUID().toString();
-        codes.put(code, role);
+        AuthorizationCode entry = new AuthorizationCode(code, principal, clientId, redirectUri, System.nanoTime() + codeTtlNanos);
+        codes.put(code, entry);
+        codeExpiry.schedule(entry, entry.expiresAtNanos());
+        persistence.codeIssued(code, principal, clientId, redirectUri, nowSeconds() + codeTtlSeconds);
+        persistence.awaitWrites();
 
         logger.info("======================================");
         logger.info("[TokenStore] generateCode() called");
         logger.info("[TokenStore] Generated code: {}", code);
-        logger.info("[TokenStore] Mapped to role: {}", role);
+        logger.info("[TokenStore] Mapped to role: {}, user id: {}", role, principal.id());
         logger.info("[TokenStore] Total codes in store: {}", codes.size());
-        logger.info("[TokenStore] All codes: {}", codes.keySet());
         logger.info("[TokenStore] Instance hash: {}", System.identityHashCode(this));
         logger.info("======================================");
 
         return code;
     }
 
+    /**
+     * Issues codes for many users at once, for pre-provisioning load tests (POST /admin/provision):
+     * one clock read, one wait for the backend and one log line per batch instead of per code.
+     *
+     * @param roles   role of each user; the first {@code count} entries are used
+     * @param userIds user of each code, as for {@link #generateCode(String, Integer)}
+     * @return the codes, in order; null where the role is unknown
+     */
+    public String[] provisionCodes(String[] roles, int[] userIds, int count) {
+        String[] issued = new String[count];
+        long expiresAtNanos = System.nanoTime() + codeTtlNanos;
+        int expiresAt = nowSeconds() + codeTtlSeconds;
+        long[] key = new long[2];
+        for (int i = 0; i < count; i++) {
+            Principal principal = resolvePrincipal(roles[i], userIds[i]);
+            if (principal == null) {
+                continue;
+            }
+            // Per-thread generator: UUID.randomUUID() makes parallel callers queue on one SecureRandom
+            OpaqueToken.mint(key);
+            String code = OpaqueToken.format(key[0], key[1]);
+            // Not bound to a client: load tests redeem them without going through /login/oauth2/auth
+            AuthorizationCode entry = new AuthorizationCode(code, principal, null, null, expiresAtNanos);
+            codes.put(code, entry);
+            codeExpiry.schedule(entry, expiresAtNanos);
+            persistence.codeIssued(code, principal, null, null, expiresAt);
+            issued[i] = code;
+        }
+        persistence.awaitWrites();
+        logger.debug("[TokenStore] provisionCodes() - issued {} codes", count);
+        return issued;
+    }
+
+    /**
+     * Redeems an authorization code exactly once.
+     *
+     * The first caller wins a compare-and-set on the code entry and receives the tokens for its role.
+     * Any later caller, concurrent or not, gets {@link CodeRedemption.Status#REPLAYED}; when
+     * oauth.code.revoke-on-replay is set the tokens handed out for the original redemption are
+     * revoked as well (RFC 6749 section 4.1.2), once, by the first replay. The static tokens are
+     * shared by every user of a role and are never revoked, so in static mode a replay is only
+     * rejected.
+     *
+     * With a durable backend, codes this instance does not hold are loaded from it, and the
+     * redemption is only granted once the backend has claimed the code for this instance too.
+     */
+    public CodeRedemption redeemCode(String code) {
+        return redeemCode(code, null, null);
+    }
+
+    /**
+     * Like {@link #redeemCode(String)}, but a code bound to a client (see
+     * {@link #generateCode(String, Integer, String, String)}) is rejected with
+     * {@link CodeRedemption.Status#WRONG_CLIENT}, and left redeemable, unless this is that client
+     * and redirect_uri.
+     *
+     * @param clientId the authenticated client
+     */
+    public CodeRedemption redeemCode(String code, String clientId, String redirectUri) {
+        if (code == null) {
+            return CodeRedemption.rejected(CodeRedemption.Status.UNKNOWN);
+        }
+
+        AuthorizationCode entry = codes.get(code);
+        if (entry == null) {
+            PersistedCode persisted = persistence.findCode(code);
+            if (persisted != null && persisted.redeemed()) {
+                replayedCodes.increment();
+                logger.error("[TokenStore] redeemCode() - REPLAY of a code redeemed by another instance");
+                return CodeRedemption.rejected(CodeRedemption.Status.REPLAYED);
+            }
+            entry = persisted != null ? cacheCode(persisted) : null;
+        }
+        if (entry == null) {
+            logger.error("[TokenStore] redeemCode() - code not found (never issued, expired or lost on restart)");
+            return CodeRedemption.rejected(CodeRedemption.Status.UNKNOWN);
+        }
+
+        if (!entry.isBoundTo(clientId, redirectUri)) {
+            logger.error("[TokenStore] redeemCode() - code issued to client {} redeemed by client {}",
+                entry.clientId(), clientId);
+            return CodeRedemption.rejected(CodeRedemption.Status.WRONG_CLIENT);
+        }
+
+        if (entry.isRedeemed()) {
+            return replayed(entry);
+        }
+
+        if (entry.isExpired(System.nanoTime())) {
+            evictCode(entry);
+            logger.error("[TokenStore] redeemCode() - code expired before it was redeemed");
+            return CodeRedemption.rejected(CodeRedemption.Status.EXPIRED);
+        }
+
+        // Tokens are indexed before the code is claimed so a replay can always revoke them
+        int now = nowSeconds();
+        IssuedTokens tokens = issueTokens(entry.principal(), now);
+        if (!entry.markRedeemed(tokens)) {
+            // Lost the race against a concurrent redemption of the same code
+            removeTokens(tokens, false);
+            return replayed(entry);
+        }
+        retainedRedeemedCodes.increment();
+        if (!persistence.claimCode(code)) {
+            // Another instance sharing the backend redeemed it first
+            removeTokens(tokens, false);
+            replayedCodes.increment();
+            logger.error("[TokenStore] redeemCode() - REPLAY of a code redeemed by another instance");
+            return CodeRedemption.rejected(CodeRedemption.Status.REPLAYED);
+        }
+        redeemedCodes.increment();
+        persistTokens(tokens, entry.principal(), now);
+
+        logger.info("[TokenStore] redeemCode() - code redeemed for role: {}", entry.role());
+        return new CodeRedemption(CodeRedemption.Status.REDEEMED, entry.principal(), tokens);
+    }
+
+    private CodeRedemption replayed(AuthorizationCode entry) {
+        replayedCodes.increment();
+        logger.error("[TokenStore] redeemCode() - REPLAY of an already redeemed code for role: {}", entry.role());
+        if (revokeOnReplay && tokenMode != TokenMode.STATIC && entry.redeemedWith() != RESTORED_REDEMPTION
+                && entry.markRevoked()) {
+            removeTokens(entry.redeemedWith(), true);
+            revokedRedemptions.increment();
+            logger.warn("[TokenStore] Revoked the tokens issued for the replayed code");
+        }
+        return CodeRedemption.rejected(CodeRedemption.Status.REPLAYED);
+    }
+
+    /**
+     * Looks up the role for a code without redeeming it.
+     * Redeemed and expired codes are reported as not found.
+     */
     public String getRoleForCode(String code) {
         logger.info("======================================");
         logger.info("[TokenStore] getRoleForCode() called");
         logger.info("[TokenStore] Looking for code: {}", code);
         logger.info("[TokenStore] Instance hash: {}", System.identityHashCode(this));
         logger.info("[TokenStore] Total codes in store: {}", codes.size());
-        logger.info("[TokenStore] All codes in store: {}", codes.keySet());
 
-        String role = codes.get(code);
+        AuthorizationCode entry = codes.get(code);
+        String role = entry != null ? entry.role() : null;
 
-        if (role != null) {
+        if (entry != null && entry.isRedeemed()) {
+            logger.error("[TokenStore] ALREADY REDEEMED! Code can only be used once");
+            role = null;
+        } else if (entry != null && entry.isExpired(System.nanoTime())) {
+            // The reaper has not caught up with this one yet
+            evictCode(entry);
+            logger.error("[TokenStore] EXPIRED! Code was issued more than {}s ago",
+                TimeUnit.NANOSECONDS.toSeconds(codeTtlNanos));
+            role = null;
+        } else if (role != null) {
             logger.info("[TokenStore] FOUND! Code maps to role: {}", role);
         } else {
             logger.error("[TokenStore] NOT FOUND! Code does not exist in store");
@@ -123,14 +436,487 @@ public class TokenStore {
             logger.error("[TokenStore]   1. The code was never generated (different instance?)");
             logger.error("[TokenStore]   2. The server restarted and lost in-memory codes");
             logger.error("[TokenStore]   3. The code is malformed or truncated");
+            logger.error("[TokenStore]   4. The code expired and was evicted");
         }
         logger.info("======================================");
 
         return role;
     }
 
-    public Set<String> getAllCodes() {
-        return codes.keySet();
+    /**
+     * Number of issued codes that are still waiting to be redeemed or expire.
+     */
+    public long getLiveCodeCount() {
+        return codes.size() - retainedRedeemedCodes.sum();
+    }
+
+    public long getRedeemedCodeCount() {
+        return redeemedCodes.sum();
+    }
+
+    public long getReplayedCodeCount() {
+        return replayedCodes.sum();
+    }
+
+    /**
+     * Redemptions whose tokens were revoked because their code was replayed (oauth.code.revoke-on-replay).
+     */
+    public long getRevokedRedemptionCount() {
+        return revokedRedemptions.sum();
+    }
+
+    /**
+     * Total number of codes evicted because their TTL elapsed.
+     */
+    public long getExpiredCodeCount() {
+        return expiredCodes.sum();
+    }
+
+    /**
+     * Adds a code loaded from the backend to the local cache, unless it has already expired.
+     */
+    private AuthorizationCode cacheCode(PersistedCode persisted) {
+        Principal principal = resolvePrincipal(persisted.role(), persisted.userId());
+        if (principal == null) {
+            return null;
+        }
+        long remainingNanos = TimeUnit.SECONDS.toNanos(persisted.expiresAt() - nowSeconds());
+        AuthorizationCode entry = new AuthorizationCode(persisted.code(), principal, persisted.clientId(),
+            persisted.redirectUri(), System.nanoTime() + remainingNanos);
+        if (remainingNanos <= 0) {
+            return entry;
+        }
+        AuthorizationCode existing = codes.putIfAbsent(entry.code(), entry);
+        if (existing != null) {
+            return existing;
+        }
+        codeExpiry.schedule(entry, entry.expiresAtNanos());
+        return entry;
+    }
+
+    private void evictCode(AuthorizationCode entry) {
+        // Only count it if the code is still the one we scheduled
+        if (codes.remove(entry.code(), entry)) {
+            if (entry.isRedeemed()) {
+                retainedRedeemedCodes.decrement();
+            } else {
+                expiredCodes.increment();
+            }
+        }
+    }
+
+    /**
+     * The maps and indexes that a replayed backend restores into and snapshots.
+     */
+    private final class State implements TokenPersistence.StoreState {
+
+        @Override
+        public void restoreCode(PersistedCode persisted) {
+            cacheCode(persisted);
+            if (persisted.redeemed()) {
+                restoreRedemption(persisted.code());
+            }
+        }
+
+        @Override
+        public boolean restoreRedemption(String code) {
+            AuthorizationCode entry = codes.get(code);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.markRedeemed(RESTORED_REDEMPTION)) {
+                retainedRedeemedCodes.increment();
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachCode(Consumer<PersistedCode> visitor) {
+            long nowNanos = System.nanoTime();
+            int now = nowSeconds();
+            for (AuthorizationCode entry : codes.values()) {
+                long remainingNanos = entry.expiresAtNanos() - nowNanos;
+                if (remainingNanos > 0) {
+                    int expiresAt = now + (int) TimeUnit.NANOSECONDS.toSeconds(remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1);
+                    visitor.accept(new PersistedCode(entry.code(), entry.principal().id(), entry.role(),
+                        entry.clientId(), entry.redirectUri(), expiresAt, entry.isRedeemed()));
+                }
+            }
+        }
+
+        @Override
+        public TokenIndex index(TokenKind kind) {
+            return kind == TokenKind.ACCESS ? accessTokenIndex : refreshTokenIndex;
+        }
+    }
+
+    private IssuedTokens issueTokens(Principal principal, int now) {
+        if (tokenMode == TokenMode.STATIC) {
+            return new IssuedTokens(accessTokens.get(principal.role()), refreshTokens.get(principal.role()));
+        }
+        long value = packPrincipal(principal);
+        long[] key = new long[2];
+        String accessToken = mintAccessToken(value, now, key);
+        String refreshToken = mintRefreshToken(value, now, key);
+        mintedTokens.increment();
+        return new IssuedTokens(accessToken, refreshToken);
+    }
+
+    private String mintAccessToken(long value, int now, long[] key) {
+        if (tokenMode == TokenMode.SIGNED) {
+            return SignedToken.issue(signer, value, now + accessTokenTtlSeconds);
+        }
+        OpaqueToken.mint(key);
+        accessTokenIndex.put(key[0], key[1], value, now + accessTokenTtlSeconds);
+        return OpaqueToken.format(key[0], key[1]);
+    }
+
+    private String mintRefreshToken(long value, int now, long[] key) {
+        OpaqueToken.mint(key);
+        refreshTokenIndex.put(key[0], key[1], value, now + refreshTokenTtlSeconds);
+        return OpaqueToken.format(key[0], key[1]);
+    }
+
+    /**
+     * Hands minted tokens to the backend once their code has been claimed.
+     */
+    private void persistTokens(IssuedTokens tokens, Principal principal, int now) {
+        if (tokenMode == TokenMode.STATIC) {
+            return;
+        }
+        long value = packPrincipal(principal);
+        persistMinted(TokenKind.ACCESS, tokens.accessToken(), value, now + accessTokenTtlSeconds);
+        persistMinted(TokenKind.REFRESH, tokens.refreshToken(), value, now + refreshTokenTtlSeconds);
+        persistence.awaitWrites();
+    }
+
+    private void persistMinted(TokenKind kind, String token, long value, int expiresAt) {
+        // Signed access tokens carry their own claims and are not stored anywhere
+        if (OpaqueToken.isWellFormed(token)) {
+            persistence.tokenMinted(kind, OpaqueToken.hi(token), OpaqueToken.lo(token), value, expiresAt);
+        }
+    }
+
+    /**
+     * Mints token pairs for many users at once, as if each had redeemed a code
+     * (POST /admin/provision). The keys go into each index with a single {@link TokenIndex#putAll},
+     * which locks every segment once per batch, and the backend is waited on once.
+     *
+     * @param roles   role of each user; the first {@code count} entries are used
+     * @param userIds user of each token pair
+     * @return the token pairs, in order; null where the role is unknown
+     * @throws IllegalStateException in static token mode, where every user of a role shares one pair
+     */
+    public IssuedTokens[] provisionTokens(String[] roles, int[] userIds, int count) {
+        if (tokenMode == TokenMode.STATIC) {
+            throw new IllegalStateException("Per-user tokens need oauth.tokens.mode=opaque or signed");
+        }
+        IssuedTokens[] issued = new IssuedTokens[count];
+        int now = nowSeconds();
+        boolean opaqueAccess = tokenMode == TokenMode.OPAQUE;
+        long[] values = new long[count];
+        long[] accessHis = opaqueAccess ? new long[count] : null;
+        long[] accessLos = opaqueAccess ? new long[count] : null;
+        long[] refreshHis = new long[count];
+        long[] refreshLos = new long[count];
+        long[] key = new long[2];
+        int minted = 0;
+        for (int i = 0; i < count; i++) {
+            Principal principal = resolvePrincipal(roles[i], userIds[i]);
+            if (principal == null) {
+                continue;
+            }
+            long value = packPrincipal(principal);
+            String accessToken;
+            if (opaqueAccess) {
+                OpaqueToken.mint(key);
+                accessHis[minted] = key[0];
+                accessLos[minted] = key[1];
+                accessToken = OpaqueToken.format(key[0], key[1]);
+            } else {
+                accessToken = SignedToken.issue(signer, value, now + accessTokenTtlSeconds);
+            }
+            OpaqueToken.mint(key);
+            refreshHis[minted] = key[0];
+            refreshLos[minted] = key[1];
+            values[minted++] = value;
+            issued[i] = new IssuedTokens(accessToken, OpaqueToken.format(key[0], key[1]));
+        }
+        if (opaqueAccess) {
+            accessTokenIndex.putAll(accessHis, accessLos, values, minted, now + accessTokenTtlSeconds);
+        }
+        refreshTokenIndex.putAll(refreshHis, refreshLos, values, minted, now + refreshTokenTtlSeconds);
+        for (int m = 0; m < minted; m++) {
+            if (opaqueAccess) {
+                persistence.tokenMinted(TokenKind.ACCESS, accessHis[m], accessLos[m], values[m], now + accessTokenTtlSeconds);
+            }
+            persistence.tokenMinted(TokenKind.REFRESH, refreshHis[m], refreshLos[m], values[m], now + refreshTokenTtlSeconds);
+        }
+        persistence.awaitWrites();
+        mintedTokens.add(minted);
+        logger.debug("[TokenStore] provisionTokens() - minted {} token pairs", minted);
+        return issued;
+    }
+
+    /**
+     * Exchanges a refresh token for a new access token for the user it was issued to.
+     *
+     * With oauth.tokens.rotate-refresh-tokens a new refresh token is issued too and the presented
+     * one is removed atomically, so of several concurrent refreshes of the same token exactly one
+     * succeeds and the rest get {@link TokenRefresh.Status#CONFLICT}. The configured static refresh
+     * tokens are shared by every user of a role and are never rotated.
+     */
+    public TokenRefresh refresh(String refreshToken) {
+        if (refreshToken == null) {
+            return rejectRefresh(TokenRefresh.Status.INVALID);
+        }
+
+        Principal principal = staticRefreshTokens.get(refreshToken);
+        if (principal != null) {
+            refreshedTokens.increment();
+            return new TokenRefresh(TokenRefresh.Status.REFRESHED, principal, accessTokens.get(principal.role()), null);
+        }
+        if (tokenMode == TokenMode.STATIC || !OpaqueToken.isWellFormed(refreshToken)) {
+            return rejectRefresh(TokenRefresh.Status.INVALID);
+        }
+
+        long value = findMinted(refreshTokenIndex, TokenKind.REFRESH, refreshToken);
+        principal = value != TokenIndex.MISSING ? unpackPrincipal(value) : null;
+        if (principal == null) {
+            return rejectRefresh(TokenRefresh.Status.INVALID);
+        }
+
+        int now = nowSeconds();
+        long[] key = new long[2];
+        String rotated = null;
+        if (rotateRefreshTokens) {
+            long hi = OpaqueToken.hi(refreshToken);
+            long lo = OpaqueToken.lo(refreshToken);
+            // Only the caller that actually removes the old token may replace it
+            if (refreshTokenIndex.remove(hi, lo, now) == TokenIndex.MISSING
+                    || !persistence.claimToken(TokenKind.REFRESH, hi, lo)) {
+                logger.warn("[TokenStore] refresh() - refresh token was rotated by a concurrent request");
+                return rejectRefresh(TokenRefresh.Status.CONFLICT);
+            }
+            rotated = mintRefreshToken(value, now, key);
+            persistMinted(TokenKind.REFRESH, rotated, value, now + refreshTokenTtlSeconds);
+        }
+        String accessToken = mintAccessToken(value, now, key);
+        persistMinted(TokenKind.ACCESS, accessToken, value, now + accessTokenTtlSeconds);
+        persistence.awaitWrites();
+
+        refreshedTokens.increment();
+        logger.info("[TokenStore] refresh() - issued a new access token for {} {}", principal.role(), principal.id());
+        return new TokenRefresh(TokenRefresh.Status.REFRESHED, principal, accessToken, rotated);
+    }
+
+    private TokenRefresh rejectRefresh(TokenRefresh.Status status) {
+        (status == TokenRefresh.Status.CONFLICT ? refreshConflicts : rejectedRefreshes).increment();
+        return TokenRefresh.rejected(status);
+    }
+
+    /**
+     * Revokes tokens, or discards them if they were minted for a redemption that lost its claim
+     * and so were never handed out or persisted.
+     */
+    private void removeTokens(IssuedTokens tokens, boolean handedOut) {
+        if (tokenMode == TokenMode.STATIC) {
+            // The static tokens are shared by every user of the role; revoking them would lock all of them out
+            return;
+        }
+        int now = nowSeconds();
+        String accessToken = tokens.accessToken();
+        if (OpaqueToken.isWellFormed(accessToken)) {
+            revoke(accessTokenIndex, TokenKind.ACCESS, accessToken, now + accessTokenTtlSeconds, handedOut);
+        }
+        // Signed access tokens stay valid until they expire; only their refresh token can be revoked
+        revoke(refreshTokenIndex, TokenKind.REFRESH, tokens.refreshToken(), now + refreshTokenTtlSeconds, handedOut);
+    }
+
+    /**
+     * @param notAfter a time by which the token has expired anyway
+     */
+    private void revoke(TokenIndex index, TokenKind kind, String token, int notAfter, boolean handedOut) {
+        long hi = OpaqueToken.hi(token);
+        long lo = OpaqueToken.lo(token);
+        if (handedOut) {
+            // Before the index, so a concurrent read-through that still finds the row cannot put it back
+            absentTokens.put(hi, lo, REVOKED, notAfter);
+        }
+        index.remove(hi, lo, nowSeconds());
+        if (handedOut) {
+            persistence.tokenRevoked(kind, hi, lo);
+        }
+    }
+
+    /**
+     * Issues an access token for the client_credentials grant, valid for the access token TTL
+     * (the response's expires_in) or until it is evicted to keep the cache within
+     * oauth.client-tokens.max-size. Client tokens are held in this process only, in every token mode.
+     */
+    public String issueClientToken(String clientId) {
+        long[] key = new long[2];
+        OpaqueToken.mint(key);
+        String token = CLIENT_TOKEN_PREFIX + OpaqueToken.format(key[0], key[1]);
+        clientTokens.put(token, Principal.client(clientId != null ? clientId : "anonymous"));
+        return token;
+    }
+
+    /**
+     * Configured user for the role, or a simulated user when a different id is requested in opaque mode.
+     */
+    private Principal resolvePrincipal(String role, Integer userId) {
+        Principal configured = role != null ? principals.get(role) : null;
+        if (configured == null || userId == null || tokenMode == TokenMode.STATIC || userId == configured.id()) {
+            return configured;
+        }
+        return Principal.simulated(userId, role);
+    }
+
+    private static long packPrincipal(Principal principal) {
+        int roleCode = INSTRUCTOR_ROLE.equals(principal.role()) ? 1 : 2;
+        return ((long) principal.id() << 32) | roleCode;
+    }
+
+    private Principal unpackPrincipal(long value) {
+        int roleCode = (int) value & 0xff;
+        if (roleCode <= 0 || roleCode >= ROLE_CODES.length) {
+            return null;
+        }
+        return resolvePrincipal(ROLE_CODES[roleCode], (int) (value >>> 32));
+    }
+
+    private long findMinted(TokenIndex index, TokenKind kind, String token) {
+        long hi = OpaqueToken.hi(token);
+        long lo = OpaqueToken.lo(token);
+        int now = nowSeconds();
+        long value = index.get(hi, lo, now);
+        if (value != TokenIndex.MISSING || absentTokens.get(hi, lo, now) != TokenIndex.MISSING) {
+            return value;
+        }
+        PersistedToken persisted = persistence.findToken(kind, hi, lo, now);
+        return persisted != null ? cacheFound(index, hi, lo, persisted, now) : cacheNotFound(hi, lo, now);
+    }
+
+    /**
+     * Caches a token read from the backend. Only for oauth.store.read-through-cache-seconds, so a
+     * revocation by another instance sharing the backend is seen within that time.
+     *
+     * @return its value, or {@link TokenIndex#MISSING} if it was revoked here meanwhile
+     */
+    private long cacheFound(TokenIndex index, long hi, long lo, PersistedToken persisted, int now) {
+        index.put(hi, lo, persisted.principal(), Math.min(persisted.expiresAt(), now + readThroughCacheSeconds));
+        // The row may have been read before a concurrent revoke() deleted it
+        if (absentTokens.get(hi, lo, now) == REVOKED) {
+            index.remove(hi, lo, now);
+            return TokenIndex.MISSING;
+        }
+        return persisted.principal();
+    }
+
+    private long cacheNotFound(long hi, long lo, int now) {
+        if (negativeCacheSeconds > 0 && persistence != TokenPersistence.NONE) {
+            absentTokens.put(hi, lo, NOT_FOUND, now + negativeCacheSeconds);
+        }
+        return TokenIndex.MISSING;
+    }
+
+    static int nowSeconds() {
+        return (int) (System.currentTimeMillis() / 1000 - CLOCK_BASE_EPOCH_SECOND);
+    }
+
+    public TokenMode getTokenMode() {
+        return tokenMode;
+    }
+
+    public int getAccessTokenTtlSeconds() {
+        return accessTokenTtlSeconds;
+    }
+
+    /**
+     * Number of minted (opaque mode) access tokens that have not expired or been revoked and swept.
+     */
+    public long getLiveAccessTokenCount() {
+        return accessTokenIndex.size();
+    }
+
+    /**
+     * Number of minted (opaque mode) refresh tokens that have not expired or been revoked and swept.
+     */
+    public long getLiveRefreshTokenCount() {
+        return refreshTokenIndex.size();
+    }
+
+    public long getMintedTokenCount() {
+        return mintedTokens.sum();
+    }
+
+    /**
+     * Total number of minted access and refresh tokens swept from the indexes after they expired.
+     */
+    public long getExpiredTokenCount() {
+        return expiredTokens.sum();
+    }
+
+    public long getIntrospectedTokenCount() {
+        return introspectedTokens.sum();
+    }
+
+    public long getRefreshedTokenCount() {
+        return refreshedTokens.sum();
+    }
+
+    /**
+     * Refresh attempts with an unknown, expired or already rotated refresh token.
+     */
+    public long getRejectedRefreshCount() {
+        return rejectedRefreshes.sum();
+    }
+
+    /**
+     * Refreshes that lost a race with a concurrent rotation of the same refresh token.
+     */
+    public long getRefreshConflictCount() {
+        return refreshConflicts.sum();
+    }
+
+    /**
+     * The client_credentials token cache, for its hit, miss and eviction statistics.
+     */
+    public Cache<String, Principal> getClientTokenCache() {
+        return clientTokens;
+    }
+
+    /**
+     * Changes accepted by the durable backend but not yet written; always 0 when running in memory.
+     */
+    public long getPendingWriteCount() {
+        return persistence.pendingWrites();
+    }
+
+    /**
+     * Changes the durable backend dropped after failing to write them; always 0 when running in memory.
+     */
+    public long getFailedWriteCount() {
+        return persistence.failedWrites();
+    }
+
+    /**
+     * Whether store calls may block on the durable backend; never the case when running in memory.
+     */
+    public boolean isBlocking() {
+        return persistence.isBlocking();
+    }
+
+    /**
+     * Pre-serialized response bodies for the configured users and this store's token lifetime.
+     */
+    public ResponseTemplates getResponseTemplates() {
+        return responseTemplates;
+    }
+
+    public Principal getPrincipal(String role) {
+        return principals.get(role);
     }
 
     public JSONObject getUserDetails(String role) {
@@ -155,26 +941,113 @@ public class TokenStore {
      * Used for token validation
      */
     public String getRoleForAccessToken(String accessToken) {
-        logger.info("[TokenStore] getRoleForAccessToken() called");
+        Principal principal = getPrincipalForAccessToken(accessToken);
+        return principal != null ? principal.role() : null;
+    }
+
+    /**
+     * Resolves an access token to the user it was issued to.
+     * Configured static tokens are a single map lookup; minted tokens are parsed straight into
+     * their {@link TokenIndex} key. Opaque tokens missing from the index are looked up in the
+     * durable backend, if any, and cached on a hit.
+     */
+    public Principal getPrincipalForAccessToken(String accessToken) {
+        logger.info("[TokenStore] getPrincipalForAccessToken() called");
 
         if (accessToken == null) {
             logger.warn("[TokenStore] Access token is null");
             return null;
         }
 
-        // Check instructor token
-        if (accessToken.equals(accessTokens.get(INSTRUCTOR_ROLE))) {
-            logger.info("[TokenStore] Token matches INSTRUCTOR");
-            return INSTRUCTOR_ROLE;
+        Principal principal = staticAccessTokens.get(accessToken);
+        if (principal != null) {
+            logger.info("[TokenStore] Token matches configured {}", principal.role());
+            return principal;
+        }
+
+        if (accessToken.startsWith(CLIENT_TOKEN_PREFIX)) {
+            principal = clientTokens.getIfPresent(accessToken);
+            logger.info("[TokenStore] Token {} a live client_credentials token", principal != null ? "is" : "is not");
+            return principal;
         }
 
-        // Check student token
-        if (accessToken.equals(accessTokens.get(STUDENT_ROLE))) {
-            logger.info("[TokenStore] Token matches STUDENT");
-            return STUDENT_ROLE;
+        long value = TokenIndex.MISSING;
+        if (tokenMode == TokenMode.SIGNED && SignedToken.looksSigned(accessToken)) {
+            // Signature and expiry check only - no shared state is touched
+            value = SignedToken.verify(signer, accessToken, nowSeconds());
+        } else if (tokenMode == TokenMode.OPAQUE && OpaqueToken.isWellFormed(accessToken)) {
+            value = findMinted(accessTokenIndex, TokenKind.ACCESS, accessToken);
+        }
+        if (value != TokenIndex.MISSING) {
+            principal = unpackPrincipal(value);
+            if (principal != null) {
+                logger.info("[TokenStore] Token matches minted token for {} {}", principal.role(), principal.id());
+                return principal;
+            }
         }
 
         logger.warn("[TokenStore] Token does not match any known access token");
         return null;
     }
+
+    /**
+     * Resolves a batch of access tokens in one pass: one clock read, and a single backend lookup
+     * for every opaque token missing from the index instead of one query per token.
+     *
+     * @return the principal of each token, in order; null where the token is unknown, expired or revoked
+     */
+    public Principal[] introspect(List<String> accessTokens) {
+        int count = accessTokens.size();
+        Principal[] principals = new Principal[count];
+        int now = nowSeconds();
+        int[] misses = null;
+        long[] missHis = null;
+        long[] missLos = null;
+        int missCount = 0;
+        for (int i = 0; i < count; i++) {
+            String accessToken = accessTokens.get(i);
+            if (accessToken == null) {
+                continue;
+            }
+            Principal principal = staticAccessTokens.get(accessToken);
+            if (principal != null) {
+                principals[i] = principal;
+            } else if (accessToken.startsWith(CLIENT_TOKEN_PREFIX)) {
+                principals[i] = clientTokens.getIfPresent(accessToken);
+            } else if (tokenMode == TokenMode.SIGNED && SignedToken.looksSigned(accessToken)) {
+                long value = SignedToken.verify(signer, accessToken, now);
+                principals[i] = value != TokenIndex.MISSING ? unpackPrincipal(value) : null;
+            } else if (tokenMode == TokenMode.OPAQUE && OpaqueToken.isWellFormed(accessToken)) {
+                long hi = OpaqueToken.hi(accessToken);
+                long lo = OpaqueToken.lo(accessToken);
+                long value = accessTokenIndex.get(hi, lo, now);
+                if (value != TokenIndex.MISSING) {
+                    principals[i] = unpackPrincipal(value);
+                } else if (absentTokens.get(hi, lo, now) == TokenIndex.MISSING) {
+                    if (misses == null) {
+                        misses = new int[count];
+                        missHis = new long[count];
+                        missLos = new long[count];
+                    }
+                    misses[missCount] = i;
+                    missHis[missCount] = hi;
+                    missLos[missCount++] = lo;
+                }
+            }
+        }
+        if (missCount > 0) {
+            PersistedToken[] found = persistence.findTokens(TokenKind.ACCESS, missHis, missLos, missCount, now);
+            for (int m = 0; m < missCount; m++) {
+                long value = found[m] != null
+                        ? cacheFound(accessTokenIndex, missHis[m], missLos[m], found[m], now)
+                        : cacheNotFound(missHis[m], missLos[m], now);
+                if (value != TokenIndex.MISSING) {
+                    principals[misses[m]] = unpackPrincipal(value);
+                }
+            }
+        }
+        introspectedTokens.add(count);
+        logger.info("[TokenStore] introspect() - resolved {} tokens, {} looked up in the backend", count, missCount);
+        return principals;
+    }
 }
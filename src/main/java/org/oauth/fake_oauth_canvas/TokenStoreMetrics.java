@@ -0,0 +1,73 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes TokenStore sizes so store growth is visible on /actuator/metrics and
+ * /actuator/prometheus during soak tests.
+ */
+@Component
+public class TokenStoreMetrics implements MeterBinder {
+
+    private final TokenStore tokenStore;
+
+    public TokenStoreMetrics(TokenStore tokenStore) {
+        this.tokenStore = tokenStore;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("oauth.codes.live", tokenStore, TokenStore::getLiveCodeCount)
+                .description("Authorization codes issued and not yet redeemed or expired")
+                .register(registry);
+        FunctionCounter.builder("oauth.codes.expired", tokenStore, TokenStore::getExpiredCodeCount)
+                .description("Authorization codes evicted because their TTL elapsed")
+                .register(registry);
+        FunctionCounter.builder("oauth.codes.redeemed", tokenStore, TokenStore::getRedeemedCodeCount)
+                .description("Authorization codes successfully exchanged for tokens")
+                .register(registry);
+        FunctionCounter.builder("oauth.codes.replayed", tokenStore, TokenStore::getReplayedCodeCount)
+                .description("Redemption attempts for codes that were already redeemed")
+                .register(registry);
+        FunctionCounter.builder("oauth.codes.revoked", tokenStore, TokenStore::getRevokedRedemptionCount)
+                .description("Redemptions whose tokens were revoked because their code was replayed")
+                .register(registry);
+        Gauge.builder("oauth.tokens.live", tokenStore, TokenStore::getLiveAccessTokenCount)
+                .description("Minted access tokens held in the store (opaque mode) and not yet swept")
+                .register(registry);
+        Gauge.builder("oauth.tokens.refresh.live", tokenStore, TokenStore::getLiveRefreshTokenCount)
+                .description("Minted refresh tokens held in the store (opaque mode) and not yet swept")
+                .register(registry);
+        FunctionCounter.builder("oauth.tokens.minted", tokenStore, TokenStore::getMintedTokenCount)
+                .description("Token pairs minted by code redemptions and refreshes (opaque and signed modes)")
+                .register(registry);
+        FunctionCounter.builder("oauth.tokens.expired", tokenStore, TokenStore::getExpiredTokenCount)
+                .description("Minted access and refresh tokens evicted because their TTL elapsed")
+                .register(registry);
+        FunctionCounter.builder("oauth.tokens.introspected", tokenStore, TokenStore::getIntrospectedTokenCount)
+                .description("Access tokens resolved through the batch introspection endpoint")
+                .register(registry);
+        FunctionCounter.builder("oauth.tokens.refreshed", tokenStore, TokenStore::getRefreshedTokenCount)
+                .description("Successful refresh_token grants")
+                .register(registry);
+        FunctionCounter.builder("oauth.tokens.refresh.rejected", tokenStore, TokenStore::getRejectedRefreshCount)
+                .description("refresh_token grants with an unknown, expired or already rotated token")
+                .register(registry);
+        FunctionCounter.builder("oauth.tokens.refresh.conflicts", tokenStore, TokenStore::getRefreshConflictCount)
+                .description("refresh_token grants that lost a race with a concurrent rotation of the same token")
+                .register(registry);
+        Gauge.builder("oauth.store.pending-writes", tokenStore, TokenStore::getPendingWriteCount)
+                .description("Store changes queued for the durable backend but not yet written")
+                .register(registry);
+        FunctionCounter.builder("oauth.store.failed-writes", tokenStore, TokenStore::getFailedWriteCount)
+                .description("Store changes the durable backend dropped after failing to write them")
+                .register(registry);
+        // cache.size, cache.gets{result=hit|miss}, cache.evictions, ... tagged cache=oauth.client-tokens
+        CaffeineCacheMetrics.monitor(registry, tokenStore.getClientTokenCache(), "oauth.client-tokens");
+    }
+}
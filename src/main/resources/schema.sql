@@ -1,4 +1,4 @@
-CREATE TABLE oauth2_authorized_client (
+CREATE TABLE IF NOT EXISTS oauth2_authorized_client (
   client_registration_id varchar(100) NOT NULL,
   principal_name varchar(200) NOT NULL,
   access_token_type varchar(100) NOT NULL,
@@ -10,3 +10,28 @@ CREATE TABLE oauth2_authorized_client (
   refresh_token_issued_at timestamp DEFAULT NULL,
   PRIMARY KEY (client_registration_id, principal_name)
 );
+
+-- TokenStore persistence (oauth.store.persistence=jdbc); expires_at is in TokenStore seconds since 2024-01-01
+CREATE TABLE IF NOT EXISTS oauth_code (
+  code varchar(64) NOT NULL,
+  user_id int NOT NULL,
+  role varchar(32) NOT NULL,
+  client_id varchar(200),
+  redirect_uri varchar(2048),
+  expires_at int NOT NULL,
+  redeemed boolean DEFAULT FALSE NOT NULL,
+  PRIMARY KEY (code)
+);
+
+-- Client binding of codes, for databases created before it was added
+ALTER TABLE oauth_code ADD COLUMN IF NOT EXISTS client_id varchar(200);
+ALTER TABLE oauth_code ADD COLUMN IF NOT EXISTS redirect_uri varchar(2048);
+
+CREATE TABLE IF NOT EXISTS oauth_token (
+  kind char(1) NOT NULL,
+  token_hi bigint NOT NULL,
+  token_lo bigint NOT NULL,
+  principal bigint NOT NULL,
+  expires_at int NOT NULL,
+  PRIMARY KEY (kind, token_hi, token_lo)
+);
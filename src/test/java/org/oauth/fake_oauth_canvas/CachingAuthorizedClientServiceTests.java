@@ -0,0 +1,70 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingAuthorizedClientServiceTests {
+
+    private static final ClientRegistration CANVAS = ClientRegistration.withRegistrationId("canvas")
+            .clientId("client")
+            .clientSecret("secret")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("http://localhost/callback")
+            .authorizationUri("http://localhost/login/oauth2/auth")
+            .tokenUri("http://localhost/login/oauth2/token")
+            .build();
+
+    private static OAuth2AuthorizedClient client(String accessToken) {
+        Instant now = Instant.now();
+        return new OAuth2AuthorizedClient(CANVAS, "alice",
+                new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, accessToken, now, now.plusSeconds(3600)),
+                new OAuth2RefreshToken("refresh", now));
+    }
+
+    @Test
+    void servesReadsFromCacheAndWritesThrough() {
+        JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+        CachingAuthorizedClientService service = new CachingAuthorizedClientService(
+                jdbc, new InMemoryClientRegistrationRepository(CANVAS), 100, 300, true);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service.bindTo(registry);
+        TestingAuthenticationToken alice = new TestingAuthenticationToken("alice", null);
+
+        service.saveAuthorizedClient(client("first"), alice);
+        assertThat(service.<OAuth2AuthorizedClient>loadAuthorizedClient("canvas", "alice")
+                .getAccessToken().getTokenValue()).isEqualTo("first");
+
+        // A refresh saves the new token; both the cache and the table must see it
+        service.saveAuthorizedClient(client("refreshed"), alice);
+        assertThat(service.<OAuth2AuthorizedClient>loadAuthorizedClient("canvas", "alice")
+                .getAccessToken().getTokenValue()).isEqualTo("refreshed");
+        assertThat(registry.get("cache.gets").tag("cache", "oauth.authorized-clients").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(2);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM oauth2_authorized_client", Integer.class)).isEqualTo(1);
+
+        // Another replica (a fresh cache over the same table) reads it back from the database
+        CachingAuthorizedClientService replica = new CachingAuthorizedClientService(
+                jdbc, new InMemoryClientRegistrationRepository(CANVAS), 100, 300, false);
+        assertThat(replica.<OAuth2AuthorizedClient>loadAuthorizedClient("canvas", "alice")
+                .getAccessToken().getTokenValue()).isEqualTo("refreshed");
+
+        service.removeAuthorizedClient("canvas", "alice");
+        assertThat(service.<OAuth2AuthorizedClient>loadAuthorizedClient("canvas", "alice")).isNull();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM oauth2_authorized_client", Integer.class)).isZero();
+    }
+}
@@ -0,0 +1,190 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClientRegistryTests {
+
+    @TempDir
+    Path dir;
+
+    private static String registry(String clientId, String secret, String... redirectUris) {
+        return "{\"clients\":[{\"client_id\":\"" + clientId + "\",\"client_secret\":\"" + secret
+                + "\",\"redirect_uris\":[\"" + String.join("\",\"", redirectUris) + "\"]}]}";
+    }
+
+    private void write(Path file, String content) throws IOException {
+        // Replaced in one rename, as a deployment would, so the poller never reads half a file
+        Path temp = Files.writeString(dir.resolve("next.json"), content);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    void matchesExactUrisAndPathPrefixes() {
+        RedirectUris uris = RedirectUris.compile(List.of(
+                "https://app.example.com/callback",
+                "https://App.Example.com/oauth/*",
+                "http://localhost:3000/*"));
+
+        assertThat(uris.allows("https://app.example.com/callback")).isTrue();
+        assertThat(uris.allows("https://app.example.com/callback?x=1")).isFalse();
+        assertThat(uris.allows("https://app.example.com/callback/more")).isFalse();
+        assertThat(uris.allows("https://app.example.com/oauth/code/canvas?tenant=3")).isTrue();
+        assertThat(uris.allows("HTTPS://APP.EXAMPLE.COM/oauth/code")).isTrue();
+        assertThat(uris.allows("https://app.example.com/OAUTH/code")).isFalse();
+        assertThat(uris.allows("https://app.example.com/oauthx/code")).isFalse();
+        assertThat(uris.allows("https://app.example.com/oauth")).isFalse();
+        assertThat(uris.allows("http://localhost:3000/")).isTrue();
+        assertThat(uris.allows("http://localhost:3000")).isFalse();
+        assertThat(uris.allows("http://localhost:3001/")).isFalse();
+
+        // Anything a browser would send somewhere else
+        assertThat(uris.allows("https://app.example.com/oauth/../admin")).isFalse();
+        assertThat(uris.allows("https://app.example.com/oauth/%2e%2E/admin")).isFalse();
+        assertThat(uris.allows("https://app.example.com/oauth/x#fragment")).isFalse();
+        assertThat(uris.allows("https://app.example.com@evil.example/oauth/")).isFalse();
+        assertThat(uris.allows("https://app.example.com.evil.example/oauth/")).isFalse();
+        assertThat(uris.allows("javascript:alert(1)")).isFalse();
+        assertThat(uris.allows(null)).isFalse();
+
+        assertThatThrownBy(() -> RedirectUris.compile(List.of("https://app.example.com/a*")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> RedirectUris.compile(List.of("app://callback")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void matchesClientsWithOnlyOneKindOfUri() {
+        RedirectUris prefixesOnly = RedirectUris.compile(List.of("https://App.example.com/oauth/*"));
+        assertThat(prefixesOnly.allows("https://app.example.com/oauth/callback")).isTrue();
+        assertThat(prefixesOnly.allows("https://APP.example.com/oauth/callback")).isTrue();
+        assertThat(prefixesOnly.allows("https://app.example.com/oauth/callback?state=a#b")).isFalse();
+        assertThat(prefixesOnly.allows("https://app.example.com/oauth/")).isTrue();
+
+        RedirectUris exactOnly = RedirectUris.compile(List.of("https://app.example.com/callback", "http://localhost:3000/cb"));
+        assertThat(exactOnly.allows("https://app.example.com/callback")).isTrue();
+        assertThat(exactOnly.allows("http://localhost:3000/cb")).isTrue();
+        assertThat(exactOnly.allows("https://APP.example.com/callback")).isFalse();
+        assertThat(exactOnly.allows("https://app.example.com/callback/")).isFalse();
+    }
+
+    @Test
+    void authenticatesByBasicHeaderOrForm() throws IOException {
+        Path file = Files.writeString(dir.resolve("clients.json"), registry("team a", "s3cr:et", "https://a.example.com/cb"));
+        ClientRegistry clients = new ClientRegistry(new SimpleMeterRegistry(), file.toString(), 0);
+        String basic = "Basic " + Base64.getEncoder().encodeToString("team+a:s3cr%3Aet".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(clients.authenticate(basic, null, null)).isEqualTo("team a");
+        assertThat(clients.authenticate(null, "team a", "s3cr:et")).isEqualTo("team a");
+        assertThatThrownBy(() -> clients.authenticate(null, "team a", "wrong")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> clients.authenticate(null, "team b", "s3cr:et")).isInstanceOf(IllegalArgumentException.class);
+        assertThat(clients.checkAuthorization("team a", "https://a.example.com/cb")).isNull();
+        assertThat(clients.checkAuthorization("team a", "https://b.example.com/cb")).isEqualTo(ClientRegistry.INVALID_REDIRECT_URI);
+        assertThat(clients.checkAuthorization("team b", "https://a.example.com/cb")).isEqualTo(ClientRegistry.UNKNOWN_CLIENT);
+
+        ClientRegistry open = new ClientRegistry(new SimpleMeterRegistry(), "", 0);
+        assertThat(open.checkAuthorization("anyone", "https://anywhere.example")).isNull();
+        assertThat(open.authenticate(null, "anyone", null)).isEqualTo("anyone");
+    }
+
+    @Test
+    void codesAreRedeemedOnlyByTheClientAndRedirectUriTheyWereIssuedFor() throws IOException {
+        Path file = Files.writeString(dir.resolve("clients.json"), "{\"clients\":["
+                + "{\"client_id\":\"team-a\",\"client_secret\":\"secret-a\",\"redirect_uris\":[\"https://a.example.com/*\"]},"
+                + "{\"client_id\":\"team-b\",\"client_secret\":\"secret-b\",\"redirect_uris\":[\"https://b.example.com/cb\"]}]}");
+        ClientRegistry clients = new ClientRegistry(new SimpleMeterRegistry(), file.toString(), 0);
+        TokenStore tokenStore = tokenStore();
+        AuthController controller = new AuthController(tokenStore, new HmacSigner("test-signing-key"),
+                new OAuthMetrics(new SimpleMeterRegistry()), clients, false, 600, 1000);
+        try {
+            MockHttpServletRequest browser = new MockHttpServletRequest();
+            controller.authorize("team-a", "code", "https://a.example.com/cb", "xyz", null, null, null, null, null, browser);
+            URI location = controller.selectRole(TokenStore.STUDENT_ROLE, null, null, browser).getHeaders().getLocation();
+            String code = UriComponentsBuilder.fromUri(location).build().getQueryParams().getFirst("code");
+
+            // Another registered client that got hold of the code cannot redeem it
+            assertThat(redeem(controller, "team-b", "secret-b", "https://a.example.com/cb", code).getStatusCode())
+                    .isEqualTo(HttpStatus.BAD_REQUEST);
+            // Nor can the same client with a redirect_uri other than the authorized one
+            assertThat(redeem(controller, "team-a", "secret-a", "https://a.example.com/other", code).getStatusCode())
+                    .isEqualTo(HttpStatus.BAD_REQUEST);
+            assertThat(tokenStore.redeemCode(code, "team-b", "https://a.example.com/cb").status())
+                    .isEqualTo(CodeRedemption.Status.WRONG_CLIENT);
+
+            // The rejected attempts did not use the code up
+            assertThat(redeem(controller, "team-a", "secret-a", "https://a.example.com/cb", code).getStatusCode())
+                    .isEqualTo(HttpStatus.OK);
+        } finally {
+            tokenStore.shutdown();
+        }
+    }
+
+    private static ResponseEntity<byte[]> redeem(AuthController controller, String clientId, String clientSecret,
+                                                 String redirectUri, String code) {
+        return controller.token("authorization_code", clientId, clientSecret, redirectUri, code,
+                null, null, null, null, null);
+    }
+
+    private static TokenStore tokenStore() {
+        StandardEnvironment env = new StandardEnvironment();
+        env.getPropertySources().addFirst(new MapPropertySource("test", Map.of(
+                "OAUTH_INSTRUCTOR_ACCESS_TOKEN", "test-instructor-token",
+                "OAUTH_STUDENT_ACCESS_TOKEN", "test-student-token")));
+        return new TokenStore(env, new HmacSigner("test-signing-key"),
+                new DefaultListableBeanFactory().getBeanProvider(TokenPersistence.class), 600, 1000, false,
+                TokenMode.OPAQUE, 3600, 3600, false, 100_000, 2, 30,
+                "refresh-token-instructor-67890", 101, "Kashyap Kale", "kashyapk@vt.edu",
+                "refresh-token-student-fghij", 202, "Sarthak Raut", "sarthakr@vt.edu");
+    }
+
+    @Test
+    void reloadsChangedFileAndKeepsRegistryWhenInvalid() throws Exception {
+        Path file = dir.resolve("clients.json");
+        write(file, registry("team-a", "secret", "https://a.example.com/cb"));
+        ClientRegistry clients = new ClientRegistry(new SimpleMeterRegistry(), file.toString(), 20);
+        try {
+            write(file, registry("team-b", "secret", "https://b.example.com/*"));
+            awaitClient(clients, "team-b");
+            assertThat(clients.find("team-a")).isNull();
+            assertThat(clients.checkAuthorization("team-b", "https://b.example.com/any/path")).isNull();
+
+            write(file, "{\"clients\":[{\"client_id\":\"team-c\"");
+            Thread.sleep(200);
+            assertThat(clients.find("team-b")).isNotNull();
+
+            write(file, registry("team-c", "secret", "https://c.example.com/cb"));
+            awaitClient(clients, "team-c");
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    private static void awaitClient(ClientRegistry clients, String clientId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (clients.find(clientId) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(clients.find(clientId)).isNotNull();
+    }
+}
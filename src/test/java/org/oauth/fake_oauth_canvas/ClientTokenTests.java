@@ -0,0 +1,48 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {TokenStore.class, HmacSigner.class}, properties = {
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "oauth.client-tokens.max-size=1000"
+})
+class ClientTokenTests {
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    @Test
+    void clientCredentialsTokensValidateAsTheirClient() {
+        String token = tokenStore.issueClientToken("grading-service");
+
+        Principal principal = tokenStore.getPrincipalForAccessToken(token);
+        assertThat(principal).isEqualTo(Principal.client("grading-service"));
+        assertThat(tokenStore.getRoleForAccessToken(token)).isEqualTo(TokenStore.CLIENT_ROLE);
+        assertThat(tokenStore.introspect(List.of(token, TokenStore.CLIENT_TOKEN_PREFIX + "unknown")))
+                .containsExactly(principal, null);
+    }
+
+    @Test
+    void aFloodOfClientsCannotGrowTheCacheBeyondItsBound() {
+        String hot = tokenStore.issueClientToken("hot-client");
+        for (int i = 0; i < 20_000; i++) {
+            tokenStore.issueClientToken("client-" + i);
+            if (i % 100 == 0) {
+                assertThat(tokenStore.getPrincipalForAccessToken(hot)).isNotNull();
+            }
+        }
+        tokenStore.getClientTokenCache().cleanUp();
+
+        assertThat(tokenStore.getClientTokenCache().estimatedSize()).isLessThanOrEqualTo(1000);
+        assertThat(tokenStore.getClientTokenCache().stats().evictionCount()).isGreaterThanOrEqualTo(19_000);
+        // Frequently used tokens survive the one-hit wonders
+        assertThat(tokenStore.getPrincipalForAccessToken(hot)).isNotNull();
+    }
+}
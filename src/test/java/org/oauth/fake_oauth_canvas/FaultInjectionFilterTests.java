@@ -0,0 +1,69 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Delayed requests through a real Tomcat: startAsync, the filter's scheduler, and the async
+ * dispatch back through Spring Security and RequestEventFilter's AsyncListener.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "spring.datasource.url=jdbc:h2:mem:fault-injection-tests",
+        "oauth.faults.enabled=true",
+        "oauth.logging.request-events.enabled=true",
+        "oauth.logging.request-events.sample-rate=1"
+})
+class FaultInjectionFilterTests {
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private FaultInjector injector;
+
+    @AfterEach
+    void stopFaulting() {
+        injector.replaceAll(new JSONObject());
+    }
+
+    @Test
+    void delayedRequestReachesTheHandlerAfterTheDelay() {
+        injector.replaceAll(new JSONObject("{\"users_self\":{\"latency\":{\"type\":\"fixed\",\"ms\":300}}}"));
+
+        long started = System.nanoTime();
+        ResponseEntity<String> response = usersSelf();
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(new JSONObject(response.getBody()).has("id")).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(300);
+    }
+
+    @Test
+    void delayedErrorIsWrittenWithTheConfiguredStatus() {
+        injector.replaceAll(new JSONObject(
+                "{\"users_self\":{\"latency\":{\"type\":\"fixed\",\"ms\":100},\"error_rate\":1,\"error_status\":502}}"));
+
+        long started = System.nanoTime();
+        ResponseEntity<String> response = usersSelf();
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_GATEWAY);
+        assertThat(response.getBody()).contains("Injected fault");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(100);
+    }
+
+    private ResponseEntity<String> usersSelf() {
+        return rest.getForEntity("/api/v1/users/self?access_token=test-student-token", String.class);
+    }
+}
@@ -0,0 +1,64 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FaultInjectorTests {
+
+    @Test
+    void histogramReplaysOnlyNonEmptyBuckets() {
+        LatencyDistribution histogram = LatencyDistribution.parse(new JSONObject(
+                "{\"type\":\"histogram\",\"buckets\":[[10,0],[20,5],[30,0],[40,0],[50,5]]}"));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int low = 0;
+        for (int i = 0; i < 10_000; i++) {
+            double millis = histogram.sampleNanos(random) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+            assertThat(millis).satisfiesAnyOf(
+                    ms -> assertThat(ms).isBetween(10.0, 20.0),
+                    ms -> assertThat(ms).isBetween(40.0, 50.0));
+            if (millis <= 20) {
+                low++;
+            }
+        }
+        assertThat(low).isBetween(4_500, 5_500);
+        // GET /admin/faults output can be PUT back unchanged
+        assertThat(LatencyDistribution.parse(histogram.toJson()).toJson().similar(histogram.toJson())).isTrue();
+    }
+
+    @Test
+    void appliesTimeoutsErrorsAndLatencyPerEndpoint() {
+        FaultInjector injector = new FaultInjector(new SimpleMeterRegistry(),
+                "{\"token\":{\"timeout_rate\":1,\"timeout_ms\":250},"
+                        + "\"users_self\":{\"latency\":{\"type\":\"fixed\",\"ms\":40},\"error_rate\":1,\"error_status\":502}}");
+
+        assertThat(injector.next(OAuthMetrics.TOKEN)).isEqualTo(new FaultInjector.Fault(TimeUnit.MILLISECONDS.toNanos(250), 504));
+        assertThat(injector.next(OAuthMetrics.USERS_SELF)).isEqualTo(new FaultInjector.Fault(TimeUnit.MILLISECONDS.toNanos(40), 502));
+        assertThat(injector.next(OAuthMetrics.AUTHORIZE)).isNull();
+        assertThat(injector.next(FaultInjector.endpointFor("GET", "/actuator/health"))).isNull();
+
+        injector.remove(OAuthMetrics.TOKEN);
+        assertThat(injector.next(FaultInjector.endpointFor("POST", "/login/oauth2/token"))).isNull();
+    }
+
+    @Test
+    void rejectsInvalidProfilesWithoutChangingTheCurrentOnes() {
+        FaultInjector injector = new FaultInjector(new SimpleMeterRegistry(), "{\"token\":{\"error_rate\":1}}");
+
+        assertThatThrownBy(() -> injector.replaceAll(new JSONObject("{\"token\":{},\"tokens\":{}}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> injector.replaceAll(new JSONObject("{\"token\":{\"error_rate\":2}}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> injector.replaceAll(new JSONObject(
+                "{\"token\":{\"latency\":{\"type\":\"uniform\",\"min_ms\":5,\"max_ms\":1}}}")))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(injector.next(OAuthMetrics.TOKEN).status()).isEqualTo(503);
+    }
+}
@@ -0,0 +1,78 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GcraTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long NOW = 1_000 * SECOND;
+
+    @Test
+    void allowsTheBurstThenRefillsAtTheRate() {
+        Gcra gcra = new Gcra(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertThat(gcra.acquire("client", NOW)).isZero();
+        }
+        assertThat(gcra.acquire("client", NOW)).isEqualTo(SECOND / 10);
+        assertThat(gcra.acquire("other", NOW)).isZero();
+
+        // One token back every 100ms
+        assertThat(gcra.acquire("client", NOW + SECOND / 10)).isZero();
+        assertThat(gcra.acquire("client", NOW + SECOND / 10)).isPositive();
+
+        assertThat(gcra.sweep(NOW + SECOND)).isEqualTo(2);
+        assertThat(gcra.size()).isZero();
+    }
+
+    @Test
+    void checkAndReleaseLeaveTheBucketAsItWas() {
+        Gcra gcra = new Gcra(10, 2);
+        assertThat(gcra.check("client", NOW)).isZero();
+        assertThat(gcra.size()).isZero();
+
+        assertThat(gcra.acquire("client", NOW)).isZero();
+        assertThat(gcra.acquire("client", NOW)).isZero();
+        assertThat(gcra.check("client", NOW)).isEqualTo(SECOND / 10);
+        assertThat(gcra.check("client", NOW)).isEqualTo(SECOND / 10);
+
+        gcra.release("client");
+        assertThat(gcra.check("client", NOW)).isZero();
+        assertThat(gcra.acquire("client", NOW)).isZero();
+        assertThat(gcra.acquire("client", NOW)).isPositive();
+    }
+
+    @Test
+    void concurrentCallersNeverExceedTheBurst() throws Exception {
+        Gcra gcra = new Gcra(1, 1_000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] callers = new Future<?>[8];
+            int[] allowed = new int[8];
+            for (int t = 0; t < 8; t++) {
+                int caller = t;
+                callers[t] = pool.submit(() -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        if (gcra.acquire("client", NOW) == 0) {
+                            allowed[caller]++;
+                        }
+                    }
+                });
+            }
+            int total = 0;
+            for (int t = 0; t < 8; t++) {
+                callers[t].get();
+                total += allowed[t];
+            }
+            assertThat(total).isEqualTo(1_000);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
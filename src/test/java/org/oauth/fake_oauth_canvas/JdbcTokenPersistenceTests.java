@@ -0,0 +1,204 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Two TokenStores sharing one database stand in for two replicas (or one instance before and after a restart).
+ */
+@SpringBootTest(classes = {TokenStore.class, HmacSigner.class, JdbcTokenPersistence.class}, properties = {
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "oauth.tokens.mode=opaque",
+        "oauth.store.persistence=jdbc",
+        "oauth.store.jdbc.wait-for-writes=true",
+        "spring.datasource.url=jdbc:h2:mem:token-store-tests;DB_CLOSE_DELAY=-1"
+})
+@ImportAutoConfiguration({DataSourceAutoConfiguration.class, JdbcTemplateAutoConfiguration.class})
+class JdbcTokenPersistenceTests {
+
+    @Autowired
+    private TokenStore first;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    private TokenStore second;
+
+    @BeforeEach
+    void startSecondInstance() {
+        second = context.getAutowireCapableBeanFactory().createBean(TokenStore.class);
+    }
+
+    @AfterEach
+    void stopSecondInstance() {
+        second.shutdown();
+    }
+
+    @Test
+    void codeIssuedByOneInstanceIsRedeemedOnceByAnother() {
+        String code = first.generateCode(TokenStore.STUDENT_ROLE, 4711);
+
+        CodeRedemption redemption = second.redeemCode(code);
+        assertThat(redemption.isRedeemed()).isTrue();
+        assertThat(redemption.principal().id()).isEqualTo(4711);
+
+        // The issuing instance still holds the code unredeemed locally, but loses the database claim
+        assertThat(first.redeemCode(code).status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+    }
+
+    @Test
+    void codeIsBoundToItsClientOnEveryInstance() {
+        String code = first.generateCode(TokenStore.STUDENT_ROLE, 4711, "team-a", "https://a.example.com/cb");
+
+        assertThat(second.redeemCode(code, "team-b", "https://a.example.com/cb").status())
+                .isEqualTo(CodeRedemption.Status.WRONG_CLIENT);
+        assertThat(second.redeemCode(code, "team-a", "https://a.example.com/cb").isRedeemed()).isTrue();
+    }
+
+    @Test
+    void tokensMintedByOneInstanceAreValidOnAnother() {
+        CodeRedemption redemption = first.redeemCode(first.generateCode(TokenStore.INSTRUCTOR_ROLE, 99));
+
+        Principal principal = second.getPrincipalForAccessToken(redemption.tokens().accessToken());
+        assertThat(principal).isNotNull();
+        assertThat(principal.id()).isEqualTo(99);
+        assertThat(principal.role()).isEqualTo(TokenStore.INSTRUCTOR_ROLE);
+    }
+
+    @Test
+    void batchIntrospectionFindsTokensMintedByAnotherInstance() {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            tokens.add(first.redeemCode(first.generateCode(TokenStore.STUDENT_ROLE, i + 1)).tokens().accessToken());
+        }
+        tokens.add(1, "test-instructor-token");
+        tokens.add(2, "not-a-token");
+
+        Principal[] principals = second.introspect(tokens);
+        assertThat(principals).hasSize(tokens.size());
+        assertThat(principals[0].id()).isEqualTo(1);
+        assertThat(principals[1].role()).isEqualTo(TokenStore.INSTRUCTOR_ROLE);
+        assertThat(principals[2]).isNull();
+        assertThat(principals[tokens.size() - 1].id()).isEqualTo(250);
+        assertThat(principals).filteredOn(principal -> principal != null).hasSize(tokens.size() - 1);
+    }
+
+    @Test
+    void concurrentRedemptionOnBothInstancesSucceedsExactlyOnce() throws Exception {
+        List<String> codes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            codes.add(first.generateCode(TokenStore.STUDENT_ROLE, i + 1));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> firstWins = pool.submit(() -> countRedeemed(first, codes));
+            Future<Integer> secondWins = pool.submit(() -> countRedeemed(second, codes));
+            assertThat(firstWins.get() + secondWins.get()).isEqualTo(codes.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void droppedWritesAreCountedAndFailTheWaitingCaller() throws Exception {
+        // A database of its own, so the dropped table does not affect the other tests
+        JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:failed-writes-tests;DB_CLOSE_DELAY=-1"));
+        JdbcTokenPersistence persistence = new JdbcTokenPersistence(jdbc, 500, true, 1000, 60, true);
+        try {
+            jdbc.execute("DROP TABLE oauth_code");
+
+            persistence.codeIssued("lost-code", new Principal(4711, TokenStore.STUDENT_ROLE, "Student", "student@vt.edu"), null, null, 60);
+            assertThatThrownBy(persistence::awaitWrites).isInstanceOf(IllegalStateException.class);
+            assertThat(persistence.failedWrites()).isEqualTo(1);
+
+            // Later batches are unaffected
+            persistence.tokenRevoked(TokenKind.ACCESS, 1, 2);
+            persistence.awaitWrites();
+            assertThat(persistence.failedWrites()).isEqualTo(1);
+        } finally {
+            persistence.shutdown();
+        }
+    }
+
+    @Test
+    void revokedTokensStayRevokedUnderWriteBehind() throws Exception {
+        JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:write-behind-tests;DB_CLOSE_DELAY=-1"));
+        JdbcTokenPersistence revokingPersistence = new JdbcTokenPersistence(jdbc, 500, false, 1000, 60, true);
+        JdbcTokenPersistence otherPersistence = new JdbcTokenPersistence(jdbc, 500, false, 1000, 60, true);
+        TokenStore revoking = writeBehindStore(revokingPersistence, 30);
+        // Reads through on every lookup, so the test does not wait out its cache
+        TokenStore other = writeBehindStore(otherPersistence, 0);
+        try {
+            String code = revoking.generateCode(TokenStore.STUDENT_ROLE, 4711);
+            String accessToken = revoking.redeemCode(code).tokens().accessToken();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (countTokenRows(jdbc) < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(other.getPrincipalForAccessToken(accessToken)).isNotNull();
+
+            // Replaying the code revokes its tokens
+            assertThat(revoking.redeemCode(code).status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+            assertThat(revoking.getPrincipalForAccessToken(accessToken)).isNull();
+            assertThat(other.getPrincipalForAccessToken(accessToken)).isNull();
+
+            // The DELETE was not left queued behind the revoking request
+            assertThat(countTokenRows(jdbc)).isZero();
+            // Nor does flushing the rest of the queue bring anything back
+            revokingPersistence.shutdown();
+            assertThat(revoking.getPrincipalForAccessToken(accessToken)).isNull();
+            assertThat(other.getPrincipalForAccessToken(accessToken)).isNull();
+        } finally {
+            revoking.shutdown();
+            other.shutdown();
+            revokingPersistence.shutdown();
+            otherPersistence.shutdown();
+        }
+    }
+
+    private TokenStore writeBehindStore(TokenPersistence persistence, int readThroughCacheSeconds) {
+        DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+        beans.registerSingleton("tokenPersistence", persistence);
+        return new TokenStore(context.getEnvironment(), context.getBean(HmacSigner.class),
+                beans.getBeanProvider(TokenPersistence.class), 600, 1000, true,
+                TokenMode.OPAQUE, 3600, 3600, false, 100_000, 2, readThroughCacheSeconds,
+                "refresh-token-instructor-67890", 101, "Kashyap Kale", "kashyapk@vt.edu",
+                "refresh-token-student-fghij", 202, "Sarthak Raut", "sarthakr@vt.edu");
+    }
+
+    private static int countTokenRows(JdbcTemplate jdbc) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM oauth_token", Integer.class);
+    }
+
+    private static int countRedeemed(TokenStore store, List<String> codes) {
+        int wins = 0;
+        for (String code : codes) {
+            if (store.redeemCode(code).isRedeemed()) {
+                wins++;
+            }
+        }
+        return wins;
+    }
+}
@@ -0,0 +1,119 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Each context is one run of the service on a journal directory; a second context on the same
+ * (or a copied) directory is the service after a restart (or a crash).
+ */
+class JournalTokenPersistenceTests {
+
+    @TempDir
+    Path dir;
+
+    private static ConfigurableApplicationContext start(Path journal) {
+        // Arguments, because builder properties would lose to application.properties
+        return new SpringApplicationBuilder(TokenStore.class, HmacSigner.class, JournalTokenPersistence.class)
+                .web(WebApplicationType.NONE)
+                .run("--OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+                        "--OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+                        "--oauth.tokens.mode=opaque",
+                        "--oauth.tokens.rotate-refresh-tokens=true",
+                        "--oauth.code.revoke-on-replay=true",
+                        "--oauth.store.persistence=journal",
+                        "--oauth.store.journal.dir=" + journal,
+                        "--oauth.store.journal.segment-size-mb=1",
+                        "--oauth.store.journal.snapshot-interval-seconds=0");
+    }
+
+    @Test
+    void restartAfterShutdownRestoresCodesAndTokens() {
+        String pending;
+        String bound;
+        String redeemed;
+        CodeRedemption kept;
+        CodeRedemption revoked;
+        String rotatedAway;
+        TokenRefresh refresh;
+        try (ConfigurableApplicationContext context = start(dir)) {
+            TokenStore store = context.getBean(TokenStore.class);
+            pending = store.generateCode(TokenStore.STUDENT_ROLE, 4711);
+            bound = store.generateCode(TokenStore.STUDENT_ROLE, 4712, "team-a", "https://a.example.com/cb");
+            redeemed = store.generateCode(TokenStore.INSTRUCTOR_ROLE, 99);
+            kept = store.redeemCode(redeemed);
+            String replayed = store.generateCode(TokenStore.STUDENT_ROLE, 5);
+            revoked = store.redeemCode(replayed);
+            assertThat(store.redeemCode(replayed).status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+            CodeRedemption rotating = store.redeemCode(store.generateCode(TokenStore.STUDENT_ROLE, 6));
+            rotatedAway = rotating.tokens().refreshToken();
+            refresh = store.refresh(rotatedAway);
+            // Enough tokens to roll over several 1MB segments before the shutdown snapshot
+            for (int i = 0; i < 20_000; i++) {
+                store.redeemCode(store.generateCode(TokenStore.STUDENT_ROLE, 10_000 + i));
+            }
+        }
+
+        try (ConfigurableApplicationContext context = start(dir)) {
+            TokenStore store = context.getBean(TokenStore.class);
+            assertThat(store.getLiveAccessTokenCount()).isEqualTo(20_000 + 3);
+            assertThat(store.getRoleForCode(pending)).isEqualTo(TokenStore.STUDENT_ROLE);
+            assertThat(store.redeemCode(redeemed).status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+            assertThat(store.getPrincipalForAccessToken(kept.tokens().accessToken()).id()).isEqualTo(99);
+            assertThat(store.getPrincipalForAccessToken(revoked.tokens().accessToken())).isNull();
+            assertThat(store.refresh(rotatedAway).status()).isEqualTo(TokenRefresh.Status.INVALID);
+            assertThat(store.refresh(refresh.refreshToken()).status()).isEqualTo(TokenRefresh.Status.REFRESHED);
+
+            CodeRedemption afterRestart = store.redeemCode(pending);
+            assertThat(afterRestart.isRedeemed()).isTrue();
+            assertThat(afterRestart.principal().id()).isEqualTo(4711);
+            assertThat(store.redeemCode(bound, "team-b", "https://a.example.com/cb").status())
+                .isEqualTo(CodeRedemption.Status.WRONG_CLIENT);
+            assertThat(store.redeemCode(bound, "team-a", "https://a.example.com/cb").isRedeemed()).isTrue();
+        }
+    }
+
+    @Test
+    void crashReplaysSnapshotAndLaterSegments() throws IOException {
+        Path crashed = dir.resolve("crashed");
+        try (ConfigurableApplicationContext context = start(dir.resolve("live"))) {
+            TokenStore store = context.getBean(TokenStore.class);
+            JournalTokenPersistence journal = context.getBean(JournalTokenPersistence.class);
+            CodeRedemption beforeSnapshot = store.redeemCode(store.generateCode(TokenStore.STUDENT_ROLE, 1));
+            journal.snapshot();
+            CodeRedemption afterSnapshot = store.redeemCode(store.generateCode(TokenStore.INSTRUCTOR_ROLE, 2));
+            String revokedAfterSnapshot = beforeSnapshot.tokens().refreshToken();
+            TokenRefresh refresh = store.refresh(revokedAfterSnapshot);
+            String pending = store.generateCode(TokenStore.STUDENT_ROLE, 3, "team-a", "https://a.example.com/cb");
+
+            // The mapped segments are shared with the page cache, so a copy is what a crash leaves behind
+            Files.createDirectories(crashed);
+            try (Stream<Path> files = Files.list(dir.resolve("live"))) {
+                for (Path file : files.toList()) {
+                    Files.copy(file, crashed.resolve(file.getFileName()));
+                }
+            }
+
+            try (ConfigurableApplicationContext restarted = start(crashed)) {
+                TokenStore recovered = restarted.getBean(TokenStore.class);
+                assertThat(recovered.getPrincipalForAccessToken(beforeSnapshot.tokens().accessToken()).id()).isEqualTo(1);
+                assertThat(recovered.getPrincipalForAccessToken(afterSnapshot.tokens().accessToken()).id()).isEqualTo(2);
+                assertThat(recovered.getPrincipalForAccessToken(refresh.accessToken()).id()).isEqualTo(1);
+                assertThat(recovered.refresh(revokedAfterSnapshot).status()).isEqualTo(TokenRefresh.Status.INVALID);
+                assertThat(recovered.redeemCode(pending, "team-a", "https://a.example.com/other").status())
+                    .isEqualTo(CodeRedemption.Status.WRONG_CLIENT);
+                assertThat(recovered.redeemCode(pending, "team-a", "https://a.example.com/cb").principal().id()).isEqualTo(3);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = {TokenStore.class, HmacSigner.class, Provisioner.class}, properties = {
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "oauth.tokens.mode=opaque",
+        "oauth.provisioning.enabled=true",
+        "oauth.provisioning.threads=4",
+        "oauth.provisioning.max-count=100000"
+})
+class ProvisionerTests {
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    @Autowired
+    private Provisioner provisioner;
+
+    private String[] provision(String body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        provisioner.stream(provisioner.parse(new JSONObject(body)), out::write);
+        return out.toString(StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Test
+    void streamsUsableTokensInOrder() throws Exception {
+        int count = 3 * Provisioner.BATCH_SIZE + 17;
+        String[] lines = provision("{\"kind\":\"tokens\",\"count\":" + count
+                + ",\"roles\":{\"student\":3,\"instructor\":1},\"first_user_id\":5000}");
+
+        assertThat(lines).hasSize(count);
+        for (int i = 0; i < count; i++) {
+            JSONObject line = new JSONObject(lines[i]);
+            assertThat(line.getInt("user_id")).isEqualTo(5000 + i);
+            String role = i % 4 == 0 ? TokenStore.INSTRUCTOR_ROLE : TokenStore.STUDENT_ROLE;
+            assertThat(line.getString("role")).isEqualTo(role);
+            if (i % 1000 == 0 || i == count - 1) {
+                Principal principal = tokenStore.getPrincipalForAccessToken(line.getString("access_token"));
+                assertThat(principal.id()).isEqualTo(5000 + i);
+                assertThat(principal.role()).isEqualTo(role);
+                assertThat(tokenStore.refresh(line.getString("refresh_token")).principal().id()).isEqualTo(5000 + i);
+            }
+        }
+    }
+
+    @Test
+    void provisionedCodesAreRedeemedOnce() throws Exception {
+        String[] lines = provision("{\"count\":3}");
+
+        JSONObject first = new JSONObject(lines[0]);
+        assertThat(first.getInt("user_id")).isEqualTo(SyntheticCanvas.FIRST_USER_ID);
+        CodeRedemption redemption = tokenStore.redeemCode(first.getString("code"));
+        assertThat(redemption.status()).isEqualTo(CodeRedemption.Status.REDEEMED);
+        assertThat(tokenStore.getPrincipalForAccessToken(redemption.tokens().accessToken()).id())
+                .isEqualTo(SyntheticCanvas.FIRST_USER_ID);
+        assertThat(tokenStore.redeemCode(first.getString("code")).status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+    }
+
+    @Test
+    void rejectsInvalidRequests() {
+        assertThatThrownBy(() -> provisioner.parse(new JSONObject("{\"count\":0}"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> provisioner.parse(new JSONObject("{\"count\":100001}"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> provisioner.parse(new JSONObject("{\"count\":1,\"roles\":{\"admin\":1}}")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> provisioner.parse(new JSONObject("{\"count\":1,\"kind\":\"cookies\"}")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
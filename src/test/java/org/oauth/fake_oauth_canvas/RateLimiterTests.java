@@ -0,0 +1,90 @@
+package org.oauth.fake_oauth_canvas;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTests {
+
+    private static final String ADDRESS = "10.0.0.1";
+
+    @TempDir
+    Path dir;
+
+    private static RateLimiter rateLimiter(ClientRegistry clients, int clientBurst, int ipBurst) {
+        // Rates low enough that no bucket refills during the test
+        return new RateLimiter(new SimpleMeterRegistry(), clients, 0.001, clientBurst, 0.001, ipBurst);
+    }
+
+    @Test
+    void aRequestTheClientLimitRejectsKeepsItsIpAllowance() {
+        RateLimiter rateLimiter = rateLimiter(new ClientRegistry(new SimpleMeterRegistry(), "", 0), 2, 5);
+        try {
+            assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, "runaway", ADDRESS)).isZero();
+            assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, "runaway", ADDRESS)).isZero();
+            for (int i = 0; i < 10; i++) {
+                assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, "runaway", ADDRESS)).isPositive();
+            }
+
+            // Two of the five IP tokens went to the runaway client's accepted requests
+            for (int i = 0; i < 3; i++) {
+                assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, "other-" + i, ADDRESS)).isZero();
+            }
+            assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, "other-3", ADDRESS)).isPositive();
+        } finally {
+            rateLimiter.shutdown();
+        }
+    }
+
+    @Test
+    void withARegistryOnlyAuthenticatedClientsGetABucket() throws IOException {
+        Path file = Files.writeString(dir.resolve("clients.json"),
+                "{\"clients\":[{\"client_id\":\"team-a\",\"client_secret\":\"s3cret\",\"redirect_uris\":[\"https://a.example.com/cb\"]}]}");
+        RateLimiter rateLimiter = rateLimiter(new ClientRegistry(new SimpleMeterRegistry(), file.toString(), 0), 2, 5);
+        try {
+            String basic = "Basic " + Base64.getEncoder().encodeToString("team-a:s3cret".getBytes(StandardCharsets.UTF_8));
+            assertThat(rateLimiter.clientKey(basic, null, null)).isEqualTo("team-a");
+            assertThat(rateLimiter.clientKey(null, "team-a", "s3cret")).isEqualTo("team-a");
+            assertThat(rateLimiter.clientKey(null, "team-a", "guess")).isNull();
+            assertThat(rateLimiter.clientKey(null, "team-a", null)).isNull();
+            assertThat(rateLimiter.clientKey(null, "nobody", "s3cret")).isNull();
+
+            // Naming team-a without its secret cannot use up team-a's allowance
+            for (int i = 0; i < 5; i++) {
+                String key = rateLimiter.clientKey(null, "team-a", "guess");
+                assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, key, "10.0.1." + i)).isZero();
+            }
+            for (int i = 0; i < 2; i++) {
+                assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, rateLimiter.clientKey(basic, null, null), ADDRESS)).isZero();
+            }
+            assertThat(rateLimiter.acquire(OAuthMetrics.TOKEN, rateLimiter.clientKey(basic, null, null), ADDRESS)).isPositive();
+        } finally {
+            rateLimiter.shutdown();
+        }
+    }
+
+    @Test
+    void withoutARegistryTheNamedClientIdIsUsed() {
+        RateLimiter rateLimiter = rateLimiter(new ClientRegistry(new SimpleMeterRegistry(), "", 0), 2, 5);
+        try {
+            String basic = "Basic " + Base64.getEncoder().encodeToString("team-b:x".getBytes(StandardCharsets.UTF_8));
+            assertThat(rateLimiter.clientKey(null, "team-a", null)).isEqualTo("team-a");
+            assertThat(rateLimiter.clientKey(basic, null, null)).isEqualTo("team-b");
+            assertThat(rateLimiter.clientKey(null, null, null)).isNull();
+            // The same client the token endpoint sees: Basic wins over the form, and is form-decoded
+            String encoded = "Basic " + Base64.getEncoder().encodeToString("team+c%3A1:x".getBytes(StandardCharsets.UTF_8));
+            assertThat(rateLimiter.clientKey(basic, "team-a", null)).isEqualTo("team-b");
+            assertThat(rateLimiter.clientKey(encoded, null, null)).isEqualTo("team c:1");
+        } finally {
+            rateLimiter.shutdown();
+        }
+    }
+}
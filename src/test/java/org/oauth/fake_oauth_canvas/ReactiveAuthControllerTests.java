@@ -0,0 +1,86 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The login flow against the reactive server mode, over a real Netty connection.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.main.web-application-type=reactive",
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "oauth.tokens.mode=opaque",
+        "spring.datasource.url=jdbc:h2:mem:reactive-tests"
+})
+class ReactiveAuthControllerTests {
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    void servesTheLoginFlowFromNetty() {
+        assertThat(context.getBeanNamesForType(AuthController.class)).isEmpty();
+
+        URI selectRole = client.get()
+                .uri("/login/oauth2/auth?client_id=c&response_type=code&redirect_uri=http://localhost:3000/cb&state=s1")
+                .exchange()
+                .expectStatus().isFound()
+                .returnResult(Void.class).getResponseHeaders().getLocation();
+        String ctx = selectRole.getRawQuery().substring("ctx=".length());
+
+        URI callback = client.post().uri("/login/oauth2/select-role")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(BodyInserters.fromFormData("role", TokenStore.STUDENT_ROLE).with("user_id", "4711").with("ctx", ctx))
+                .exchange()
+                .expectStatus().isFound()
+                .returnResult(Void.class).getResponseHeaders().getLocation();
+        assertThat(callback.toString()).startsWith("http://localhost:3000/cb?code=").endsWith("&state=s1");
+        String code = callback.getQuery().substring("code=".length(), callback.getQuery().indexOf('&'));
+
+        String body = client.post().uri("/login/oauth2/token")
+                .body(BodyInserters.fromFormData("grant_type", "authorization_code").with("code", code))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        String accessToken = new JSONObject(body).getString("access_token");
+
+        client.post().uri("/login/oauth2/token")
+                .body(BodyInserters.fromFormData("grant_type", "authorization_code").with("code", code))
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        String user = client.get().uri("/api/v1/users/self?access_token={token}", accessToken)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        assertThat(new JSONObject(user).getInt("id")).isEqualTo(4711);
+
+        client.get().uri("/api/v1/users/self")
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    @Test
+    void rejectsRoleSelectionWithoutAValidContext() {
+        client.post().uri("/login/oauth2/select-role")
+                .body(BodyInserters.fromFormData("role", TokenStore.STUDENT_ROLE).with("ctx", "forged.context"))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+}
@@ -0,0 +1,54 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseTemplatesTests {
+
+    private static final Principal CONFIGURED = new Principal(101, TokenStore.INSTRUCTOR_ROLE, "Kashyap Kale", "kashyapk@vt.edu");
+
+    private final ResponseTemplates templates = new ResponseTemplates(3600, List.of(CONFIGURED));
+
+    private static JSONObject json(byte[] body) {
+        return new JSONObject(new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void rendersConfiguredAndSimulatedUsersAlike() {
+        Principal quoted = new Principal(-42, TokenStore.STUDENT_ROLE, "Zoë \"Q\" Ng\\", "zoe@example.edu");
+        for (Principal principal : List.of(CONFIGURED, Principal.simulated(1_000_000_007, TokenStore.STUDENT_ROLE), quoted)) {
+            JSONObject grant = json(templates.codeGrant(new IssuedTokens("access", "refresh"), principal));
+            assertThat(grant.getString("access_token")).isEqualTo("access");
+            assertThat(grant.getString("refresh_token")).isEqualTo("refresh");
+            assertThat(grant.getInt("expires_in")).isEqualTo(3600);
+            assertThat(grant.getJSONObject("user").getInt("id")).isEqualTo(principal.id());
+            assertThat(grant.getJSONObject("user").getString("name")).isEqualTo(principal.name());
+            assertThat(grant.getJSONObject("user").length()).isEqualTo(2);
+
+            JSONObject refresh = json(templates.refreshGrant("access-2", "refresh-2", principal));
+            assertThat(refresh.getString("refresh_token")).isEqualTo("refresh-2");
+            assertThat(refresh.getJSONObject("user").getString("name")).isEqualTo(principal.name());
+
+            JSONObject user = json(templates.userInfo(principal));
+            assertThat(user.getInt("id")).isEqualTo(principal.id());
+            assertThat(user.getString("name")).isEqualTo(principal.name());
+            assertThat(user.getString("email")).isEqualTo(principal.email());
+            assertThat(user.getString("login_id")).isEqualTo(principal.email());
+
+            byte[] line = templates.introspectionLine(principal);
+            assertThat(line[line.length - 1]).isEqualTo((byte) '\n');
+            JSONObject introspection = json(line);
+            assertThat(introspection.getBoolean("active")).isTrue();
+            assertThat(introspection.getString("sub")).isEqualTo(String.valueOf(principal.id()));
+            assertThat(introspection.getString("username")).isEqualTo(principal.email());
+            assertThat(introspection.getString("role")).isEqualTo(principal.role());
+            assertThat(introspection.getJSONObject("user").similar(user)).isTrue();
+        }
+        assertThat(json(templates.introspectionLine(null)).getBoolean("active")).isFalse();
+    }
+}
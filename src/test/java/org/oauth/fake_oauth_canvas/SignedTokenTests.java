@@ -0,0 +1,68 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {TokenStore.class, HmacSigner.class}, properties = {
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "oauth.tokens.mode=signed",
+        "oauth.signing-key=test-signing-key"
+})
+class SignedTokenTests {
+
+    private static final long STUDENT_4711 = (4711L << 32) | 2;
+
+    private final HmacSigner signer = new HmacSigner("test-signing-key");
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    @Test
+    void roundTripsTheClaims() {
+        String token = SignedToken.issue(signer, STUDENT_4711, 2_000);
+        assertThat(token).hasSize(SignedToken.LENGTH);
+        assertThat(SignedToken.verify(signer, token, 1_000)).isEqualTo(STUDENT_4711);
+    }
+
+    @Test
+    void rejectsExpiredTokens() {
+        String token = SignedToken.issue(signer, STUDENT_4711, 2_000);
+        assertThat(SignedToken.verify(signer, token, 2_000)).isEqualTo(TokenIndex.MISSING);
+    }
+
+    @Test
+    void rejectsTamperedAndForeignTokens() {
+        String token = SignedToken.issue(signer, STUDENT_4711, 2_000);
+        char flipped = token.charAt(3) == 'A' ? 'B' : 'A';
+        String tampered = token.substring(0, 3) + flipped + token.substring(4);
+        assertThat(SignedToken.verify(signer, tampered, 1_000)).isEqualTo(TokenIndex.MISSING);
+
+        HmacSigner otherKey = new HmacSigner("another-key");
+        assertThat(SignedToken.verify(otherKey, token, 1_000)).isEqualTo(TokenIndex.MISSING);
+        assertThat(SignedToken.verify(signer, "not-a-token", 1_000)).isEqualTo(TokenIndex.MISSING);
+    }
+
+    @Test
+    void authorizeContextIsNeverAcceptedAsAnAccessToken() {
+        // client_id "" and redirect_uri "zz" encode to 18 bytes that read as signed claims for student 256
+        String ctx = new AuthorizationContext("", "zz", null, null, Instant.now().getEpochSecond() + 600).encode(signer);
+        assertThat(SignedToken.looksSigned(ctx)).isTrue();
+
+        assertThat(SignedToken.verify(signer, ctx, 1_000)).isEqualTo(TokenIndex.MISSING);
+        assertThat(tokenStore.getPrincipalForAccessToken(ctx)).isNull();
+        assertThat(tokenStore.introspect(List.of(ctx))).containsOnlyNulls();
+
+        // Nor the other way round
+        String token = SignedToken.issue(signer, STUDENT_4711, 2_000);
+        assertThat(AuthorizationContext.decode(signer, token, 1_000)).isNull();
+        assertThat(tokenStore.getPrincipalForAccessToken(SignedToken.issue(signer, STUDENT_4711, TokenStore.nowSeconds() + 60)).id())
+                .isEqualTo(4711);
+    }
+}
@@ -0,0 +1,117 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Time from launching a fresh JVM to the first successful token response, which is what every CI
+ * job and preview environment waits for. It takes a JVM start, so it only runs with
+ * -Dstartup.test=true or -Pfaststart, which starts the AOT build (startup.aot=true).
+ *
+ * The limit is the baseline recorded in startup-baseline.properties for the build being started,
+ * plus -Dstartup.tolerance (default 0.25), or -Dstartup.max-millis if set. The application's
+ * output goes to target/startup-time.log.
+ */
+@EnabledIfSystemProperty(named = "startup.test", matches = "true")
+class StartupTimeTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimeTests.class);
+
+    private static long maxMillis(boolean aot) throws IOException {
+        Long override = Long.getLong("startup.max-millis");
+        if (override != null) {
+            return override;
+        }
+        Properties baseline = new Properties();
+        try (InputStream in = StartupTimeTests.class.getResourceAsStream("/startup-baseline.properties")) {
+            baseline.load(in);
+        }
+        long baselineMillis = Long.parseLong(baseline.getProperty(aot ? "aot.millis" : "jvm.millis"));
+        double tolerance = Double.parseDouble(System.getProperty("startup.tolerance", "0.25"));
+        return Math.round(baselineMillis * (1 + tolerance));
+    }
+
+    @Test
+    void answersTheFirstTokenRequestInTime() throws Exception {
+        boolean aot = Boolean.getBoolean("startup.aot");
+        long maxMillis = maxMillis(aot);
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        // DevTools would restart the application in a second class loader
+        String classPath = Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator))
+                .filter(entry -> !entry.contains("spring-boot-devtools"))
+                .collect(Collectors.joining(File.pathSeparator));
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-cp", classPath));
+        if (aot) {
+            command.add("-Dspring.aot.enabled=true");
+        }
+        command.addAll(List.of(FakeOauthCanvasApplication.class.getName(),
+                "--server.port=" + port,
+                "--OAUTH_INSTRUCTOR_ACCESS_TOKEN=startup-instructor-token",
+                "--OAUTH_STUDENT_ACCESS_TOKEN=startup-student-token",
+                "--spring.datasource.url=jdbc:h2:mem:startup"));
+
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest token = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/login/oauth2/token"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .timeout(Duration.ofSeconds(5))
+                .POST(HttpRequest.BodyPublishers.ofString("grant_type=refresh_token&refresh_token=refresh-token-student-fghij"
+                        + "&client_id=fake-client-id&client_secret=fake-client-secret"))
+                .build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(Path.of("target", "startup-time.log").toFile())
+                .start();
+        try {
+            while (true) {
+                if ((System.nanoTime() - start) / 1_000_000 > maxMillis) {
+                    fail("No token response within " + maxMillis + "ms of launch");
+                }
+                if (!process.isAlive()) {
+                    fail("The application exited with " + process.exitValue() + " before answering");
+                }
+                try {
+                    HttpResponse<String> response = client.send(token, HttpResponse.BodyHandlers.ofString());
+                    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                    assertThat(response.statusCode()).as("status %dms after launch", elapsedMillis).isEqualTo(200);
+                    assertThat(response.body()).contains("access_token");
+                    logger.info("[StartupTimeTests] First token response {}ms after launch (limit {}ms, {})",
+                            elapsedMillis, maxMillis, aot ? "AOT" : "JVM");
+                    return;
+                } catch (ConnectException notListeningYet) {
+                    Thread.sleep(50);
+                }
+            }
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SyntheticCanvasTests {
+
+    private static String pageText(SyntheticCanvas.Page page) {
+        StringBuilder text = new StringBuilder();
+        StringBuilder chunk = new StringBuilder();
+        long next = page.from();
+        while (!page.isComplete(next)) {
+            chunk.setLength(0);
+            next = page.writeChunk(chunk, next);
+            assertThat(chunk.length()).isLessThan(SyntheticCanvas.CHUNK_CHARS + 512);
+            text.append(chunk);
+        }
+        return text.toString();
+    }
+
+    @Test
+    void sameSeedYieldsSameDataset() {
+        SyntheticCanvas first = new SyntheticCanvas(7, 20, 40, 5, 1000, 100);
+        SyntheticCanvas second = new SyntheticCanvas(7, 20, 40, 5, 1000, 100);
+        SyntheticCanvas other = new SyntheticCanvas(8, 20, 40, 5, 1000, 100);
+
+        assertThat(first.course(3)).isEqualTo(second.course(3));
+        String enrollments = pageText(first.page(first.enrollments(3), "1", "100"));
+        assertThat(enrollments).isEqualTo(pageText(second.page(second.enrollments(3), "1", "100")));
+        assertThat(enrollments).isNotEqualTo(pageText(other.page(other.enrollments(3), "1", "100")));
+
+        JSONArray parsed = new JSONArray(enrollments);
+        assertThat(parsed.length()).isEqualTo(40);
+        assertThat(parsed.getJSONObject(0).getString("type")).isEqualTo("TeacherEnrollment");
+        Set<Integer> users = new HashSet<>();
+        for (int i = 0; i < parsed.length(); i++) {
+            users.add(parsed.getJSONObject(i).getInt("user_id"));
+        }
+        assertThat(users).hasSize(40);
+        assertThat(first.course(21)).isNull();
+        assertThat(first.enrollments(0)).isNull();
+    }
+
+    @Test
+    void pagesLikeCanvas() {
+        SyntheticCanvas canvas = new SyntheticCanvas(42, 25, 30, 12, 10000, 50);
+        UriComponentsBuilder request = UriComponentsBuilder.fromUriString("http://localhost/api/v1/courses?access_token=t&page=2");
+
+        SyntheticCanvas.Page page = canvas.page(canvas.courses(), "2", null);
+        assertThat(page.perPage()).isEqualTo(SyntheticCanvas.DEFAULT_PER_PAGE);
+        assertThat(page.lastPage()).isEqualTo(3);
+        JSONArray courses = new JSONArray(pageText(page));
+        assertThat(courses.length()).isEqualTo(10);
+        assertThat(courses.getJSONObject(0).getInt("id")).isEqualTo(11);
+        assertThat(page.linkHeader(request)).isEqualTo(
+                "<http://localhost/api/v1/courses?access_token=t&page=2&per_page=10>; rel=\"current\","
+                        + "<http://localhost/api/v1/courses?access_token=t&page=3&per_page=10>; rel=\"next\","
+                        + "<http://localhost/api/v1/courses?access_token=t&page=1&per_page=10>; rel=\"prev\","
+                        + "<http://localhost/api/v1/courses?access_token=t&page=1&per_page=10>; rel=\"first\","
+                        + "<http://localhost/api/v1/courses?access_token=t&page=3&per_page=10>; rel=\"last\"");
+
+        SyntheticCanvas.Page last = canvas.page(canvas.courses(), "3", "1000");
+        assertThat(last.perPage()).isEqualTo(50);
+        assertThat(new JSONArray(pageText(last))).isEmpty();
+        assertThat(new JSONArray(pageText(canvas.page(canvas.assignments(25), "2", "10"))).length()).isEqualTo(2);
+    }
+
+    @Test
+    void streamsLargePagesInBoundedChunks() {
+        SyntheticCanvas canvas = new SyntheticCanvas(42, 1, 100_000, 0, 10, 100_000);
+        SyntheticCanvas.Page page = canvas.page(canvas.enrollments(1), "1", "100000");
+
+        JSONArray enrollments = new JSONArray(pageText(page));
+        assertThat(enrollments.length()).isEqualTo(100_000);
+        JSONObject lastEnrollment = enrollments.getJSONObject(99_999);
+        assertThat(lastEnrollment.getLong("id")).isEqualTo(100_000);
+        assertThat(lastEnrollment.getJSONObject("user").getInt("id")).isEqualTo(lastEnrollment.getInt("user_id"));
+    }
+}
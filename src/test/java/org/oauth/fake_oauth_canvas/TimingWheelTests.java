@@ -0,0 +1,83 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTests {
+
+    private static final long TICK = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void expiresInTheTickAfterTheDeadline() {
+        List<String> expired = new ArrayList<>();
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 4 * TICK, expired::add);
+        long base = System.nanoTime();
+
+        wheel.schedule("soon", base + TICK);
+        wheel.schedule("later", base + 20 * TICK);
+        assertThat(wheel.advance(base + TICK)).isZero();
+        assertThat(wheel.advance(base + 2 * TICK)).isEqualTo(1);
+        assertThat(expired).containsExactly("soon");
+
+        // Beyond the horizon, so its bucket is swept more than once before it is due
+        assertThat(wheel.advance(base + 20 * TICK)).isZero();
+        assertThat(wheel.advance(base + 21 * TICK)).isEqualTo(1);
+        assertThat(expired).containsExactly("soon", "later");
+    }
+
+    @Test
+    void entriesScheduledWhileTheReaperSweepsAreNotDelayedARevolution() throws Exception {
+        int schedulers = 4;
+        int perScheduler = 20_000;
+        AtomicLong reaperTick = new AtomicLong();
+        TimingWheel<long[]> wheel = new TimingWheel<>(TICK, 8 * TICK, entry -> entry[1] = reaperTick.get());
+        // Ticks are driven by hand: advance(base + k * TICK) sweeps up to tick k
+        long base = System.nanoTime();
+        List<long[]> entries = new ArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(schedulers);
+        try {
+            List<Future<List<long[]>>> scheduled = new ArrayList<>();
+            for (int t = 0; t < schedulers; t++) {
+                scheduled.add(pool.submit(() -> {
+                    List<long[]> mine = new ArrayList<>(perScheduler);
+                    for (int i = 0; i < perScheduler; i++) {
+                        // {tick the reaper had reached once it was scheduled, tick it expired in}
+                        long[] entry = {0, -1};
+                        // Already due, so it goes into the bucket the reaper is sweeping right now
+                        wheel.schedule(entry, 0);
+                        entry[0] = reaperTick.get();
+                        mine.add(entry);
+                    }
+                    return mine;
+                }));
+            }
+            while (!scheduled.stream().allMatch(Future::isDone)) {
+                wheel.advance(base + reaperTick.incrementAndGet() * TICK);
+            }
+            for (Future<List<long[]>> future : scheduled) {
+                entries.addAll(future.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        // One tick at a time, so the callback records the tick being swept
+        wheel.advance(base + reaperTick.incrementAndGet() * TICK);
+        wheel.advance(base + reaperTick.incrementAndGet() * TICK);
+
+        // Each went into a bucket no later than the one after the reaper's tick, never one already swept
+        assertThat(entries).hasSize(schedulers * perScheduler);
+        for (long[] entry : entries) {
+            assertThat(entry[1]).as("expiry tick").isBetween(0L, entry[0] + 1);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenIndexTests {
+
+    private static final int NOW = 1_000;
+    private static final int LATER = NOW + 3_600;
+
+    @Test
+    void survivesGrowthAndChurn() {
+        TokenIndex index = new TokenIndex();
+        SplittableRandom random = new SplittableRandom(42);
+        int count = 50_000;
+        long[] his = new long[count];
+        long[] los = new long[count];
+        for (int i = 0; i < count; i++) {
+            his[i] = random.nextLong();
+            los[i] = random.nextLong();
+            index.put(his[i], los[i], i, LATER);
+        }
+        assertThat(index.size()).isEqualTo(count);
+
+        // Remove every other entry; backward shifting must keep the rest reachable
+        for (int i = 0; i < count; i += 2) {
+            assertThat(index.remove(his[i], los[i], NOW)).isEqualTo(i);
+        }
+        for (int i = 0; i < count; i++) {
+            long expected = i % 2 == 0 ? TokenIndex.MISSING : i;
+            assertThat(index.get(his[i], los[i], NOW)).isEqualTo(expected);
+        }
+        assertThat(index.size()).isEqualTo(count / 2);
+    }
+
+    @Test
+    void putAllInsertsAndReplacesAcrossSegments() {
+        TokenIndex index = new TokenIndex();
+        SplittableRandom random = new SplittableRandom(11);
+        int count = 20_000;
+        long[] his = new long[count];
+        long[] los = new long[count];
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            his[i] = random.nextLong();
+            los[i] = random.nextLong();
+            values[i] = i;
+        }
+        index.put(his[0], los[0], -1, NOW);
+        // Only the first count - 1 keys are inserted
+        index.putAll(his, los, values, count - 1, LATER);
+
+        assertThat(index.size()).isEqualTo(count - 1);
+        for (int i = 0; i < count - 1; i++) {
+            assertThat(index.get(his[i], los[i], NOW)).isEqualTo(i);
+        }
+        assertThat(index.get(his[count - 1], los[count - 1], NOW)).isEqualTo(TokenIndex.MISSING);
+    }
+
+    @Test
+    void removeHandsTheValueToExactlyOneCaller() {
+        TokenIndex index = new TokenIndex();
+        index.put(7, 9, 123, LATER);
+        assertThat(index.remove(7, 9, NOW)).isEqualTo(123);
+        assertThat(index.remove(7, 9, NOW)).isEqualTo(TokenIndex.MISSING);
+    }
+
+    @Test
+    void expiredEntriesAreHiddenAndSwept() {
+        TokenIndex index = new TokenIndex();
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 1_000; i++) {
+            index.put(random.nextLong(), random.nextLong(), i, i % 2 == 0 ? NOW : LATER);
+        }
+        index.put(1, 2, 3, NOW);
+        assertThat(index.get(1, 2, NOW)).isEqualTo(TokenIndex.MISSING);
+        assertThat(index.get(1, 2, NOW - 1)).isEqualTo(3);
+
+        for (int segment = 0; segment < index.segmentCount(); segment++) {
+            index.sweep(segment, NOW);
+        }
+        assertThat(index.size()).isEqualTo(500);
+    }
+}
@@ -0,0 +1,97 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {TokenStore.class, HmacSigner.class}, properties = {
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "oauth.tokens.mode=opaque",
+        "oauth.tokens.rotate-refresh-tokens=true",
+        "oauth.code.revoke-on-replay=true"
+})
+class TokenRefreshTests {
+
+    private static final int THREADS = 16;
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    @Test
+    void refreshResolvesTheUserTheTokenWasIssuedTo() {
+        IssuedTokens issued = tokenStore.redeemCode(tokenStore.generateCode(TokenStore.STUDENT_ROLE, 4711)).tokens();
+
+        TokenRefresh refresh = tokenStore.refresh(issued.refreshToken());
+        assertThat(refresh.isRefreshed()).isTrue();
+        assertThat(refresh.principal().id()).isEqualTo(4711);
+        assertThat(refresh.principal().role()).isEqualTo(TokenStore.STUDENT_ROLE);
+        assertThat(tokenStore.getPrincipalForAccessToken(refresh.accessToken()).id()).isEqualTo(4711);
+
+        // Rotated: the old refresh token is spent, the new one works
+        assertThat(tokenStore.refresh(issued.refreshToken()).status()).isEqualTo(TokenRefresh.Status.INVALID);
+        assertThat(tokenStore.refresh(refresh.refreshToken()).isRefreshed()).isTrue();
+    }
+
+    @Test
+    void configuredStaticRefreshTokensAreNotRotated() {
+        TokenRefresh refresh = tokenStore.refresh("refresh-token-student-fghij");
+        assertThat(refresh.isRefreshed()).isTrue();
+        assertThat(refresh.accessToken()).isEqualTo("test-student-token");
+        assertThat(refresh.refreshToken()).isNull();
+        assertThat(tokenStore.refresh("not-a-refresh-token").status()).isEqualTo(TokenRefresh.Status.INVALID);
+    }
+
+    @Test
+    void replayRevokesTheMintedPairOnlyOnce() {
+        String code = tokenStore.generateCode(TokenStore.STUDENT_ROLE, 5150);
+        IssuedTokens issued = tokenStore.redeemCode(code).tokens();
+        long revokedBefore = tokenStore.getRevokedRedemptionCount();
+
+        assertThat(tokenStore.redeemCode(code).status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+        assertThat(tokenStore.redeemCode(code).status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+        assertThat(tokenStore.getRevokedRedemptionCount() - revokedBefore).isEqualTo(1);
+        assertThat(tokenStore.getPrincipalForAccessToken(issued.accessToken())).isNull();
+        assertThat(tokenStore.refresh(issued.refreshToken()).status()).isEqualTo(TokenRefresh.Status.INVALID);
+    }
+
+    @Test
+    void concurrentRotationOfOneTokenSucceedsExactlyOnce() throws Exception {
+        String refreshToken = tokenStore.redeemCode(tokenStore.generateCode(TokenStore.INSTRUCTOR_ROLE)).tokens().refreshToken();
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<TokenRefresh>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return tokenStore.refresh(refreshToken);
+                }));
+            }
+            start.countDown();
+
+            int refreshed = 0;
+            for (Future<TokenRefresh> result : results) {
+                TokenRefresh refresh = result.get();
+                if (refresh.isRefreshed()) {
+                    refreshed++;
+                } else {
+                    assertThat(refresh.status()).isIn(TokenRefresh.Status.CONFLICT, TokenRefresh.Status.INVALID);
+                }
+            }
+            assertThat(refreshed).isEqualTo(1);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.oauth.fake_oauth_canvas;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = {TokenStore.class, HmacSigner.class}, properties = {
+        "OAUTH_INSTRUCTOR_ACCESS_TOKEN=test-instructor-token",
+        "OAUTH_STUDENT_ACCESS_TOKEN=test-student-token",
+        "oauth.code.revoke-on-replay=true"
+})
+class TokenStoreConcurrencyTests {
+
+    private static final int THREADS = 16;
+    private static final int CODES = 2_000;
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    @Test
+    void eachCodeIsRedeemedExactlyOnceUnderContention() throws Exception {
+        List<String> codes = new ArrayList<>(CODES);
+        for (int i = 0; i < CODES; i++) {
+            codes.add(tokenStore.generateCode(i % 2 == 0 ? TokenStore.INSTRUCTOR_ROLE : TokenStore.STUDENT_ROLE));
+        }
+
+        AtomicIntegerArray wins = new AtomicIntegerArray(CODES);
+        AtomicIntegerArray replays = new AtomicIntegerArray(CODES);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t;
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    // Every thread walks all codes, starting at a different point to spread contention
+                    for (int i = 0; i < CODES; i++) {
+                        int index = (i + offset * (CODES / THREADS)) % CODES;
+                        CodeRedemption redemption = tokenStore.redeemCode(codes.get(index));
+                        if (redemption.isRedeemed()) {
+                            wins.incrementAndGet(index);
+                        } else if (redemption.status() == CodeRedemption.Status.REPLAYED) {
+                            replays.incrementAndGet(index);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int i = 0; i < CODES; i++) {
+            assertThat(wins.get(i)).as("redemptions of code %d", i).isEqualTo(1);
+            assertThat(replays.get(i)).as("replays of code %d", i).isEqualTo(THREADS - 1);
+        }
+    }
+
+    @Test
+    void redeemedCodeCannotBeLookedUpAgain() {
+        String code = tokenStore.generateCode(TokenStore.STUDENT_ROLE);
+        assertThat(tokenStore.getRoleForCode(code)).isEqualTo(TokenStore.STUDENT_ROLE);
+
+        CodeRedemption redemption = tokenStore.redeemCode(code);
+        assertThat(redemption.isRedeemed()).isTrue();
+        assertThat(redemption.role()).isEqualTo(TokenStore.STUDENT_ROLE);
+        assertThat(tokenStore.getRoleForCode(code)).isNull();
+    }
+
+    @Test
+    void replayNeverRevokesTheSharedStaticTokens() {
+        String code = tokenStore.generateCode(TokenStore.INSTRUCTOR_ROLE);
+        CodeRedemption first = tokenStore.redeemCode(code);
+        assertThat(first.isRedeemed()).isTrue();
+
+        // Rejected, but every other instructor holds the same pair, so it stays valid
+        CodeRedemption replay = tokenStore.redeemCode(code);
+        assertThat(replay.status()).isEqualTo(CodeRedemption.Status.REPLAYED);
+        assertThat(tokenStore.getRoleForAccessToken(first.tokens().accessToken())).isEqualTo(TokenStore.INSTRUCTOR_ROLE);
+        assertThat(tokenStore.introspect(List.of(first.tokens().accessToken()))).containsExactly(first.principal());
+        assertThat(tokenStore.refresh(first.tokens().refreshToken()).accessToken()).isEqualTo("test-instructor-token");
+        assertThat(tokenStore.getRevokedRedemptionCount()).isZero();
+    }
+
+    @Test
+    void unknownAndMissingCodesAreRejected() {
+        assertThat(tokenStore.redeemCode("no-such-code").status()).isEqualTo(CodeRedemption.Status.UNKNOWN);
+        assertThat(tokenStore.redeemCode(null).status()).isEqualTo(CodeRedemption.Status.UNKNOWN);
+    }
+}